@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.benchmarks;
+
+import java.io.File;
+import java.net.URI;
+
+import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.endpoint.EndpointPromise;
+import com.ibm.mqlight.api.endpoint.EndpointService;
+
+/**
+ * An {@link EndpointService} that always (and immediately) supplies an endpoint for the
+ * {@link LoopbackNetworkService}.
+ */
+public class LoopbackEndpointService implements EndpointService {
+
+    private static final Endpoint endpoint = new Endpoint() {
+        @Override public String getHost() { return "localhost"; }
+        @Override public int getPort() { return 5672; }
+        @Override public boolean useSsl() { return false; }
+        @Override public File getCertChainFile() { return null; }
+        @Override public boolean getVerifyName() { return false; }
+        @Override public String getUser() { return null; }
+        @Override public String getPassword() { return null; }
+        @Override public int getIdleTimeout() { return 0; }
+        @Override public URI getURI() { return URI.create("amqp://localhost:5672"); }
+    };
+
+    /**
+     * @return the endpoint supplied by this service.
+     */
+    public static Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public void lookup(EndpointPromise promise) {
+        promise.setSuccess(endpoint);
+    }
+
+    @Override
+    public void onSuccess(Endpoint endpoint) {}
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.benchmarks;
+
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
+import org.apache.qpid.proton.engine.BaseHandler;
+import org.apache.qpid.proton.engine.Collector;
+import org.apache.qpid.proton.engine.Connection;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Handler;
+import org.apache.qpid.proton.engine.Link;
+import org.apache.qpid.proton.engine.Receiver;
+import org.apache.qpid.proton.engine.Sasl;
+import org.apache.qpid.proton.engine.Sender;
+import org.apache.qpid.proton.engine.Transport;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.network.NetworkChannel;
+import com.ibm.mqlight.api.network.NetworkListener;
+
+/**
+ * An in-process stand-in for a network connection to an MQ Light server.  Data
+ * written to the channel is fed straight into a server side Proton transport, and
+ * any data that the server side produces is passed back to the client's
+ * {@link NetworkListener} on the calling thread.
+ * <p>
+ * The server side accepts every connection, session and link, grants plenty of
+ * credit to the client's sending links and accepts every message it receives.
+ * Messages can be pushed to the client's subscriptions using
+ * {@link #deliver(String, byte[], int)}.
+ * <p>
+ * This class is not thread safe: benchmarks should use one instance per thread.
+ */
+public class LoopbackNetworkChannel implements NetworkChannel {
+
+    private static final int LINK_CREDIT = 1024;
+
+    private final NetworkListener listener;
+    private final Handler handler = new ServerHandler();
+    private final Connection connection;
+    private final Transport transport;
+    private final Collector collector;
+
+    // link name -> server side sending link (i.e. the client's subscriptions)
+    private final Map<String, Sender> senders = new HashMap<>();
+    private byte[] receiveBuffer = new byte[64 * 1024];
+    private long deliveryTag = 0;
+    private Object context = null;
+
+    public LoopbackNetworkChannel(NetworkListener listener) {
+        this.listener = listener;
+        collector = Proton.collector();
+        connection = Proton.connection();
+        transport = Proton.transport();
+        connection.collect(collector);
+        connection.setHostname("localhost");
+        connection.setContainer("loopback");
+        transport.bind(connection);
+        Sasl sasl = transport.sasl();
+        sasl.server();
+        sasl.setMechanisms(new String[]{"ANONYMOUS"});
+        sasl.done(Sasl.SaslOutcome.PN_SASL_OK);
+    }
+
+    @Override
+    public void close(Promise<Void> promise) {
+        if (promise != null) promise.setSuccess(null);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, Promise<Boolean> promise) {
+        while (buffer.remaining() > 0) {
+            ByteBuffer tail = transport.tail();
+            int amount = Math.min(tail.remaining(), buffer.remaining());
+            int origLimit = buffer.limit();
+            buffer.limit(buffer.position() + amount);
+            tail.put(buffer);
+            buffer.limit(origLimit);
+            transport.process();
+            while (collector.peek() != null) {
+                collector.peek().dispatch(handler);
+                collector.pop();
+            }
+        }
+        promise.setSuccess(true);
+        flush();
+    }
+
+    /**
+     * Sends a message to the client, on the link that was established when the client
+     * subscribed to <code>linkName</code>.
+     *
+     * @param linkName the name of the client's receiving link - for example "private:topic".
+     * @param data an array holding the AMQP encoded message.
+     * @param length the number of bytes of <code>data</code> to send.
+     * @throws IllegalStateException if the client has not subscribed using <code>linkName</code>.
+     */
+    public void deliver(String linkName, byte[] data, int length) throws IllegalStateException {
+        final Sender sender = senders.get(linkName);
+        if (sender == null) {
+            throw new IllegalStateException("Client is not subscribed using link: " + linkName);
+        }
+        final long tag = deliveryTag++;
+        final Delivery delivery = sender.delivery(new byte[] {
+                (byte)(tag >>> 24), (byte)(tag >>> 16), (byte)(tag >>> 8), (byte)tag });
+        sender.send(data, 0, length);
+        sender.advance();
+        if (sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED) {
+            delivery.settle();
+        }
+        flush();
+    }
+
+    // Passes any data produced by the server side back to the client.
+    private void flush() {
+        while (transport.pending() > 0) {
+            ByteBuffer head = transport.head();
+            int amount = head.remaining();
+            byte[] data = new byte[amount];
+            head.get(data);
+            transport.pop(amount);
+            listener.onRead(this, Unpooled.wrappedBuffer(data));
+        }
+    }
+
+    @Override
+    public void setContext(Object context) {
+        this.context = context;
+    }
+
+    @Override
+    public Object getContext() {
+        return context;
+    }
+
+    private class ServerHandler extends BaseHandler {
+
+        @Override
+        public void onConnectionRemoteOpen(Event e) {
+            e.getConnection().open();
+        }
+
+        @Override
+        public void onConnectionRemoteClose(Event e) {
+            e.getConnection().close();
+        }
+
+        @Override
+        public void onSessionRemoteOpen(Event e) {
+            e.getSession().open();
+        }
+
+        @Override
+        public void onSessionRemoteClose(Event e) {
+            e.getSession().close();
+        }
+
+        @Override
+        public void onLinkRemoteOpen(Event e) {
+            final Link link = e.getLink();
+            link.setSource(link.getRemoteSource());
+            link.setTarget(link.getRemoteTarget());
+            link.open();
+            if (link instanceof Sender) {
+                senders.put(link.getName(), (Sender)link);
+            } else {
+                ((Receiver)link).flow(LINK_CREDIT);
+            }
+        }
+
+        @Override
+        public void onLinkRemoteDetach(Event e) {
+            senders.remove(e.getLink().getName());
+            e.getLink().detach();
+        }
+
+        @Override
+        public void onLinkRemoteClose(Event e) {
+            senders.remove(e.getLink().getName());
+            e.getLink().close();
+        }
+
+        @Override
+        public void onDelivery(Event e) {
+            final Delivery delivery = e.getDelivery();
+            if (e.getLink() instanceof Receiver) {
+                if (delivery.isReadable() && !delivery.isPartial()) {
+                    final Receiver receiver = (Receiver)e.getLink();
+                    if (receiveBuffer.length < delivery.pending()) {
+                        receiveBuffer = new byte[delivery.pending()];
+                    }
+                    receiver.recv(receiveBuffer, 0, receiveBuffer.length);
+                    receiver.advance();
+                    if (!delivery.remotelySettled()) {
+                        delivery.disposition(Accepted.getInstance());
+                    }
+                    delivery.settle();
+                    if (receiver.getCredit() < LINK_CREDIT / 2) {
+                        receiver.flow(LINK_CREDIT - receiver.getCredit());
+                    }
+                }
+            } else if (delivery.remotelySettled()) {
+                // The client has confirmed a message sent via deliver()
+                delivery.settle();
+            }
+        }
+    }
+}
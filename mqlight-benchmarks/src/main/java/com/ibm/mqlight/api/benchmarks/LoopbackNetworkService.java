@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.benchmarks;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.network.NetworkChannel;
+import com.ibm.mqlight.api.network.NetworkListener;
+import com.ibm.mqlight.api.network.NetworkService;
+
+/**
+ * A {@link NetworkService} that "connects" to an in-process MQ Light server stand-in,
+ * allowing the client and engine hot paths to be measured without the noise of a real
+ * network.  Connections complete synchronously, on the calling thread.
+ */
+public class LoopbackNetworkService implements NetworkService {
+
+    private LoopbackNetworkChannel channel = null;
+
+    @Override
+    public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
+        channel = new LoopbackNetworkChannel(listener);
+        promise.setSuccess(channel);
+    }
+
+    /**
+     * @return the channel created by the most recent call to {@link #connect(Endpoint, NetworkListener, Promise)},
+     *         or <code>null</code> if no connection has been made.
+     */
+    public LoopbackNetworkChannel getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.benchmarks;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.timer.TimerService;
+
+/**
+ * A {@link TimerService} whose timers never pop.  The loopback connection never needs
+ * heartbeats or retries, so the benchmarks have no need for a timer thread.
+ */
+public class NullTimerService implements TimerService {
+
+    @Override
+    public void schedule(long delay, Promise<Void> promise) {}
+
+    @Override
+    public void cancel(Promise<Void> promise) {}
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import io.netty.buffer.Unpooled;
+
+import java.nio.BufferOverflowException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.ClientOptions;
+import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DestinationListener;
+import com.ibm.mqlight.api.MalformedDelivery;
+import com.ibm.mqlight.api.NonBlockingClient;
+import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.benchmarks.NullTimerService;
+import com.ibm.mqlight.api.callback.CallbackService;
+import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.endpoint.EndpointPromise;
+import com.ibm.mqlight.api.endpoint.EndpointService;
+import com.ibm.mqlight.api.impl.callback.SameThreadCallbackService;
+import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+
+/**
+ * Measures {@link DestinationListenerWrapper#onDelivery(CallbackService, DeliveryRequest, QOS, boolean)},
+ * which decodes an AMQP message received by the engine into a {@link Delivery} and
+ * passes it to the application's {@link DestinationListener}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryBenchmark {
+
+    private static final String TOPIC_PATTERN = "private:benchmark/receive";
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"STRING", "BYTES", "JSON"})
+    public String payloadType;
+
+    private final CallbackService callbackService = new SameThreadCallbackService();
+    private DestinationListenerWrapper<Void> wrapper;
+    private BlackholeListener listener;
+    private byte[] message;
+
+    /** Passes each delivery to a JMH {@link Blackhole} so that it is not optimised away. */
+    private static class BlackholeListener implements DestinationListener<Void> {
+        private Blackhole blackhole;
+        @Override public void onMessage(NonBlockingClient client, Void context, Delivery delivery) {
+            blackhole.consume(delivery);
+        }
+        @Override public void onMalformed(NonBlockingClient client, Void context, MalformedDelivery delivery) {
+            blackhole.consume(delivery);
+        }
+        @Override public void onUnsubscribed(NonBlockingClient client, Void context, String topicPattern, String share, Exception error) {}
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // The client is never connected: confirming a delivery just tells the (discarding) engine component.
+        NonBlockingClientImpl client = new NonBlockingClientImpl(new EndpointService() {
+                    @Override public void lookup(EndpointPromise promise) {}
+                    @Override public void onSuccess(Endpoint endpoint) {}
+                }, callbackService, ComponentImpl.NOBODY, new NullTimerService(), null,
+                ClientOptions.builder().setId("benchmark").build(), null, null);
+        listener = new BlackholeListener();
+        wrapper = new DestinationListenerWrapper<Void>(client, new GsonBuilder(), listener, null);
+
+        StringBuilder sb = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; ++i) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
+        protonMsg.setAddress("amqp:///benchmark/receive");
+        if ("BYTES".equals(payloadType)) {
+            protonMsg.setBody(new AmqpValue(new Binary(new byte[payloadSize])));
+        } else if ("JSON".equals(payloadType)) {
+            protonMsg.setBody(new AmqpValue("{\"text\":\"" + sb + "\"}"));
+            protonMsg.setContentType("application/json");
+        } else {
+            protonMsg.setBody(new AmqpValue(sb.toString()));
+        }
+        byte[] data = new byte[payloadSize + 1024];
+        int length;
+        while (true) {
+            try {
+                length = protonMsg.encode(data, 0, data.length);
+                break;
+            } catch (BufferOverflowException e) {
+                data = new byte[data.length * 2];
+            }
+        }
+        message = new byte[length];
+        System.arraycopy(data, 0, message, 0, length);
+    }
+
+    @Benchmark
+    public void onDelivery(Blackhole blackhole) {
+        listener.blackhole = blackhole;
+        DeliveryRequest request = new DeliveryRequest(Unpooled.wrappedBuffer(message), QOS.AT_MOST_ONCE, TOPIC_PATTERN, null, null);
+        wrapper.onDelivery(callbackService, request, QOS.AT_MOST_ONCE, true);
+    }
+}
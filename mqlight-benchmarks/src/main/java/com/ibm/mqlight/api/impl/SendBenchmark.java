@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.mqlight.api.ClientOptions;
+import com.ibm.mqlight.api.ClientState;
+import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.SendOptions;
+import com.ibm.mqlight.api.benchmarks.LoopbackEndpointService;
+import com.ibm.mqlight.api.benchmarks.LoopbackNetworkService;
+import com.ibm.mqlight.api.benchmarks.NullTimerService;
+import com.ibm.mqlight.api.impl.callback.SameThreadCallbackService;
+
+/**
+ * Measures {@link NonBlockingClientImpl}'s send methods, from the application call
+ * through message encoding, the engine and the (loopback) network, until the send
+ * completes.  Callbacks are run on the sending thread so that each invocation
+ * includes the full cost of the send.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final String TOPIC = "benchmark/send";
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE"})
+    public QOS qos;
+
+    private NonBlockingClientImpl client;
+    private SendOptions sendOptions;
+    private String stringPayload;
+    private ByteBuffer bytesPayload;
+    private JsonPayload jsonPayload;
+
+    /** A simple object that is serialized to JSON by the client's Gson instance. */
+    static class JsonPayload {
+        String id = "benchmark";
+        long sequence = 0;
+        String text;
+        JsonPayload(String text) {
+            this.text = text;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        client = new NonBlockingClientImpl(new LoopbackEndpointService(), new SameThreadCallbackService(),
+                new LoopbackNetworkService(), new NullTimerService(), null,
+                ClientOptions.builder().setId("benchmark").build(), null, null);
+        if (client.getState() != ClientState.STARTED) {
+            throw new IllegalStateException("Client failed to start, state: " + client.getState());
+        }
+        sendOptions = SendOptions.builder().setQos(qos).build();
+
+        StringBuilder sb = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; ++i) {
+            sb.append((char)('a' + (i % 26)));
+        }
+        stringPayload = sb.toString();
+        bytesPayload = ByteBuffer.allocate(payloadSize);
+        jsonPayload = new JsonPayload(stringPayload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.stop(null, null);
+    }
+
+    @Benchmark
+    public boolean sendString() {
+        return client.send(TOPIC, stringPayload, null, sendOptions, null, null);
+    }
+
+    @Benchmark
+    public boolean sendByteBuffer() {
+        return client.send(TOPIC, bytesPayload, null, sendOptions, null, null);
+    }
+
+    @Benchmark
+    public boolean sendJson() {
+        jsonPayload.sequence++;
+        return client.send(TOPIC, jsonPayload, null, sendOptions, null, null);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import io.netty.buffer.Unpooled;
+
+import java.nio.BufferOverflowException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.benchmarks.LoopbackEndpointService;
+import com.ibm.mqlight.api.benchmarks.LoopbackNetworkChannel;
+import com.ibm.mqlight.api.benchmarks.LoopbackNetworkService;
+import com.ibm.mqlight.api.benchmarks.NullTimerService;
+import com.ibm.mqlight.api.impl.ComponentImpl;
+import com.ibm.mqlight.api.impl.LogbackLogging;
+import com.ibm.mqlight.api.impl.Message;
+import com.ibm.mqlight.api.impl.SubscriptionTopic;
+
+/**
+ * Measures the cost of {@link Engine#onReceive(Message)} for the messages on the
+ * send, receive and confirm hot paths: {@link SendRequest}, <code>DataRead</code>
+ * and {@link DeliveryResponse}.  The engine is connected to a {@link LoopbackNetworkService}
+ * so every operation runs to completion on the benchmark thread, including the
+ * server's response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    static {
+        LogbackLogging.setup();
+    }
+
+    private static final String SEND_TOPIC = "benchmark/send";
+    private static final SubscriptionTopic RECEIVE_TOPIC = new SubscriptionTopic("benchmark/receive", null);
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private Engine engine;
+    private Requestor requestor;
+    private LoopbackNetworkChannel channel;
+    private byte[] message;
+    private int messageLength;
+
+    /**
+     * Plays the part of the client: completes sends and confirms each delivery
+     * as soon as it arrives.
+     */
+    private class Requestor extends ComponentImpl {
+        private EngineConnection connection = null;
+        private boolean subscribed = false;
+        private long sent = 0;
+        private long received = 0;
+
+        @Override
+        protected void onReceive(Message message) {
+            if (message instanceof OpenResponse) {
+                connection = ((OpenResponse)message).connection;
+            } else if (message instanceof SubscribeResponse) {
+                subscribed = true;
+            } else if (message instanceof SendResponse) {
+                ++sent;
+            } else if (message instanceof DeliveryRequest) {
+                DeliveryRequest request = (DeliveryRequest)message;
+                request.buf.release();
+                ++received;
+                engine.tell(new DeliveryResponse(request), this);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        LoopbackNetworkService network = new LoopbackNetworkService();
+        engine = new Engine(network, new NullTimerService());
+        requestor = new Requestor();
+
+        engine.tell(new OpenRequest(LoopbackEndpointService.getEndpoint(), "benchmark"), requestor);
+        if (requestor.connection == null) {
+            throw new IllegalStateException("Engine failed to open a connection to the loopback network");
+        }
+        channel = network.getChannel();
+
+        engine.tell(new SubscribeRequest(requestor.connection, RECEIVE_TOPIC, QOS.AT_LEAST_ONCE, 1024, 0), requestor);
+        if (!requestor.subscribed) {
+            throw new IllegalStateException("Engine failed to subscribe to " + RECEIVE_TOPIC);
+        }
+
+        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
+        protonMsg.setAddress("amqp:///" + SEND_TOPIC);
+        protonMsg.setBody(new AmqpValue(new Binary(new byte[payloadSize])));
+        message = new byte[payloadSize + 1024];
+        while (true) {
+            try {
+                messageLength = protonMsg.encode(message, 0, message.length);
+                break;
+            } catch (BufferOverflowException e) {
+                message = new byte[message.length * 2];
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.tell(new CloseRequest(requestor.connection), requestor);
+    }
+
+    @Benchmark
+    public long sendAtMostOnce() {
+        engine.tell(new SendRequest(requestor.connection, SEND_TOPIC, Unpooled.wrappedBuffer(message), messageLength, QOS.AT_MOST_ONCE), requestor);
+        return requestor.sent;
+    }
+
+    @Benchmark
+    public long sendAtLeastOnce() {
+        engine.tell(new SendRequest(requestor.connection, SEND_TOPIC, Unpooled.wrappedBuffer(message), messageLength, QOS.AT_LEAST_ONCE), requestor);
+        return requestor.sent;
+    }
+
+    @Benchmark
+    public long receiveAndConfirm() {
+        channel.deliver(RECEIVE_TOPIC.getTopic(), message, messageLength);
+        return requestor.received;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+/**
+ * An enumeration that describes what the client does with an 'at most once' message that is sent while
+ * the client is not connected to the server (for example while it is retrying), once the client is already
+ * holding as many of these messages as is permitted by
+ * {@link ClientOptions.ClientOptionsBuilder#setMaxQueuedAtMostOnceSends(int, BufferOverflowPolicy)}.
+ * <p>
+ * Messages sent with 'at least once' quality of service are never discarded.
+ */
+public enum BufferOverflowPolicy {
+    /**
+     * The message is not sent, and the completion listener for the send operation is notified of an error.
+     */
+    REJECT,
+
+    /**
+     * The oldest 'at most once' message waiting to be sent is discarded, to make room for the message.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The message is discarded.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The messages waiting to be sent are kept as a random sample of all the 'at most once' messages sent
+     * while the client was not connected.  Either the message, or a message chosen at random from those
+     * waiting to be sent, is discarded.
+     */
+    SAMPLE
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api;
+
+import java.util.Map;
+
+/**
+ * An abstract class for observing (and transforming) the messages that pass through a client, registered
+ * using {@link ClientOptions.ClientOptionsBuilder#addInterceptor(ClientInterceptor)}.  The methods in this
+ * class are empty, so only the methods for the events of interest need to be overridden.
+ * <p>
+ * Interceptors are notified as a message reaches each {@link Stage} of the client's send or delivery
+ * pipeline, with a timestamp taken from {@link System#nanoTime()}.  Some stages are notified later than
+ * they are reached (for example {@link Stage#HANDED_TO_TRANSPORT} is notified when the send completes) but
+ * the timestamp is always the time at which the stage was reached.  Notifications can be made from the
+ * thread that sent the message, the client's internal threads, or the threads used to run listener
+ * callbacks - so interceptors must be thread safe, and must return quickly.  Exceptions thrown from
+ * {@link #onSend(Stage, String, long, long)} and {@link #onDelivery(Stage, String, long, long)} are
+ * logged and otherwise ignored.
+ */
+public abstract class ClientInterceptor {
+
+    /**
+     * The stages of the client's send and delivery pipelines.
+     */
+    public enum Stage {
+        /** A message is about to be encoded, by the thread that sent it. */
+        PRE_ENCODE,
+        /** A message has been encoded, and is about to be queued for the network. */
+        POST_ENCODE,
+        /** A message was written to the network transport.  Not reported for a message that was never written,
+            for example because it was replaced by conflation. */
+        HANDED_TO_TRANSPORT,
+        /** The send operation for a message has completed (successfully or not). */
+        SETTLED,
+        /** A message was read from the network. */
+        NETWORK_READ,
+        /** A message read from the network has been decoded. */
+        DECODED,
+        /** The {@link DestinationListener} is about to be called for a message. */
+        CALLBACK_START,
+        /** The {@link DestinationListener} has returned for a message. */
+        CALLBACK_END
+    }
+
+    /**
+     * Called as a message being sent reaches each stage of the send pipeline.
+     * @param stage one of {@link Stage#PRE_ENCODE}, {@link Stage#POST_ENCODE},
+     *              {@link Stage#HANDED_TO_TRANSPORT} or {@link Stage#SETTLED}.
+     * @param topic the topic that the message is being sent to.
+     * @param id a number that identifies the message in the notifications made for it by this client.
+     * @param nanoTime the value of {@link System#nanoTime()} when the message reached the stage.
+     */
+    public void onSend(Stage stage, String topic, long id, long nanoTime) {}
+
+    /**
+     * Called as a message that has been received reaches each stage of the delivery pipeline.
+     * @param stage one of {@link Stage#NETWORK_READ}, {@link Stage#DECODED},
+     *              {@link Stage#CALLBACK_START} or {@link Stage#CALLBACK_END}.
+     * @param topicPattern the topic pattern (and share, if any) of the subscription that the message
+     *                     was received from.
+     * @param id a number that identifies the message, amongst the messages received by the subscription.
+     * @param nanoTime the value of {@link System#nanoTime()} when the message reached the stage.
+     */
+    public void onDelivery(Stage stage, String topicPattern, long id, long nanoTime) {}
+
+    /**
+     * Called, after {@link Stage#PRE_ENCODE}, to allow the data and properties of a message to be changed
+     * before it is encoded.  An exception thrown from this method is thrown to the caller of the send method.
+     * @param topic the topic that the message is being sent to.
+     * @param data the message data: a <code>String</code> for string and JSON messages, or a
+     *             <code>java.nio.ByteBuffer</code> for bytes messages.
+     * @param properties the properties of the message, which can be modified.
+     * @return the data to send in place of <code>data</code>, which must be of the same type.
+     *         The default implementation returns <code>data</code> unchanged.
+     */
+    public Object preEncode(String topic, Object data, Map<String, Object> properties) {
+        return data;
+    }
+}
@@ -19,9 +19,13 @@
 package com.ibm.mqlight.api;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.network.NetworkOptions;
 
 /**
  * A set of options that can be used to configure the behaviour of the <code>NonBlockingClient</code>
@@ -41,16 +45,47 @@ public class ClientOptions {
     private final String password;
     private final File certFile;
     private final boolean verifyName;
+    private final int maxSenderLinks;
+    private final int sendBatchMaxMessages;
+    private final int sendBatchMaxBytes;
+    private final long sendBatchLingerMicros;
+    private final int sendHighWatermarkMessages;
+    private final long sendHighWatermarkBytes;
+    private final int sendLowWatermarkMessages;
+    private final long sendLowWatermarkBytes;
+    private final int maxQueuedAtMostOnceSends;
+    private final BufferOverflowPolicy atMostOnceOverflowPolicy;
+    private final List<ClientInterceptor> interceptors;
+    private final NetworkOptions networkOptions;
 
-    private ClientOptions(String id, String user, String password, File certFile, boolean verifyName) {
+    private ClientOptions(String id, String user, String password, File certFile, boolean verifyName, int maxSenderLinks,
+                          int sendBatchMaxMessages, int sendBatchMaxBytes, long sendBatchLingerMicros,
+                          int sendHighWatermarkMessages, long sendHighWatermarkBytes,
+                          int sendLowWatermarkMessages, long sendLowWatermarkBytes,
+                          int maxQueuedAtMostOnceSends, BufferOverflowPolicy atMostOnceOverflowPolicy,
+                          List<ClientInterceptor> interceptors, NetworkOptions networkOptions) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, id, user, "******", certFile, verifyName);
+        logger.entry(this, methodName, id, user, "******", certFile, verifyName, maxSenderLinks, sendBatchMaxMessages, sendBatchMaxBytes, sendBatchLingerMicros,
+                     sendHighWatermarkMessages, sendHighWatermarkBytes, sendLowWatermarkMessages, sendLowWatermarkBytes,
+                     maxQueuedAtMostOnceSends, atMostOnceOverflowPolicy, interceptors, networkOptions);
       
         this.id = id;
         this.user = user;
         this.password = password;
         this.certFile = certFile;
         this.verifyName = verifyName;
+        this.maxSenderLinks = maxSenderLinks;
+        this.sendBatchMaxMessages = sendBatchMaxMessages;
+        this.sendBatchMaxBytes = sendBatchMaxBytes;
+        this.sendBatchLingerMicros = sendBatchLingerMicros;
+        this.sendHighWatermarkMessages = sendHighWatermarkMessages;
+        this.sendHighWatermarkBytes = sendHighWatermarkBytes;
+        this.sendLowWatermarkMessages = sendLowWatermarkMessages;
+        this.sendLowWatermarkBytes = sendLowWatermarkBytes;
+        this.maxQueuedAtMostOnceSends = maxQueuedAtMostOnceSends;
+        this.atMostOnceOverflowPolicy = atMostOnceOverflowPolicy;
+        this.interceptors = interceptors;
+        this.networkOptions = networkOptions;
         
         logger.exit(this, methodName);
     }
@@ -75,6 +110,54 @@ public class ClientOptions {
         return verifyName;
     }
 
+    public int getMaxSenderLinks() {
+        return maxSenderLinks;
+    }
+
+    public int getSendBatchMaxMessages() {
+        return sendBatchMaxMessages;
+    }
+
+    public int getSendBatchMaxBytes() {
+        return sendBatchMaxBytes;
+    }
+
+    public long getSendBatchLingerMicros() {
+        return sendBatchLingerMicros;
+    }
+
+    public int getSendHighWatermarkMessages() {
+        return sendHighWatermarkMessages;
+    }
+
+    public long getSendHighWatermarkBytes() {
+        return sendHighWatermarkBytes;
+    }
+
+    public int getSendLowWatermarkMessages() {
+        return sendLowWatermarkMessages;
+    }
+
+    public long getSendLowWatermarkBytes() {
+        return sendLowWatermarkBytes;
+    }
+
+    public int getMaxQueuedAtMostOnceSends() {
+        return maxQueuedAtMostOnceSends;
+    }
+
+    public BufferOverflowPolicy getAtMostOnceOverflowPolicy() {
+        return atMostOnceOverflowPolicy;
+    }
+
+    public List<ClientInterceptor> getInterceptors() {
+        return interceptors;
+    }
+
+    public NetworkOptions getNetworkOptions() {
+        return networkOptions;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(super.toString());
@@ -88,6 +171,30 @@ public class ClientOptions {
           .append(certFile)
           .append(", verifyName=")
           .append(verifyName)
+          .append(", maxSenderLinks=")
+          .append(maxSenderLinks)
+          .append(", sendBatchMaxMessages=")
+          .append(sendBatchMaxMessages)
+          .append(", sendBatchMaxBytes=")
+          .append(sendBatchMaxBytes)
+          .append(", sendBatchLingerMicros=")
+          .append(sendBatchLingerMicros)
+          .append(", sendHighWatermarkMessages=")
+          .append(sendHighWatermarkMessages)
+          .append(", sendHighWatermarkBytes=")
+          .append(sendHighWatermarkBytes)
+          .append(", sendLowWatermarkMessages=")
+          .append(sendLowWatermarkMessages)
+          .append(", sendLowWatermarkBytes=")
+          .append(sendLowWatermarkBytes)
+          .append(", maxQueuedAtMostOnceSends=")
+          .append(maxQueuedAtMostOnceSends)
+          .append(", atMostOnceOverflowPolicy=")
+          .append(atMostOnceOverflowPolicy)
+          .append(", interceptors=")
+          .append(interceptors)
+          .append(", networkOptions=")
+          .append(networkOptions)
           .append("]");
         return sb.toString();
     }
@@ -110,6 +217,18 @@ public class ClientOptions {
         private String password = null;
         private File certFile = null;
         private boolean verifyName = true;
+        private int maxSenderLinks = 0;
+        private int sendBatchMaxMessages = 1;
+        private int sendBatchMaxBytes = 64 * 1024;
+        private long sendBatchLingerMicros = 0;
+        private int sendHighWatermarkMessages = 512;
+        private long sendHighWatermarkBytes = 4 * 1024 * 1024;
+        private int sendLowWatermarkMessages = -1;   // -1 means half of the high watermark
+        private long sendLowWatermarkBytes = -1;
+        private int maxQueuedAtMostOnceSends = 0;
+        private BufferOverflowPolicy atMostOnceOverflowPolicy = BufferOverflowPolicy.REJECT;
+        private final List<ClientInterceptor> interceptors = new ArrayList<>();
+        private NetworkOptions networkOptions = null;
 
         private ClientOptionsBuilder() {}
 
@@ -204,13 +323,283 @@ public class ClientOptions {
             return this;
         }
 
+        /**
+         * Limits the number of links that the client keeps open for sending messages.  The client opens
+         * a link for each topic that it sends messages to, and by default keeps the link open until the
+         * client is stopped.  When a limit is set, and sending to a new topic would exceed it, the client
+         * closes the least recently used link that has no messages waiting to be sent or confirmed.
+         * @param maxSenderLinks the maximum number of sending links, or 0 (the default) for no limit.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public ClientOptionsBuilder setMaxSenderLinks(int maxSenderLinks) throws IllegalArgumentException {
+            final String methodName = "setMaxSenderLinks";
+            logger.entry(this, methodName, maxSenderLinks);
+
+            if (maxSenderLinks < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Maximum sender links value '" + maxSenderLinks + "' is invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.maxSenderLinks = maxSenderLinks;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Enables send batching, where the client encodes several messages before writing them to the
+         * network as a single write.  This reduces the number of network writes (and hence system calls)
+         * needed to send many small messages, at the cost of delaying some messages slightly.
+         * <p>
+         * A batch is written to the network when it contains this many messages, when it reaches the size
+         * set using {@link #setSendBatchMaxBytes(int)}, or when the linger time set using
+         * {@link #setSendBatchLingerMicros(long)} has elapsed.  If no linger time is set, a batch is also
+         * written as soon as the client has no further messages queued up to send.
+         * @param maxMessages the maximum number of messages in a batch.  The default is 1, which disables batching.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a value less than 1 is specified.
+         */
+        public ClientOptionsBuilder setSendBatchMaxMessages(int maxMessages) throws IllegalArgumentException {
+            final String methodName = "setSendBatchMaxMessages";
+            logger.entry(this, methodName, maxMessages);
+
+            if (maxMessages < 1) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send batch maximum messages value '" + maxMessages + "' is invalid, must be >= 1");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendBatchMaxMessages = maxMessages;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes of encoded message data at which a batch of messages is written to the
+         * network.  This only has an effect when batching has been enabled using
+         * {@link #setSendBatchMaxMessages(int)}.
+         * @param maxBytes the maximum size of a batch, in bytes.  The default is 65536.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a value less than 1 is specified.
+         */
+        public ClientOptionsBuilder setSendBatchMaxBytes(int maxBytes) throws IllegalArgumentException {
+            final String methodName = "setSendBatchMaxBytes";
+            logger.entry(this, methodName, maxBytes);
+
+            if (maxBytes < 1) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send batch maximum bytes value '" + maxBytes + "' is invalid, must be >= 1");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendBatchMaxBytes = maxBytes;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum time that a message can wait in a partly filled batch before the batch is written
+         * to the network.  This only has an effect when batching has been enabled using
+         * {@link #setSendBatchMaxMessages(int)}.  The client's timers have a resolution of one millisecond,
+         * so non-zero values are rounded up to a whole number of milliseconds.
+         * @param lingerMicros the linger time, in microseconds.  The default is 0, meaning that a batch is
+         *                     written as soon as the client has no further messages queued up to send.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public ClientOptionsBuilder setSendBatchLingerMicros(long lingerMicros) throws IllegalArgumentException {
+            final String methodName = "setSendBatchLingerMicros";
+            logger.entry(this, methodName, lingerMicros);
+
+            if (lingerMicros < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send batch linger value '" + lingerMicros + "' is invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendBatchLingerMicros = lingerMicros;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the high watermark for messages that have been sent, but not yet completed.  A message is
+         * counted from when it is passed to one of the client's <code>send</code> methods until its
+         * completion listener is notified - for 'at most once' messages, until the message has been written
+         * to the network, and for 'at least once' messages, until the server has confirmed receipt of it.
+         * <p>
+         * When either the number of messages, or the number of bytes of encoded message data, reaches the
+         * high watermark the <code>send</code> method returns <code>false</code>.  The client continues to
+         * accept messages, but the application should stop sending until it is notified, via
+         * {@link NonBlockingClientListener#onDrain(NonBlockingClient, Object)}, that the messages have dropped
+         * to the low watermark set using {@link #setSendLowWatermark(int, long)}.
+         * @param messages the number of messages at which <code>send</code> returns <code>false</code>.  The default is 512.
+         * @param bytes the number of bytes at which <code>send</code> returns <code>false</code>.  The default is 4194304.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a value less than 1 is specified.
+         */
+        public ClientOptionsBuilder setSendHighWatermark(int messages, long bytes) throws IllegalArgumentException {
+            final String methodName = "setSendHighWatermark";
+            logger.entry(this, methodName, messages, bytes);
+
+            if (messages < 1 || bytes < 1) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send high watermark values '" + messages + "' messages, '" + bytes + "' bytes are invalid, must be >= 1");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendHighWatermarkMessages = messages;
+            this.sendHighWatermarkBytes = bytes;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the low watermark for messages that have been sent, but not yet completed.  After a
+         * <code>send</code> method has returned <code>false</code>, the client notifies
+         * {@link NonBlockingClientListener#onDrain(NonBlockingClient, Object)} once both the number of
+         * messages and the number of bytes have dropped to (or below) this watermark.  See
+         * {@link #setSendHighWatermark(int, long)}.
+         * @param messages the number of messages at which <code>onDrain</code> is notified.  The default is half
+         *                 of the high watermark.
+         * @param bytes the number of bytes at which <code>onDrain</code> is notified.  The default is half of the
+         *              high watermark.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public ClientOptionsBuilder setSendLowWatermark(int messages, long bytes) throws IllegalArgumentException {
+            final String methodName = "setSendLowWatermark";
+            logger.entry(this, methodName, messages, bytes);
+
+            if (messages < 0 || bytes < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send low watermark values '" + messages + "' messages, '" + bytes + "' bytes are invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendLowWatermarkMessages = messages;
+            this.sendLowWatermarkBytes = bytes;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Limits the number of 'at most once' messages that the client holds in memory while it is not connected
+         * to the server - for example while it is retrying a lost connection.  Once the limit is reached, further
+         * 'at most once' messages are handled according to the specified policy, and counted by
+         * {@link NonBlockingClient#getDroppedSendCount()}.  'At least once' messages are not limited.
+         * <p>
+         * When a message is discarded, the completion listener for the send operation is notified of success,
+         * as the message could equally have been lost in the network.  When a message is rejected, it is
+         * notified of an error.
+         * @param maxSends the maximum number of 'at most once' messages to hold, or 0 (the default) for no limit.
+         * @param policy what to do with an 'at most once' message that is sent once the limit has been reached.
+         *               The default is {@link BufferOverflowPolicy#REJECT}.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value, or a <code>null</code> policy, is specified.
+         */
+        public ClientOptionsBuilder setMaxQueuedAtMostOnceSends(int maxSends, BufferOverflowPolicy policy) throws IllegalArgumentException {
+            final String methodName = "setMaxQueuedAtMostOnceSends";
+            logger.entry(this, methodName, maxSends, policy);
+
+            if (maxSends < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Maximum queued at most once sends value '" + maxSends + "' is invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            if (policy == null) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Buffer overflow policy cannot be null");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.maxQueuedAtMostOnceSends = maxSends;
+            this.atMostOnceOverflowPolicy = policy;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Adds an interceptor, which is notified as the messages sent and received by the client pass
+         * through each stage of the client's pipelines.  Interceptors are called in the order that they
+         * were added.
+         * @param interceptor the interceptor to add.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>interceptor</code> is <code>null</code>.
+         */
+        public ClientOptionsBuilder addInterceptor(ClientInterceptor interceptor) throws IllegalArgumentException {
+            final String methodName = "addInterceptor";
+            logger.entry(this, methodName, interceptor);
+
+            if (interceptor == null) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Interceptor cannot be null");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            interceptors.add(interceptor);
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the options used to tune the client's network connections.  The options are only used when
+         * the client creates its own network service - they are ignored if a {@link com.ibm.mqlight.api.network.NetworkService}
+         * is passed to the client, and by clients created using
+         * {@link NonBlockingClient#createShared(String, ClientOptions, NonBlockingClientListener, Object)},
+         * which share a network service.
+         * @param networkOptions the network options, or <code>null</code> (the default) to use the default
+         *                       network options.
+         * @return the same instance of <code>ClientOptionsBuilder</code> that this method was invoked on.
+         */
+        public ClientOptionsBuilder setNetworkOptions(NetworkOptions networkOptions) {
+            final String methodName = "setNetworkOptions";
+            logger.entry(this, methodName, networkOptions);
+
+            this.networkOptions = networkOptions;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * @return an instance of the <code>ClientOptions</code> object, built using the various
          *         settings of this <code>ClientOptionsBuilder</code> class at the point this method
          *         is invoked.
+         * @throws IllegalArgumentException if the send low watermark is not below the send high watermark.
          */
-        public ClientOptions build() {
-            return new ClientOptions(id, user, password, certFile, verifyName);
+        public ClientOptions build() throws IllegalArgumentException {
+            final String methodName = "build";
+            logger.entry(this, methodName);
+
+            final int lowMessages = sendLowWatermarkMessages < 0 ? sendHighWatermarkMessages / 2 : sendLowWatermarkMessages;
+            final long lowBytes = sendLowWatermarkBytes < 0 ? sendHighWatermarkBytes / 2 : sendLowWatermarkBytes;
+            if (lowMessages >= sendHighWatermarkMessages || lowBytes >= sendHighWatermarkBytes) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Send low watermark (" + lowMessages + " messages, " + lowBytes
+                      + " bytes) must be below the send high watermark (" + sendHighWatermarkMessages + " messages, " + sendHighWatermarkBytes + " bytes)");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            final ClientOptions result = new ClientOptions(id, user, password, certFile, verifyName, maxSenderLinks,
+                                                           sendBatchMaxMessages, sendBatchMaxBytes, sendBatchLingerMicros,
+                                                           sendHighWatermarkMessages, sendHighWatermarkBytes,
+                                                           lowMessages, lowBytes,
+                                                           maxQueuedAtMostOnceSends, atMostOnceOverflowPolicy,
+                                                           Collections.unmodifiableList(new ArrayList<>(interceptors)), networkOptions);
+
+            logger.exit(this, methodName, result);
+
+            return result;
         }
     }
 }
@@ -20,6 +20,7 @@ package com.ibm.mqlight.api;
 
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Map;
 
 import com.google.gson.Gson;
@@ -101,6 +102,27 @@ public abstract class NonBlockingClient {
         return new NonBlockingClientImpl(service, options, listener, context);
     }
 
+    /**
+     * Creates a new instance of the <code>NonBlockingClient</code> in starting state, which shares its
+     * threads with every other client created using this method.  Each client is assigned one of a
+     * fixed pool of engines (one per processor) to drive its connection, and all of the clients share
+     * the threads used to run callbacks and timers.  This keeps the number of threads used by a process
+     * that creates a large number of clients constant, at the cost of a long running callback in one
+     * client being able to delay callbacks for other clients.
+     * @param service a URI for the service to connect to.
+     * @param options a set of options that determine the behaviour of the client.
+     * @param listener a listener that is notified of major life-cycle events for the client.
+     * @param context a context object that is passed into the listener.
+     * @return a new instance of <code>NonBlockingClient</code>
+     * @throws IllegalArgumentException thrown if one or more of the <code>options</code> is not valid.
+     * @see NonBlockingClient#create(String, ClientOptions, NonBlockingClientListener, Object)
+     */
+    public static <T> NonBlockingClient createShared(String service, ClientOptions options,
+            NonBlockingClientListener<T> listener, T context)
+    throws IllegalArgumentException {
+        return NonBlockingClientImpl.createShared(service, options, listener, context);
+    }
+
     /**
      * Creates a new instance of the <code>NonBlockingClient</code> in starting state.  The client
      * will use the set of plugable services, provided as arguments to this method.
@@ -156,6 +178,15 @@ public abstract class NonBlockingClient {
      */
     public abstract ClientState getState();
 
+    /**
+     * @return the number of 'at most once' messages that this client has discarded, or refused to send, because
+     *         it was already holding the maximum number of these messages while not connected to the server.
+     *         See {@link ClientOptions.ClientOptionsBuilder#setMaxQueuedAtMostOnceSends(int, BufferOverflowPolicy)}.
+     */
+    public long getDroppedSendCount() {
+        return 0;
+    }
+
     /**
      * Sends a string message to a topic.
      * @param topic the topic to send the message to. Cannot be null.
@@ -504,4 +535,27 @@ public abstract class NonBlockingClient {
     throws UnsubscribedException, StoppedException, IllegalArgumentException {
         return unsubscribe(topicPattern, null, listener, context);
     }
+
+    /**
+     * Confirms receipt of a number of deliveries at once.  This has the same effect as calling
+     * {@link Delivery#confirm()} for each delivery, but the confirmations are passed to the server
+     * together - which is much more efficient when an application processes deliveries in batches.
+     * @param deliveries the deliveries to confirm.  These must all have been received by this client,
+     *                   from subscriptions with 'at least once' quality of service and
+     *                   <code>autoConfirm</code> set to <code>false</code>.
+     * @throws StateException if confirmation is not applicable for one of the deliveries, or one has
+     *                        already been confirmed (in which case none of the deliveries are confirmed),
+     *                        or if the network state is such that some of the deliveries cannot be confirmed.
+     * @throws IllegalArgumentException if <code>deliveries</code> is <code>null</code>, or contains a delivery
+     *                                  that was not received by this client.
+     * @see Delivery#confirm()
+     */
+    public void confirm(Collection<? extends Delivery> deliveries) throws StateException, IllegalArgumentException {
+        if (deliveries == null) {
+            throw new IllegalArgumentException("Deliveries cannot be null");
+        }
+        for (Delivery delivery : deliveries) {
+            delivery.confirm();
+        }
+    }
 }
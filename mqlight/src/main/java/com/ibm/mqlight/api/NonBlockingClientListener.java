@@ -80,6 +80,10 @@ public interface NonBlockingClientListener<T> {
      * Called as a notification when the client has flushed any buffered messages to the network. This notification
      * can be used in conjunction with the value returned by a {@link NonBlockingClient#send} method to efficiently
      * send messages without buffering a large number of messages in memory allocated by the client.
+     * <p>
+     * This is notified after a <code>send</code> method has returned <code>false</code>, once the messages that
+     * have not yet completed drop to the low watermark set using
+     * {@link ClientOptions.ClientOptionsBuilder#setSendLowWatermark(int, long)}.
      * 
      * @param client a reference to the client that the listener was registered for and this notification pertains to.
      * @param context the context object that was specified when the listener was registered.
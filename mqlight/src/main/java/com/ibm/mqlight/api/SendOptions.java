@@ -36,13 +36,17 @@ public class SendOptions {
   
     private final QOS qos;
     private final long ttl;
+    private final boolean conflate;
+    private final String conflationKeyProperty;
 
-    private SendOptions(QOS qos, long ttl) {
+    private SendOptions(QOS qos, long ttl, boolean conflate, String conflationKeyProperty) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, qos, ttl);
+        logger.entry(this, methodName, qos, ttl, conflate, conflationKeyProperty);
       
         this.qos = qos;
         this.ttl = ttl;
+        this.conflate = conflate;
+        this.conflationKeyProperty = conflationKeyProperty;
         
         logger.exit(this, methodName);
     }
@@ -55,6 +59,14 @@ public class SendOptions {
         return ttl;
     }
 
+    public final boolean getConflate() {
+        return conflate;
+    }
+
+    public final String getConflationKeyProperty() {
+        return conflationKeyProperty;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(super.toString());
@@ -62,6 +74,10 @@ public class SendOptions {
           .append(qos)
           .append(", ttl=")
           .append(ttl)
+          .append(", conflate=")
+          .append(conflate)
+          .append(", conflationKeyProperty=")
+          .append(conflationKeyProperty)
           .append("]");
         return sb.toString();
     }
@@ -80,6 +96,8 @@ public class SendOptions {
     public static class SendOptionsBuilder {
         private QOS qos = QOS.AT_MOST_ONCE;
         private long ttl = 0;
+        private boolean conflate = false;
+        private String conflationKeyProperty = null;
 
         private SendOptionsBuilder() {}
 
@@ -130,12 +148,69 @@ public class SendOptions {
             return this;
         }
 
+        /**
+         * Enables last-value conflation for 'at most once' messages.  While a message is waiting for the
+         * client to write it to the network - because the server has not yet granted the client credit
+         * to send on the topic, or because earlier messages are still being written - a newer message sent
+         * to the same topic, with conflation enabled, replaces it.  Only the latest message is then sent.
+         * The completion listener for a replaced message is notified of success.
+         * <p>
+         * Use {@link #setConflationKeyProperty(String)} to only replace messages that also have the same
+         * value for a message property.
+         * @param conflate <code>true</code> to enable conflation.  The default is <code>false</code>.
+         * @return the instance of <code>SendOptionsBuilder</code> that this method was
+         *         called on.
+         */
+        public SendOptionsBuilder setConflate(boolean conflate) {
+            final String methodName = "setConflate";
+            logger.entry(this, methodName, conflate);
+
+            this.conflate = conflate;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the name of a message property that, together with the topic, identifies which messages
+         * replace each other when conflation is enabled using {@link #setConflate(boolean)}.  For example,
+         * a property holding an instrument name allows the latest price for each instrument to be kept.
+         * @param propertyName the name of the property, or <code>null</code> (the default) to conflate
+         *                     all the messages sent to a topic.
+         * @return the instance of <code>SendOptionsBuilder</code> that this method was
+         *         called on.
+         */
+        public SendOptionsBuilder setConflationKeyProperty(String propertyName) {
+            final String methodName = "setConflationKeyProperty";
+            logger.entry(this, methodName, propertyName);
+
+            this.conflationKeyProperty = propertyName;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * @return an instance of SendOptions based on the current settings of
          *         this builder.
+         * @throws IllegalArgumentException if conflation is enabled for 'at least once' messages.
          */
-        public SendOptions build() {
-            return new SendOptions(qos, ttl);
+        public SendOptions build() throws IllegalArgumentException {
+            final String methodName = "build";
+            logger.entry(this, methodName);
+
+            if (conflate && qos == QOS.AT_LEAST_ONCE) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Conflation cannot be used with 'at least once' quality of service");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            final SendOptions result = new SendOptions(qos, ttl, conflate, conflationKeyProperty);
+
+            logger.exit(this, methodName, result);
+
+            return result;
         }
     }
 
@@ -32,22 +32,61 @@ import com.ibm.mqlight.api.logging.LoggerFactory;
 public class SubscribeOptions {
 
     private static final Logger logger = LoggerFactory.getLogger(SubscribeOptions.class);
+
+    /**
+     * Determines which of the messages delivered to a subscription must have their
+     * {@link DestinationListener} callbacks run in the order that the messages were
+     * received.  Callbacks for messages in different scopes can be run concurrently,
+     * when the client's {@link com.ibm.mqlight.api.callback.CallbackService} supports this.
+     */
+    public enum OrderingScope {
+        /** All of the client's callbacks are run in order.  This is the default. */
+        CLIENT,
+        /** Callbacks for messages delivered to the same subscription are run in order. */
+        SUBSCRIPTION,
+        /**
+         * Callbacks for messages delivered to subscriptions with the same share name are run in
+         * order.  Private (unshared) subscriptions are ordered as for {@link #SUBSCRIPTION}.
+         */
+        SHARE,
+        /**
+         * Callbacks for messages with the same value for a message property are run in order.
+         * The property is named using {@link SubscribeOptionsBuilder#setOrderingKey(String)}.
+         * Messages that do not have the property are ordered as for {@link #SUBSCRIPTION}.
+         */
+        KEY
+    }
   
     private final boolean autoConfirm;
     private final int credit;
     private final QOS qos;
     private final String shareName;
     private final long ttl;
+    private final OrderingScope orderingScope;
+    private final String orderingKey;
+    private final boolean adaptiveCredit;
+    private final long maxBufferedBytes;
+    private final boolean conflate;
+    private final String conflationKeyProperty;
 
-    private SubscribeOptions(boolean autoConfirm, int credit, QOS qos, String shareName, long ttl) {
+    private SubscribeOptions(boolean autoConfirm, int credit, QOS qos, String shareName, long ttl,
+                             OrderingScope orderingScope, String orderingKey, boolean adaptiveCredit,
+                             long maxBufferedBytes, boolean conflate, String conflationKeyProperty) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, autoConfirm, credit, qos, shareName, ttl);
+        logger.entry(this, methodName, autoConfirm, credit, qos, shareName, ttl, orderingScope, orderingKey,
+                     adaptiveCredit, maxBufferedBytes, conflate, conflationKeyProperty);
       
         this.autoConfirm = autoConfirm;
         this.credit = credit;
         this.qos = qos;
         this.shareName = shareName;
         this.ttl = ttl;
+        this.orderingScope = orderingScope;
+        this.orderingKey = orderingKey;
+        this.adaptiveCredit = adaptiveCredit;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.conflate = conflate;
+        this.conflationKeyProperty = conflationKeyProperty;
         
         logger.exit(this, methodName);
     }
@@ -72,6 +111,30 @@ public class SubscribeOptions {
         return ttl;
     }
 
+    public OrderingScope getOrderingScope() {
+        return orderingScope;
+    }
+
+    public String getOrderingKey() {
+        return orderingKey;
+    }
+
+    public boolean getAdaptiveCredit() {
+        return adaptiveCredit;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public boolean getConflate() {
+        return conflate;
+    }
+
+    public String getConflationKeyProperty() {
+        return conflationKeyProperty;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(super.toString());
@@ -85,6 +148,18 @@ public class SubscribeOptions {
           .append(shareName)
           .append(", ttl=")
           .append(ttl)
+          .append(", orderingScope=")
+          .append(orderingScope)
+          .append(", orderingKey=")
+          .append(orderingKey)
+          .append(", adaptiveCredit=")
+          .append(adaptiveCredit)
+          .append(", maxBufferedBytes=")
+          .append(maxBufferedBytes)
+          .append(", conflate=")
+          .append(conflate)
+          .append(", conflationKeyProperty=")
+          .append(conflationKeyProperty)
           .append("]");
         return sb.toString();
     }
@@ -106,6 +181,12 @@ public class SubscribeOptions {
         private QOS qos = QOS.AT_MOST_ONCE;
         private String shareName = null;
         private long ttl = 0;
+        private OrderingScope orderingScope = OrderingScope.CLIENT;
+        private String orderingKey = null;
+        private boolean adaptiveCredit = false;
+        private long maxBufferedBytes = 0;
+        private boolean conflate = false;
+        private String conflationKeyProperty = null;
 
         private SubscribeOptionsBuilder() {}
 
@@ -152,6 +233,45 @@ public class SubscribeOptions {
             return this;
         }
 
+        /**
+         * Determines whether the client adapts the number of messages it allows the server to send
+         * ahead of the application processing them.  When set to <code>true</code> the client measures how
+         * quickly messages are processed, and the round trip time to the server, and allows just enough
+         * messages to be sent ahead to keep the application busy - up to the value set by
+         * {@link #setCredit(int)}.  When set to <code>false</code> (the default) the full credit value is used.
+         * @param adaptiveCredit whether to adapt the credit to the rate at which messages are processed.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         */
+        public SubscribeOptionsBuilder setAdaptiveCredit(boolean adaptiveCredit) {
+            this.adaptiveCredit = adaptiveCredit;
+            return this;
+        }
+
+        /**
+         * Sets a limit on the total size of the messages that the client holds for the subscription, that
+         * is messages that have been received but whose processing has not yet completed (or, if
+         * <code>autoConfirm</code> is <code>false</code>, have not yet been confirmed).  While this limit is
+         * exceeded the server is not allowed to send any more messages to the subscription.
+         * @param maxBufferedBytes the limit in bytes, which must be >= 0.  The default, 0, means no limit.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if an invalid <code>maxBufferedBytes</code> value is specified.
+         */
+        public SubscribeOptionsBuilder setMaxBufferedBytes(long maxBufferedBytes) throws IllegalArgumentException {
+            final String methodName = "setMaxBufferedBytes";
+            logger.entry(this, methodName, maxBufferedBytes);
+
+            if (maxBufferedBytes < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Maximum buffered bytes value '" + maxBufferedBytes + "' is invalid, must be >= 0");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.maxBufferedBytes = maxBufferedBytes;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * The quality of service to use for delivering messages to the subscription.  The
          * default, if this option is not set, is: 'at most once'.
@@ -228,12 +348,122 @@ public class SubscribeOptions {
             return this;
         }
 
+        /**
+         * Determines which of the subscription's messages must have their callbacks run in order.
+         * Choosing a narrower scope than the default allows callbacks for different subscriptions
+         * (or shares) to be run concurrently.
+         * @param orderingScope the ordering scope.  The default, if this option is not set, is
+         *                      {@link OrderingScope#CLIENT}.  {@link OrderingScope#KEY} is set using
+         *                      {@link #setOrderingKey(String)}.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>orderingScope</code> is <code>null</code> or
+         *                                  {@link OrderingScope#KEY}.
+         */
+        public SubscribeOptionsBuilder setOrderingScope(OrderingScope orderingScope) throws IllegalArgumentException {
+            final String methodName = "setOrderingScope";
+            logger.entry(this, methodName, orderingScope);
+
+            if (orderingScope == null) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering scope cannot be null");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            } else if (orderingScope == OrderingScope.KEY) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering scope KEY must be set using setOrderingKey()");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.orderingScope = orderingScope;
+            this.orderingKey = null;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the ordering scope to {@link OrderingScope#KEY}, so that callbacks for messages with
+         * the same value for the named message property are run in order.
+         * @param propertyName the name of the message property that holds the ordering key.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>propertyName</code> is <code>null</code> or empty.
+         */
+        public SubscribeOptionsBuilder setOrderingKey(String propertyName) throws IllegalArgumentException {
+            final String methodName = "setOrderingKey";
+            logger.entry(this, methodName, propertyName);
+
+            if (propertyName == null || propertyName.isEmpty()) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Ordering key property name cannot be null or empty");
+              logger.throwing(this,  methodName, exception);
+              throw exception;
+            }
+            this.orderingScope = OrderingScope.KEY;
+            this.orderingKey = propertyName;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Enables last-value conflation for an 'at most once' subscription, for consumers that cannot keep
+         * up with the rate at which messages arrive.  While the callback for a message is waiting to be
+         * run, a newer message arriving on the same topic replaces it, so that only the latest message is
+         * passed to the {@link DestinationListener}.  Replaced messages are discarded.
+         * <p>
+         * Use {@link #setConflationKeyProperty(String)} to only replace messages that also have the same
+         * value for a message property.
+         * @param conflate <code>true</code> to enable conflation.  The default is <code>false</code>.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         */
+        public SubscribeOptionsBuilder setConflate(boolean conflate) {
+            final String methodName = "setConflate";
+            logger.entry(this, methodName, conflate);
+
+            this.conflate = conflate;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the name of a message property that, together with the topic, identifies which messages
+         * replace each other when conflation is enabled using {@link #setConflate(boolean)}.
+         * @param propertyName the name of the property, or <code>null</code> (the default) to conflate
+         *                     all the messages received from a topic.
+         * @return the instance of <code>SubscribeOptionsBuilder</code> that this method was invoked on.
+         */
+        public SubscribeOptionsBuilder setConflationKeyProperty(String propertyName) {
+            final String methodName = "setConflationKeyProperty";
+            logger.entry(this, methodName, propertyName);
+
+            this.conflationKeyProperty = propertyName;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
         /**
          * @return an instance of SubscribeOptions based on the current settings of
          *         this builder.
+         * @throws IllegalArgumentException if conflation is enabled for an 'at least once' subscription.
          */
-        public SubscribeOptions build() {
-            return new SubscribeOptions(autoConfirm, credit, qos, shareName, ttl);
+        public SubscribeOptions build() throws IllegalArgumentException {
+            final String methodName = "build";
+            logger.entry(this, methodName);
+
+            if (conflate && qos == QOS.AT_LEAST_ONCE) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Conflation cannot be used with 'at least once' quality of service");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            final SubscribeOptions result = new SubscribeOptions(autoConfirm, credit, qos, shareName, ttl, orderingScope, orderingKey,
+                                                                 adaptiveCredit, maxBufferedBytes, conflate, conflationKeyProperty);
+
+            logger.exit(this, methodName, result);
+
+            return result;
         }
     }
 }
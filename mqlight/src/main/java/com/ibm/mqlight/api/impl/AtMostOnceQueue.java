@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The 'at most once' sends that the client is holding while it is not connected to the server.  These
+ * are kept apart from the rest of the client's pending work so that, when too many are held, the one
+ * to discard can be found (and replaced) without searching through the pending work.
+ * <p>
+ * The entries are held in a ring buffer.  Each records how many other items of pending work had been
+ * queued before it, so that the entries can be put back amongst the pending work, in the order they
+ * were queued, once the client is ready to process them.
+ * <p>
+ * This class is not thread safe.
+ */
+class AtMostOnceQueue<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] values;
+    private long[] sequences;    // The order in which entries were added to the queue
+    private int[] positions;     // The number of other pending work items queued before each entry
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    private long nextSequence = 0;
+
+    AtMostOnceQueue() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        values = new Object[capacity];
+        sequences = new long[capacity];
+        positions = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an entry to the end of the queue.
+     * @param value the entry to add.
+     * @param position the number of other pending work items that have been queued before this entry.
+     */
+    void addLast(V value, int position) {
+        if (size == values.length) {
+            grow();
+        }
+        set((head + size) & mask, value, position);
+        ++size;
+    }
+
+    /**
+     * Removes the entry at the front of the queue (which is not necessarily the first entry added, if
+     * entries have since been replaced).
+     * @return the entry that was removed, or <code>null</code> if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    V removeFirst() {
+        if (size == 0) return null;
+        final V result = (V)values[head];
+        values[head] = null;
+        head = (head + 1) & mask;
+        --size;
+        return result;
+    }
+
+    /**
+     * Replaces an entry in the queue with a newly added entry.
+     * @param index the index of the entry to replace, counting from 0 at the front of the queue.
+     * @param value the new entry, which is ordered as if it had been added to the end of the queue.
+     * @param position the number of other pending work items that have been queued before the new entry.
+     * @return the entry that was replaced.
+     */
+    @SuppressWarnings("unchecked")
+    V replace(int index, V value, int position) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        final int slot = (head + index) & mask;
+        final V result = (V)values[slot];
+        set(slot, value, position);
+        return result;
+    }
+
+    private void set(int slot, V value, int position) {
+        values[slot] = value;
+        sequences[slot] = nextSequence++;
+        positions[slot] = position;
+    }
+
+    private void grow() {
+        final Object[] oldValues = values;
+        final long[] oldSequences = sequences;
+        final int[] oldPositions = positions;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < size; ++i) {
+            final int slot = (head + i) & (oldValues.length - 1);
+            values[i] = oldValues[slot];
+            sequences[i] = oldSequences[slot];
+            positions[i] = oldPositions[slot];
+        }
+        head = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all of the entries from the queue, putting them into a list of the other pending work.
+     * Each entry goes back to where it was queued relative to that work, and entries queued at the same
+     * point keep the order in which they were added.
+     * @param work the other pending work, which has only been added to since the entries were queued.
+     */
+    @SuppressWarnings("unchecked")
+    void removeAllInto(List<? super V> work) {
+        if (size == 0) return;
+
+        final Integer[] slots = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            slots[i] = (head + i) & mask;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                final long sa = sequences[a];
+                final long sb = sequences[b];
+                return sa < sb ? -1 : (sa == sb ? 0 : 1);
+            }
+        });
+
+        // Positions never decrease as the sequence increases, so the two lists can be merged in one pass
+        final ArrayList<Object> merged = new ArrayList<>(work.size() + size);
+        int next = 0;
+        int position = 0;
+        for (Object item : work) {
+            while (next < slots.length && positions[slots[next]] <= position) {
+                merged.add(values[slots[next++]]);
+            }
+            merged.add(item);
+            ++position;
+        }
+        while (next < slots.length) {
+            merged.add(values[slots[next++]]);
+        }
+
+        work.clear();
+        ((List<Object>)work).addAll(merged);
+
+        Arrays.fill(values, null);
+        head = 0;
+        size = 0;
+        nextSequence = 0;
+    }
+}
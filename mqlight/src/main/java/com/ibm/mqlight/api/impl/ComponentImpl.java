@@ -18,14 +18,30 @@
  */
 package com.ibm.mqlight.api.impl;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
 
+/**
+ * Base class for components that process messages, sent to them via {@link #tell(Message, Component)},
+ * one at a time and in the order that they were sent.
+ * <p>
+ * Messages are queued in a lock-free mailbox that any number of threads can send to.  At most one
+ * thread at a time processes the messages in the mailbox.  By default this is whichever thread sends a
+ * message while the component is idle - it processes every message queued before it finds the mailbox
+ * empty.  Alternatively a component can be constructed with an {@link Executor}, in which case the
+ * messages are always processed by the executor, and the sending thread returns immediately.
+ */
 public abstract class ComponentImpl implements Component {
     
     private static final Logger logger = LoggerFactory.getLogger(ComponentImpl.class);
+
+    // The maximum number of messages processed each time a component, which is running on an executor,
+    // is scheduled - so that a busy component does not monopolise one of the executor's threads.
+    private static final int EXECUTOR_BATCH_SIZE = 256;
     
     public static final ComponentImpl NOBODY = new ComponentImpl() {
         public void tell(Message message, Component self) {}
@@ -34,22 +50,39 @@ public abstract class ComponentImpl implements Component {
         }
     };
     
-    private final LinkedList<Message> queue = new LinkedList<>();
-    private boolean scheduled = false;
-    protected final Object componentMonitor = new Object();
+    private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+    // Set while a thread is processing messages from the queue (there is only ever one)
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Executor executor;
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliverMessages();
+        }
+    };
+
+    protected ComponentImpl() {
+        this(null);
+    }
+
+    /**
+     * @param executor used to process the messages sent to this component, or <code>null</code> for
+     *                 the messages to be processed by the threads that send them.
+     */
+    protected ComponentImpl(Executor executor) {
+        this.executor = executor;
+    }
     
     public void tell(Message message, Component self) {
         final String methodName = "tell";
         logger.entry(this, methodName, message, self);
 
         message.setSender(self);
-        boolean execute = false;
-        synchronized(queue) {
-            queue.addLast(message);
-            execute = !scheduled;
-            if (execute) scheduled = true;
+        queue.offer(message);
+        if (scheduled.compareAndSet(false, true)) {
+            if (executor == null) deliverMessages();
+            else executor.execute(deliverTask);
         }
-        if (execute) deliverMessages();
         
         logger.exit(this, methodName);
     }
@@ -58,22 +91,65 @@ public abstract class ComponentImpl implements Component {
         final String methodName = "deliverMessages";
         logger.entry(this, methodName);
       
+        // Without an executor, the first exception thrown is rethrown to the sending thread once every
+        // queued message has been processed - so that they are not left waiting for the next message.
+        RuntimeException thrown = null;
+        int delivered = 0;
         while(true) {
-            Message message = null;
-            synchronized(queue) {
-                if (queue.isEmpty()) {
-                    scheduled = false;
+            final Message message = queue.poll();
+            if (message != null) {
+                try {
+                    onReceive(message);
+                } catch (RuntimeException e) {
+                    thrown = exceptionThrown(methodName, message, e, thrown);
+                }
+                if (executor != null && ++delivered == EXECUTOR_BATCH_SIZE) {
+                    // Give other tasks a turn - the component stays scheduled until it runs again
+                    executor.execute(deliverTask);
                     break;
                 }
-                else message = queue.removeFirst();
-            }
-            synchronized(componentMonitor) {
-                onReceive(message);
+            } else {
+                // Give the component a chance to act on the messages it has just received
+                // before giving up the thread - this may queue more messages.
+                try {
+                    onIdle();
+                } catch (RuntimeException e) {
+                    thrown = exceptionThrown(methodName, null, e, thrown);
+                }
+                if (!queue.isEmpty()) continue;
+                scheduled.set(false);
+                // Another thread may have queued a message (and found the component still scheduled)
+                // just before it was marked as no longer scheduled.
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) break;
             }
         }
-        
+
+        if (thrown != null) {
+            logger.throwing(this, methodName, thrown);
+            throw thrown;
+        }
+
         logger.exit(this, methodName);
     }
+
+    // Records an exception thrown while processing messages, returning the exception to rethrow to the
+    // sending thread.  On an executor nobody is waiting to see the exception, so processing carries on,
+    // as the executor may be shared with other components.
+    private RuntimeException exceptionThrown(String methodName, Message message, RuntimeException e, RuntimeException first) {
+        logger.data(this, methodName, "Exception thrown processing message", message, e);
+        if (executor != null) {
+            logger.error("Exception thrown processing message", e);
+            return null;
+        }
+        return first == null ? e : first;
+    }
     
     protected abstract void onReceive(Message message);
+
+    /**
+     * Called each time the component has processed all of the messages queued for it.  Components
+     * can override this to complete work that is worth deferring until a run of messages has been
+     * processed.  The default implementation does nothing.
+     */
+    protected void onIdle() {}
 }
@@ -65,23 +65,39 @@ public abstract class DeliveryImpl implements Delivery {
         final String methodName = "confirm";
         logger.entry(this, methodName);
       
+        checkConfirmable();
+        if (!client.doDelivery(deliveryRequest)) {
+            throw new StateException("Cannot confirm delivery because of an interruption to the network connection to the MQ Light server");
+        } else {
+            confirmed = true;
+        }
+        
+        logger.exit(this, methodName);
+    }
+
+    // Throws an exception if confirming this delivery is not applicable, or it has already been confirmed
+    void checkConfirmable() throws StateException {
         if (deliveryRequest == null) {
             if (qos == QOS.AT_MOST_ONCE) {
                 throw new StateException("Confirming the receipt of delivery is applicable only when 'at least once' quality of service has been requested");
             } else {
                 throw new StateException("Subscription has autoConfirm option set to true");
             }
-        } else {
-            if (confirmed) {
-                throw new StateException("Delivery has already been confirmed");
-            } else if (!client.doDelivery(deliveryRequest)) {
-                throw new StateException("Cannot confirm delivery because of an interruption to the network connection to the MQ Light server");
-            } else {
-                confirmed = true;
-            }
+        } else if (confirmed) {
+            throw new StateException("Delivery has already been confirmed");
         }
-        
-        logger.exit(this, methodName);
+    }
+
+    NonBlockingClientImpl getClient() {
+        return client;
+    }
+
+    DeliveryRequest getDeliveryRequest() {
+        return deliveryRequest;
+    }
+
+    void setConfirmed() {
+        confirmed = true;
     }
 
     @Override
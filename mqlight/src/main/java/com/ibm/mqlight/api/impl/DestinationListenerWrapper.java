@@ -18,11 +18,14 @@
  */
 package com.ibm.mqlight.api.impl;
 
+import io.netty.buffer.ByteBuf;
+
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -33,10 +36,12 @@ import org.apache.qpid.proton.amqp.messaging.AmqpValue;
 import org.apache.qpid.proton.codec.DecodeException;
 
 import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.ClientInterceptor;
 import com.ibm.mqlight.api.Delivery;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.MalformedDelivery;
 import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.SubscribeOptions;
 import com.ibm.mqlight.api.callback.CallbackService;
 import com.ibm.mqlight.api.impl.callback.CallbackPromiseImpl;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
@@ -51,6 +56,23 @@ class DestinationListenerWrapper<T> {
     private final GsonBuilder gsonBuilder;
     private final DestinationListener<T> listener;
     private final T context;
+    private final SubscribeOptions.OrderingScope orderingScope;
+    private final String orderingKey;
+    // The context used to order callbacks for this destination (see CallbackService.run())
+    private final Object orderingCtx;
+    private final boolean conflate;
+    private final String conflationKeyProperty;
+    // conflation key -> the latest message with that key, for which a callback is queued but has not yet run
+    private final HashMap<Object, ConflatedDelivery> conflated = new HashMap<>();
+
+    private static class ConflatedDelivery {
+        final Delivery delivery;
+        final DeliveryRequest request;
+        ConflatedDelivery(Delivery delivery, DeliveryRequest request) {
+            this.delivery = delivery;
+            this.request = request;
+        }
+    }
 
     private static final Symbol malformedConditionSymbol = Symbol.getSymbol("x-opt-message-malformed-condition");
     private static final Symbol malformedDescriptionSymbol = Symbol.getSymbol("x-opt-message-malformed-description");
@@ -58,13 +80,35 @@ class DestinationListenerWrapper<T> {
     private static final Symbol malformedMQMDCCSIDSymbol = Symbol.getSymbol("x-opt-message-malformed-MQMD.CodedCharSetId");
 
     protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context) {
+        this(client, gsonBuilder, listener, context, SubscribeOptions.OrderingScope.CLIENT, null, null);
+    }
+
+    protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context,
+                                         SubscribeOptions.OrderingScope orderingScope, String orderingKey, String shareName) {
+        this(client, gsonBuilder, listener, context, orderingScope, orderingKey, shareName, false, null);
+    }
+
+    protected DestinationListenerWrapper(NonBlockingClientImpl client, GsonBuilder gsonBuilder, DestinationListener<T> listener, T context,
+                                         SubscribeOptions.OrderingScope orderingScope, String orderingKey, String shareName,
+                                         boolean conflate, String conflationKeyProperty) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, gsonBuilder, listener, context);
+        logger.entry(this, methodName, client, gsonBuilder, listener, context, orderingScope, orderingKey, shareName, conflate, conflationKeyProperty);
 
         this.client = client;
         this.gsonBuilder = gsonBuilder;
         this.listener = listener;
         this.context = context;
+        this.orderingScope = orderingScope;
+        this.orderingKey = orderingKey;
+        if (orderingScope == SubscribeOptions.OrderingScope.CLIENT) {
+            orderingCtx = client;
+        } else if (orderingScope == SubscribeOptions.OrderingScope.SHARE && shareName != null) {
+            orderingCtx = "share:" + shareName;
+        } else {
+            orderingCtx = this;
+        }
+        this.conflate = conflate;
+        this.conflationKeyProperty = conflationKeyProperty;
 
         logger.exit(this, methodName);
     }
@@ -79,7 +123,7 @@ class DestinationListenerWrapper<T> {
                 public void run() {
                     listener.onUnsubscribed(client, context, topicPattern, share, error);
                 }
-            }, client, new CallbackPromiseImpl(client, true));
+            }, orderingCtx, new CallbackPromiseImpl(client, true));
         }
 
         logger.exit(this, methodName);
@@ -90,156 +134,301 @@ class DestinationListenerWrapper<T> {
         final String methodName = "onDelivery";
         logger.entry(this, methodName, callbackService, deliveryRequest, qos, autoConfirm);
 
-        callbackService.run(new Runnable() {
-            @Override
-            public void run() {
-                final String methodName = "run";
-                logger.entry(this, methodName);
-                byte[] data = new byte[deliveryRequest.buf.array().length];
-                System.arraycopy(deliveryRequest.buf.array(), 0, data, 0, deliveryRequest.buf.array().length);
-                deliveryRequest.buf.release();
-
-                MalformedDelivery.MalformedReason malformedReason = null;
-                String malformedDescription = null;
-                String malformedMQMDFormat = null;
-                int malformedMQMDCCSID = 0;
-
-                byte[] payloadBytes = null;
-                String payloadString = null;
-                boolean payloadIsJson = false;
-
-                org.apache.qpid.proton.message.Message msg = Proton.message();
-                try {
-                    msg.decode(data, 0, data.length);
-                } catch(BufferOverflowException | BufferUnderflowException | DecodeException e) {
-                    malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
-                    malformedDescription = "The message could not be decoded because the message data is not a valid AMQP message";
-                    payloadBytes = data;
-                }
-
-                Map<String, Object> properties = new HashMap<String, Object>();
-                if (malformedReason == null) {
-                    Object msgBodyValue = ((AmqpValue)msg.getBody()).getValue();
-                    if (msgBodyValue instanceof Binary) {
-                        Binary binaryValue = (Binary)msgBodyValue;
-                        if ((binaryValue.getArrayOffset() == 0) && (binaryValue.getArray().length == binaryValue.getLength())) {
-                            payloadBytes = binaryValue.getArray();
-                        } else {
-                            payloadBytes = new byte[binaryValue.getLength()];
-                            System.arraycopy(binaryValue.getArray(), binaryValue.getArrayOffset(), payloadBytes, 0, binaryValue.getLength());
+        client.deliveryCallbackQueued();
+        if (orderingScope == SubscribeOptions.OrderingScope.KEY || (conflate && qos == QOS.AT_MOST_ONCE)) {
+            // The message must be decoded to find its ordering (or conflation) key, before the callback can be queued
+            Delivery decoded = null;
+            RuntimeException decodeException = null;
+            try {
+                decoded = decode(deliveryRequest, qos, autoConfirm);
+            } catch(RuntimeException e) {
+                decodeException = e;
+            }
+            final Delivery delivery = decoded;
+            final RuntimeException exception = decodeException;
+            final Object ctx = (delivery == null || orderingScope != SubscribeOptions.OrderingScope.KEY) ? orderingCtx : keyOrderingCtx(delivery);
+            if (conflate && qos == QOS.AT_MOST_ONCE && delivery != null && delivery.getType() != Delivery.Type.MALFORMED) {
+                conflate(callbackService, delivery, deliveryRequest, autoConfirm, ctx);
+            } else {
+                callbackService.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (exception != null) throw exception;
+                            deliver(delivery, deliveryRequest, autoConfirm);
+                        } finally {
+                            client.deliveryCallbackCompleted();
                         }
-                    } else if (msgBodyValue instanceof String) {
-                        payloadString = (String)msgBodyValue;
-                        payloadIsJson = "application/json".equalsIgnoreCase(msg.getContentType());
-                    } else {
-                        malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
-                        malformedDescription = "The message payload uses an AMQP format that the MQ Light client cannot process";
-                        payloadBytes = data;
                     }
-
-                    if ((msg.getApplicationProperties() != null) && (msg.getApplicationProperties().getValue() != null)) {
-                        Map<?, ?> msgMap = msg.getApplicationProperties().getValue();
-                        for (Map.Entry<?, ?> entry : msgMap.entrySet()) {
-                            if (entry.getKey() instanceof String) {
-                                Object value = entry.getValue();
-                                if (value == null) {
-                                    properties.put((String)entry.getKey(), null);
-                                } else if (value instanceof Binary) {
-                                    properties.put((String)entry.getKey(), ((Binary)value).getArray());
-                                } else {
-                                    for (int i = 0; i < NonBlockingClientImpl.validPropertyValueTypes.length; ++i) {
-                                        if (NonBlockingClientImpl.validPropertyValueTypes[i].isAssignableFrom(value.getClass())) {
-                                            properties.put((String)entry.getKey(), value);
-                                        }
-                                    }
-                                }
-                            }
-                        }
+                }, ctx, new CallbackPromiseImpl(client, true));
+            }
+        } else {
+            callbackService.run(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        deliver(decode(deliveryRequest, qos, autoConfirm), deliveryRequest, autoConfirm);
+                    } finally {
+                        client.deliveryCallbackCompleted();
                     }
                 }
+            }, orderingCtx, new CallbackPromiseImpl(client, true));
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Queues the callback for a message, unless a callback is already queued for an earlier message with the same
+    // conflation key - in which case the message replaces the earlier one, and is delivered by its callback.
+    private void conflate(CallbackService callbackService, Delivery delivery, DeliveryRequest deliveryRequest, final boolean autoConfirm, Object ctx) {
+        final String methodName = "conflate";
+        logger.entry(this, methodName, callbackService, delivery, deliveryRequest, autoConfirm, ctx);
 
-                String parts[] = new SubscriptionTopic(deliveryRequest.topicPattern).split();
-                String shareName = parts[1];
-                String topicPattern = parts[0];
-                long ttl = 0;
-                String topic = "";
-                if (malformedReason == null) {
+        final Object key = conflationKey(delivery);
+        final ConflatedDelivery replaced;
+        synchronized(conflated) {
+            replaced = conflated.put(key, new ConflatedDelivery(delivery, deliveryRequest));
+        }
+        if (replaced != null) {
+            // The replaced message is never delivered, but is still confirmed so that the server can send more messages
+            logger.data(this, methodName, "Replaced message", replaced.delivery);
+            if (autoConfirm) {
+                client.doDelivery(replaced.request);
+            }
+            client.deliveryCallbackCompleted();
+        } else {
+            callbackService.run(new Runnable() {
+                @Override
+                public void run() {
+                    final ConflatedDelivery latest;
+                    synchronized(conflated) {
+                        latest = conflated.remove(key);
+                    }
                     try {
-                        topic = URI.create(msg.getAddress()).getPath();
-                    } catch(IllegalArgumentException e) {
+                        deliver(latest.delivery, latest.request, autoConfirm);
+                    } finally {
+                        client.deliveryCallbackCompleted();
                     }
-                    if (topic == null) topic = "";
-                    else if (topic.startsWith("/")) topic = topic.substring(1);
-                    ttl = msg.getTtl();
-
-                    if (msg.getDeliveryAnnotations() != null) {
-                        Map<Symbol, Object> annotations = msg.getDeliveryAnnotations().getValue();
-                        String condition = null;
-                        if (annotations.containsKey(malformedConditionSymbol) &&
-                            annotations.get(malformedConditionSymbol) instanceof Symbol) {
-                            condition = ((Symbol)annotations.get(malformedConditionSymbol)).toString();
-                            if (condition.equals("FORMATNOMAPPING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
-                            } else if (condition.equals("JMSNOMAPPING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.JMSNOMAPPING;
-                            } else if (condition.equals("PAYLOADENCODING")) {
-                                malformedReason = MalformedDelivery.MalformedReason.PAYLOADENCODING;
-                            } else if (condition.equals("PAYLOADNOTAMQP")) {
-                                malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
-                            }
+                }
+            }, ctx, new CallbackPromiseImpl(client, true));
+        }
 
-                            if (malformedReason != null &&
-                                annotations.containsKey(malformedDescriptionSymbol) &&
-                                annotations.get(malformedDescriptionSymbol) instanceof String) {
-                                malformedDescription = (String)annotations.get(malformedDescriptionSymbol);
+        logger.exit(this, methodName);
+    }
 
-                                if (annotations.containsKey(malformedMQMDFormatSymbol) &&
-                                    annotations.get(malformedMQMDFormatSymbol) instanceof String) {
-                                    malformedMQMDFormat = (String)annotations.get(malformedMQMDFormatSymbol);
-                                }
+    // Returns the key that identifies which messages replace each other, when conflation is enabled
+    private Object conflationKey(Delivery delivery) {
+        if (conflationKeyProperty == null) {
+            return delivery.getTopic();
+        }
+        Object value = delivery.getProperties().get(conflationKeyProperty);
+        if (value instanceof byte[]) {
+            value = ByteBuffer.wrap((byte[])value);    // Compared (and hashed) by content, rather than identity
+        }
+        return Arrays.asList(delivery.getTopic(), value);
+    }
+
+    // Returns the context used to order the callback for a delivery when using OrderingScope.KEY
+    private Object keyOrderingCtx(Delivery delivery) {
+        final Object key = delivery.getProperties().get(orderingKey);
+        if (key == null) {
+            return orderingCtx;
+        } else if (key instanceof byte[]) {
+            return ByteBuffer.wrap((byte[])key);    // Compared (and hashed) by content, rather than identity
+        } else {
+            return key;
+        }
+    }
+
+    private void deliver(Delivery delivery, DeliveryRequest deliveryRequest, boolean autoConfirm) {
+        final String methodName = "deliver";
+        logger.entry(this, methodName, delivery, deliveryRequest, autoConfirm);
+
+        final InterceptorChain interceptors = client.getInterceptors();
+        if (!interceptors.isEmpty()) {
+            interceptors.onDelivery(ClientInterceptor.Stage.CALLBACK_START, deliveryRequest.topicPattern, deliveryRequest.sequence, System.nanoTime());
+        }
+        try {
+            if (delivery.getType() == Delivery.Type.MALFORMED) {
+                listener.onMalformed(client, context, (MalformedDelivery)delivery);
+            } else {
+                listener.onMessage(client, context, delivery);
+            }
+        } finally {
+            if (!interceptors.isEmpty()) {
+                interceptors.onDelivery(ClientInterceptor.Stage.CALLBACK_END, deliveryRequest.topicPattern, deliveryRequest.sequence, System.nanoTime());
+            }
+        }
+
+        if (autoConfirm) {
+            client.doDelivery(deliveryRequest);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Decodes an AMQP message, received by the engine, into a delivery
+    private Delivery decode(DeliveryRequest deliveryRequest, QOS qos, boolean autoConfirm) {
+        final String methodName = "decode";
+        logger.entry(this, methodName, deliveryRequest, qos, autoConfirm);
+
+        final ByteBuf buf = deliveryRequest.buf;
+
+        MalformedDelivery.MalformedReason malformedReason = null;
+        String malformedDescription = null;
+        String malformedMQMDFormat = null;
+        int malformedMQMDCCSID = 0;
+
+        byte[] payloadBytes = null;
+        Binary payload = null;
+        String payloadString = null;
+        boolean payloadIsJson = false;
+
+        org.apache.qpid.proton.message.Message msg = Proton.message();
+        Map<String, Object> properties = new HashMap<String, Object>();
+        try {
+            // Decode straight from the buffer that the engine received the message into
+            final int length = buf.readableBytes();
+            final byte[] data;
+            final int offset;
+            if (buf.hasArray()) {
+                data = buf.array();
+                offset = buf.arrayOffset() + buf.readerIndex();
+            } else {
+                data = new byte[length];
+                buf.getBytes(buf.readerIndex(), data);
+                offset = 0;
+            }
+
+            try {
+                msg.decode(data, offset, length);
+            } catch(BufferOverflowException | BufferUnderflowException | DecodeException e) {
+                malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
+                malformedDescription = "The message could not be decoded because the message data is not a valid AMQP message";
+                payloadBytes = Arrays.copyOfRange(data, offset, offset + length);
+            }
+
+            if (malformedReason == null) {
+                Object msgBodyValue = ((AmqpValue)msg.getBody()).getValue();
+                if (msgBodyValue instanceof Binary) {
+                    payload = (Binary)msgBodyValue;
+                } else if (msgBodyValue instanceof String) {
+                    payloadString = (String)msgBodyValue;
+                    payloadIsJson = "application/json".equalsIgnoreCase(msg.getContentType());
+                } else {
+                    malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
+                    malformedDescription = "The message payload uses an AMQP format that the MQ Light client cannot process";
+                    payloadBytes = Arrays.copyOfRange(data, offset, offset + length);
+                }
 
-                                if (annotations.containsKey(malformedMQMDCCSIDSymbol) &&
-                                    annotations.get(malformedMQMDCCSIDSymbol) instanceof Integer) {
-                                    malformedMQMDCCSID = (Integer)annotations.get(malformedMQMDCCSIDSymbol);
+                if ((msg.getApplicationProperties() != null) && (msg.getApplicationProperties().getValue() != null)) {
+                    Map<?, ?> msgMap = msg.getApplicationProperties().getValue();
+                    for (Map.Entry<?, ?> entry : msgMap.entrySet()) {
+                        if (entry.getKey() instanceof String) {
+                            Object value = entry.getValue();
+                            if (value == null) {
+                                properties.put((String)entry.getKey(), null);
+                            } else if (value instanceof Binary) {
+                                properties.put((String)entry.getKey(), ((Binary)value).getArray());
+                            } else {
+                                for (int i = 0; i < NonBlockingClientImpl.validPropertyValueTypes.length; ++i) {
+                                    if (NonBlockingClientImpl.validPropertyValueTypes[i].isAssignableFrom(value.getClass())) {
+                                        properties.put((String)entry.getKey(), value);
+                                    }
                                 }
                             }
                         }
                     }
                 }
+            }
+        } finally {
+            // The decoded message (including the payload) does not refer to the buffer, so
+            // it can be returned to the pool - whether or not the message could be decoded.
+            buf.release();
+        }
 
-                if (payloadBytes != null) {
-                    if (malformedReason == null) {
-                        BytesDeliveryImpl delivery = new BytesDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadBytes), properties, autoConfirm ? null : deliveryRequest);
-                        listener.onMessage(client, context, delivery);
-                    } else {
-                        MalformedDeliveryImpl delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadBytes),
-                                properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
-                        listener.onMalformed(client, context, delivery);
+        String parts[] = new SubscriptionTopic(deliveryRequest.topicPattern).split();
+        String shareName = parts[1];
+        String topicPattern = parts[0];
+        long ttl = 0;
+        String topic = "";
+        if (malformedReason == null) {
+            try {
+                topic = URI.create(msg.getAddress()).getPath();
+            } catch(IllegalArgumentException e) {
+            }
+            if (topic == null) topic = "";
+            else if (topic.startsWith("/")) topic = topic.substring(1);
+            ttl = msg.getTtl();
+
+            if (msg.getDeliveryAnnotations() != null) {
+                Map<Symbol, Object> annotations = msg.getDeliveryAnnotations().getValue();
+                String condition = null;
+                if (annotations.containsKey(malformedConditionSymbol) &&
+                    annotations.get(malformedConditionSymbol) instanceof Symbol) {
+                    condition = ((Symbol)annotations.get(malformedConditionSymbol)).toString();
+                    if (condition.equals("FORMATNOMAPPING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.FORMATNOMAPPING;
+                    } else if (condition.equals("JMSNOMAPPING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.JMSNOMAPPING;
+                    } else if (condition.equals("PAYLOADENCODING")) {
+                        malformedReason = MalformedDelivery.MalformedReason.PAYLOADENCODING;
+                    } else if (condition.equals("PAYLOADNOTAMQP")) {
+                        malformedReason = MalformedDelivery.MalformedReason.PAYLOADNOTAMQP;
                     }
-                } else {
-                    if (malformedReason == null) {
-                        Delivery delivery;
-                        if (payloadIsJson) {
-                            delivery = new JsonDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, gsonBuilder, properties, autoConfirm ? null : deliveryRequest);
-                        } else {
-                            delivery = new StringDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, properties, autoConfirm ? null : deliveryRequest);
+
+                    if (malformedReason != null &&
+                        annotations.containsKey(malformedDescriptionSymbol) &&
+                        annotations.get(malformedDescriptionSymbol) instanceof String) {
+                        malformedDescription = (String)annotations.get(malformedDescriptionSymbol);
+
+                        if (annotations.containsKey(malformedMQMDFormatSymbol) &&
+                            annotations.get(malformedMQMDFormatSymbol) instanceof String) {
+                            malformedMQMDFormat = (String)annotations.get(malformedMQMDFormatSymbol);
+                        }
+
+                        if (annotations.containsKey(malformedMQMDCCSIDSymbol) &&
+                            annotations.get(malformedMQMDCCSIDSymbol) instanceof Integer) {
+                            malformedMQMDCCSID = (Integer)annotations.get(malformedMQMDCCSIDSymbol);
                         }
-                        listener.onMessage(client, context, delivery);
-                    } else {
-                        MalformedDeliveryImpl delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadString.getBytes(Charset.forName("UTF-8"))),
-                                properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
-                        listener.onMalformed(client, context, delivery);
                     }
                 }
+            }
+        }
 
-                if (autoConfirm) {
-                    client.doDelivery(deliveryRequest);
+        final Delivery delivery;
+        if (payload != null || payloadBytes != null) {
+            // Wrap (rather than copy) the payload decoded from the message
+            final ByteBuffer payloadBuffer = payloadBytes != null ? ByteBuffer.wrap(payloadBytes) :
+                ByteBuffer.wrap(payload.getArray(), payload.getArrayOffset(), payload.getLength()).slice();
+            if (malformedReason == null) {
+                delivery = new BytesDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadBuffer, properties, autoConfirm ? null : deliveryRequest);
+            } else {
+                delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadBuffer,
+                        properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
+            }
+        } else {
+            if (malformedReason == null) {
+                if (payloadIsJson) {
+                    delivery = new JsonDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, gsonBuilder, properties, autoConfirm ? null : deliveryRequest);
+                } else {
+                    delivery = new StringDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, payloadString, properties, autoConfirm ? null : deliveryRequest);
                 }
-
-                logger.exit(this, methodName);
+            } else {
+                delivery = new MalformedDeliveryImpl(client, qos, shareName, topic, topicPattern, ttl, ByteBuffer.wrap(payloadString.getBytes(Charset.forName("UTF-8"))),
+                        properties, autoConfirm ? null : deliveryRequest, malformedReason, malformedDescription, malformedMQMDFormat, malformedMQMDCCSID);
             }
-        }, client, new CallbackPromiseImpl(client, true));
+        }
+
+        final InterceptorChain interceptors = client.getInterceptors();
+        if (!interceptors.isEmpty()) {
+            interceptors.onDelivery(ClientInterceptor.Stage.NETWORK_READ, deliveryRequest.topicPattern, deliveryRequest.sequence, deliveryRequest.receivedNanos);
+            interceptors.onDelivery(ClientInterceptor.Stage.DECODED, deliveryRequest.topicPattern, deliveryRequest.sequence, System.nanoTime());
+        }
+
+        logger.exit(this, methodName, delivery);
+
+        return delivery;
 
-        logger.exit(this, methodName);
     }
 }
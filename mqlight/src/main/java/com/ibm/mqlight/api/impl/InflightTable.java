@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table of in-flight operations, keyed by a sequence number, used by the client's thread to track
+ * sends that are waiting for the server to acknowledge them.
+ * <p>
+ * The keys are held in an open-addressed array of primitive <code>long</code>s, using linear probing,
+ * so adding and removing entries does not allocate (other than when the table grows).  As sequence
+ * numbers are allocated in order, and mostly complete in order, they spread evenly over the slots of
+ * the table without needing to be hashed.
+ * <p>
+ * This class is not thread safe.
+ */
+class InflightTable<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;     // A null value marks an empty slot
+    private int mask;
+    private int size = 0;
+
+    InflightTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected the number of entries the table should be able to hold without growing.
+     */
+    InflightTable(int expected) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expected * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an entry to the table.
+     * @param key the sequence number of the entry, which must not already be in the table.
+     * @param value the entry, which must not be <code>null</code>.
+     */
+    void put(long key, V value) {
+        if ((size + 1) * 2 > values.length) {
+            grow();
+        }
+        int index = (int)key & mask;
+        while (values[index] != null) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        ++size;
+    }
+
+    /**
+     * Removes an entry from the table.
+     * @param key the sequence number of the entry to remove.
+     * @return the entry that was removed, or <code>null</code> if there was no entry with this sequence number.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int index = (int)key & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                final V result = (V)values[index];
+                values[index] = null;
+                --size;
+                closeGap(index);
+                return result;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    // Shifts back any entries that probed past a newly emptied slot, so that lookups never stop short of them
+    private void closeGap(int gap) {
+        int index = (gap + 1) & mask;
+        while (values[index] != null) {
+            final int home = (int)keys[index] & mask;
+            // Move the entry if its home slot is not (cyclically) between the gap and its current slot
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                values[index] = null;
+                gap = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(oldValues.length * 2);
+        size = 0;
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V)oldValues[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all of the entries from the table.
+     * @return the entries that were removed, in sequence number order.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> removeAll() {
+        final long[] sorted = new long[size];
+        int count = 0;
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                sorted[count++] = keys[i];
+            }
+        }
+        Arrays.sort(sorted);
+
+        final ArrayList<V> result = new ArrayList<>(size);
+        for (long key : sorted) {
+            result.add(remove(key));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.mqlight.api.ClientInterceptor;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * Calls the interceptors registered with a client, in order.  The methods are called for every
+ * message, so they are not traced - the exceptions thrown by interceptors are.
+ */
+class InterceptorChain {
+
+    private static final Logger logger = LoggerFactory.getLogger(InterceptorChain.class);
+
+    private final ClientInterceptor[] interceptors;
+
+    InterceptorChain(List<ClientInterceptor> interceptors) {
+        this.interceptors = interceptors == null ? new ClientInterceptor[0] : interceptors.toArray(new ClientInterceptor[interceptors.size()]);
+    }
+
+    boolean isEmpty() {
+        return interceptors.length == 0;
+    }
+
+    void onSend(ClientInterceptor.Stage stage, String topic, long id, long nanoTime) {
+        for (ClientInterceptor interceptor : interceptors) {
+            try {
+                interceptor.onSend(stage, topic, id, nanoTime);
+            } catch(RuntimeException e) {
+                logger.data(this, "onSend", "Interceptor threw exception", interceptor, e);
+            }
+        }
+    }
+
+    void onDelivery(ClientInterceptor.Stage stage, String topicPattern, long id, long nanoTime) {
+        for (ClientInterceptor interceptor : interceptors) {
+            try {
+                interceptor.onDelivery(stage, topicPattern, id, nanoTime);
+            } catch(RuntimeException e) {
+                logger.data(this, "onDelivery", "Interceptor threw exception", interceptor, e);
+            }
+        }
+    }
+
+    Object preEncode(String topic, Object data, Map<String, Object> properties) {
+        for (ClientInterceptor interceptor : interceptors) {
+            data = interceptor.preEncode(topic, data, properties);
+        }
+        return data;
+    }
+}
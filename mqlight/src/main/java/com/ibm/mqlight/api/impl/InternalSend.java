@@ -33,15 +33,22 @@ class InternalSend<T> extends Message implements QueueableWork {
     final ByteBuf buf;
     final int length;
     final CompletionFuture<T> future;
+    final String conflationKey;     // null if the message cannot be replaced by a later message
+    final long interceptId;         // 0 if the client has no interceptors
     InternalSend(NonBlockingClientImpl client, String topic, QOS qos, ByteBuf buf, int length) {
+        this(client, topic, qos, buf, length, null, 0);
+    }
+    InternalSend(NonBlockingClientImpl client, String topic, QOS qos, ByteBuf buf, int length, String conflationKey, long interceptId) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, topic, qos, buf, length);
+        logger.entry(this, methodName, client, topic, qos, buf, length, conflationKey, interceptId);
 
         this.future = new CompletionFuture<T>(client);
         this.topic = topic;
         this.qos = qos;
         this.buf = buf;
         this.length = length;
+        this.conflationKey = conflationKey;
+        this.interceptId = interceptId;
 
         logger.exit(this, methodName);
     }
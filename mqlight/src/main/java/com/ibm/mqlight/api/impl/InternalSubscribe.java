@@ -21,6 +21,7 @@ package com.ibm.mqlight.api.impl;
 import com.google.gson.GsonBuilder;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.SubscribeOptions;
 import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
 
@@ -32,22 +33,30 @@ class InternalSubscribe<T> extends Message implements QueueableWork {
     final SubscriptionTopic topic;
     final QOS qos;
     final int credit;
+    final boolean adaptiveCredit;
+    final long maxBufferedBytes;
     final boolean autoConfirm;
     final int ttl;
     final DestinationListenerWrapper<T> destListener;
 
-    InternalSubscribe(NonBlockingClientImpl client, SubscriptionTopic topic, QOS qos, int credit, boolean autoConfirm, int ttl,
+    InternalSubscribe(NonBlockingClientImpl client, SubscriptionTopic topic, QOS qos, int credit,
+                      boolean adaptiveCredit, long maxBufferedBytes, boolean autoConfirm, int ttl,
+                      SubscribeOptions.OrderingScope orderingScope, String orderingKey, boolean conflate, String conflationKeyProperty,
                       GsonBuilder gsonBuilder, DestinationListener<T> destListener, T context) {
         final String methodName = "<init>";
-        logger.entry(this, methodName, client, topic, qos, credit, autoConfirm, ttl, gsonBuilder, destListener, context);
+        logger.entry(this, methodName, client, topic, qos, credit, adaptiveCredit, maxBufferedBytes, autoConfirm, ttl, orderingScope, orderingKey,
+                     conflate, conflationKeyProperty, gsonBuilder, destListener, context);
       
         future = new CompletionFuture<>(client);
         this.topic = topic;
         this.qos = qos;
         this.credit = credit;
+        this.adaptiveCredit = adaptiveCredit;
+        this.maxBufferedBytes = maxBufferedBytes;
         this.autoConfirm = autoConfirm;
         this.ttl = ttl;
-        this.destListener = new DestinationListenerWrapper<T>(client, gsonBuilder, destListener, context);
+        this.destListener = new DestinationListenerWrapper<T>(client, gsonBuilder, destListener, context,
+                orderingScope, orderingKey, topic.split()[1], conflate, conflationKeyProperty);
         
         logger.exit(this, methodName);
     }
@@ -19,18 +19,28 @@
 package com.ibm.mqlight.api.impl;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
@@ -40,10 +50,13 @@ import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import com.github.oxo42.stateless4j.StateMachine;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.BufferOverflowPolicy;
 import com.ibm.mqlight.api.ClientException;
+import com.ibm.mqlight.api.ClientInterceptor;
 import com.ibm.mqlight.api.ClientOptions;
 import com.ibm.mqlight.api.ClientState;
 import com.ibm.mqlight.api.CompletionListener;
+import com.ibm.mqlight.api.Delivery;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.NetworkException;
 import com.ibm.mqlight.api.NonBlockingClient;
@@ -72,12 +85,14 @@ import com.ibm.mqlight.api.impl.endpoint.ExhaustedResponse;
 import com.ibm.mqlight.api.impl.endpoint.SingleEndpointService;
 import com.ibm.mqlight.api.impl.engine.CloseRequest;
 import com.ibm.mqlight.api.impl.engine.CloseResponse;
+import com.ibm.mqlight.api.impl.engine.ConfirmFailureNotification;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
 import com.ibm.mqlight.api.impl.engine.DeliveryResponse;
 import com.ibm.mqlight.api.impl.engine.DisconnectNotification;
 import com.ibm.mqlight.api.impl.engine.DrainNotification;
 import com.ibm.mqlight.api.impl.engine.Engine;
 import com.ibm.mqlight.api.impl.engine.EngineConnection;
+import com.ibm.mqlight.api.impl.engine.EnginePool;
 import com.ibm.mqlight.api.impl.engine.OpenRequest;
 import com.ibm.mqlight.api.impl.engine.OpenResponse;
 import com.ibm.mqlight.api.impl.engine.SendRequest;
@@ -88,6 +103,7 @@ import com.ibm.mqlight.api.impl.engine.UnsubscribeRequest;
 import com.ibm.mqlight.api.impl.engine.UnsubscribeResponse;
 import com.ibm.mqlight.api.impl.network.NettyNetworkService;
 import com.ibm.mqlight.api.impl.timer.CancelResponse;
+import com.ibm.mqlight.api.impl.timer.HashedWheelTimerService;
 import com.ibm.mqlight.api.impl.timer.PopResponse;
 import com.ibm.mqlight.api.impl.timer.TimerPromiseImpl;
 import com.ibm.mqlight.api.impl.timer.TimerServiceImpl;
@@ -110,6 +126,8 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     private final TimerService timer;
     private final GsonBuilder gsonBuilder;
     private final Gson gson;
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private volatile int encodedSizeEstimate = 2 * 1024;
 
     private final StateMachine<NonBlockingClientState, NonBlockingClientTrigger> stateMachine;
 
@@ -120,6 +138,10 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     private final LinkedList<InternalStart<?>> pendingStarts = new LinkedList<>();
     private final LinkedList<InternalStop<?>> pendingStops = new LinkedList<>();
     private final String clientId;
+    private final int maxSenderLinks;
+    private final int sendBatchMaxMessages;
+    private final int sendBatchMaxBytes;
+    private final long sendBatchLingerMicros;
     private TimerPromiseImpl timerPromise = null;
     private final LinkedList<QueueableWork> pendingWork = new LinkedList<>();
 
@@ -127,21 +149,47 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
 
     private Endpoint currentEndpoint = null;
     private EngineConnection currentConnection = null;
-    private final HashMap<SendRequest, InternalSend<?>> outstandingSends = new HashMap<>();
+    private final InflightTable<InternalSend<?>> outstandingSends = new InflightTable<>();
+    private long nextSendSequence = 0;
 
     private final NonBlockingClientListenerWrapper<?> clientListener;
 
     private boolean remakingInboundLinks = false;
 
-    private int undrainedSends = 0;
-    private boolean pendingDrain = false;
+    // Sends that have not yet completed, counted from when the application calls send() (on any thread)
+    private final AtomicInteger incompleteSends = new AtomicInteger();
+    private final AtomicLong incompleteSendBytes = new AtomicLong();
+    private final AtomicBoolean pendingDrain = new AtomicBoolean(false);
+    private final int sendHighWatermarkMessages;
+    private final long sendHighWatermarkBytes;
+    private final int sendLowWatermarkMessages;
+    private final long sendLowWatermarkBytes;
+
+    // 'At most once' sends held alongside pendingWork, and the number sent, since the client last processed its pending work
+    private final int maxQueuedAtMostOnceSends;
+    private final BufferOverflowPolicy atMostOnceOverflowPolicy;
+    private final AtMostOnceQueue<InternalSend<?>> queuedAtMostOnceSends = new AtMostOnceQueue<>();
+    private long queuedAtMostOnceSeen = 0;
+    private final AtomicLong droppedSends = new AtomicLong();
+    private final Random random = new Random();
+
+    private final InterceptorChain interceptors;
+    // Identifies the messages sent by this client to its interceptors
+    private final AtomicLong nextInterceptId = new AtomicLong();
 
     private boolean stoppedByUser = false;
     private ClientException lastException = null;
 
     long retryDelay = 0;
 
-    private final Set<DeliveryRequest> pendingDeliveries = Collections.synchronizedSet(new HashSet<DeliveryRequest>());
+    // Unconfirmed AT_LEAST_ONCE deliveries, one table per subscription keyed by the subscription's link name
+    private final ConcurrentHashMap<String, UnconfirmedDeliveries> unconfirmedDeliveries = new ConcurrentHashMap<>();
+
+    // Delivery callbacks can be ordered by subscription, rather than by client, so flushing the callback
+    // service (see cleanup()) does not wait for them.  Instead, they are counted, and the flush is only
+    // treated as complete once all of them have also completed.
+    private final AtomicInteger deliveryCallbacks = new AtomicInteger(0);
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
 
     // topic pattern -> information about subscribed destination
     private final HashMap<SubscriptionTopic, SubData> subscribedDestinations = new HashMap<>();
@@ -158,18 +206,25 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final DestinationListenerWrapper<?> listener;
         private final QOS qos;
         private final int credit;
+        private final boolean adaptiveCredit;
+        private final long maxBufferedBytes;
         private final boolean autoConfirm;
         private final int ttl;
+        private final UnconfirmedDeliveries unconfirmed;
 
         InternalSubscribe<?> inProgressSubscribe;
         InternalUnsubscribe<?> inProgressUnsubscribe;
 
-        public SubData(DestinationListenerWrapper<?> listener, QOS qos, int credit, boolean autoConfirm, int ttl) {
+        public SubData(DestinationListenerWrapper<?> listener, QOS qos, int credit, boolean adaptiveCredit,
+                       long maxBufferedBytes, boolean autoConfirm, int ttl) {
             this.listener = listener;
             this.qos = qos;
             this.credit = credit;
+            this.adaptiveCredit = adaptiveCredit;
+            this.maxBufferedBytes = maxBufferedBytes;
             this.autoConfirm = autoConfirm;
             this.ttl = ttl;
+            this.unconfirmed = new UnconfirmedDeliveries(qos == QOS.AT_LEAST_ONCE ? credit : 1);
         }
     }
 
@@ -220,6 +275,17 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         this.gson = this.gsonBuilder.create();
         if (options == null) options = defaultClientOptions;
         clientId = options.getId() != null ? options.getId() : generateClientId();
+        maxSenderLinks = options.getMaxSenderLinks();
+        sendBatchMaxMessages = options.getSendBatchMaxMessages();
+        sendBatchMaxBytes = options.getSendBatchMaxBytes();
+        sendBatchLingerMicros = options.getSendBatchLingerMicros();
+        sendHighWatermarkMessages = options.getSendHighWatermarkMessages();
+        sendHighWatermarkBytes = options.getSendHighWatermarkBytes();
+        sendLowWatermarkMessages = options.getSendLowWatermarkMessages();
+        sendLowWatermarkBytes = options.getSendLowWatermarkBytes();
+        maxQueuedAtMostOnceSends = options.getMaxQueuedAtMostOnceSends();
+        atMostOnceOverflowPolicy = options.getAtMostOnceOverflowPolicy();
+        interceptors = new InterceptorChain(options.getInterceptors());
         logger.setClientId(clientId);
         clientListener = new NonBlockingClientListenerWrapper<T>(this, listener, context);
         stateMachine = NonBlockingFSMFactory.newStateMachine(this);
@@ -239,14 +305,40 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
     }
 
     public <T> NonBlockingClientImpl(String service, ClientOptions options, NonBlockingClientListener<T> listener, T context) {
-        this(service == null ? new BluemixEndpointService()
+        this(newEndpointService(service, options),
+                new ThreadPoolCallbackService(5),
+                new NettyNetworkService(options == null ? null : options.getNetworkOptions()),
+                new TimerServiceImpl(), null, options, listener, context);
+    }
+
+    /**
+     * The services used by clients created with {@link #createShared(String, ClientOptions, NonBlockingClientListener, Object)}.
+     * These are created the first time that a shared client is created.
+     */
+    private static class SharedServices {
+        private static final TimerService timerService = new HashedWheelTimerService();
+        private static final CallbackService callbackService =
+                new ThreadPoolCallbackService(Runtime.getRuntime().availableProcessors());
+        private static final EnginePool enginePool = new EnginePool(new NettyNetworkService(), timerService);
+    }
+
+    /**
+     * Creates a client that shares its engine, callback threads and timers with every other client
+     * created by this method.  Each client is assigned one of a fixed pool of engines (one per processor).
+     * @see NonBlockingClient#createShared(String, ClientOptions, NonBlockingClientListener, Object)
+     */
+    public static <T> NonBlockingClientImpl createShared(String service, ClientOptions options, NonBlockingClientListener<T> listener, T context) {
+        return new NonBlockingClientImpl(newEndpointService(service, options), SharedServices.callbackService,
+                SharedServices.enginePool.getEngine(), SharedServices.timerService, null, options, listener, context);
+    }
+
+    private static EndpointService newEndpointService(String service, ClientOptions options) {
+        return service == null ? new BluemixEndpointService()
                 : new SingleEndpointService(service,
                         options == null ? null : options.getUser(),
                                 options == null ? null : options.getPassword(),
                                         options == null ? null : options.getCertificateFile(),
-                                                options == null ? true : options.getVerifyName()),
-                new ThreadPoolCallbackService(5), new NettyNetworkService(),
-                new TimerServiceImpl(), null, options, listener, context);
+                                                options == null ? true : options.getVerifyName());
     }
 
     @Override
@@ -266,6 +358,11 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return externalState;
     }
 
+    @Override
+    public long getDroppedSendCount() {
+        return droppedSends.get();
+    }
+
     @Override
     public <T> boolean send(String topic, String data, Map<String, Object> properties,
             SendOptions sendOptions, CompletionListener<T> listener, T context)
@@ -301,11 +398,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           throw exception;
         }
         org.apache.qpid.proton.message.Message protonMsg = Proton.message();
-        int pos = data.position();
-        byte[] dataBytes = new byte[data.remaining()];
-        data.get(dataBytes);
-        data.position(pos);
-        protonMsg.setBody(new AmqpValue(new Binary(dataBytes)));
+        protonMsg.setBody(new AmqpValue(toBinary(data)));
         final boolean result = send(topic, protonMsg, properties, sendOptions == null ? defaultSendOptions : sendOptions, listener, context);
 
         logger.exit(this, methodName, result);
@@ -313,6 +406,19 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return result;
     }
 
+    // The message is encoded before the send method returns, so the Binary can share the data of
+    // an array backed buffer.  Other buffers need to be copied into an array.
+    private static Binary toBinary(ByteBuffer data) {
+        if (data.hasArray()) {
+            return new Binary(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        int pos = data.position();
+        byte[] dataBytes = new byte[data.remaining()];
+        data.get(dataBytes);
+        data.position(pos);
+        return new Binary(dataBytes);
+    }
+
     @Override
     public <T> boolean send(String topic, Object json,
             Map<String, Object> properties, SendOptions sendOptions,
@@ -415,6 +521,16 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           throw exception;
         }
 
+        final long interceptId;
+        if (interceptors.isEmpty()) {
+            interceptId = 0;
+        } else {
+            interceptId = nextInterceptId.incrementAndGet();
+            interceptors.onSend(ClientInterceptor.Stage.PRE_ENCODE, topic, interceptId, System.nanoTime());
+            properties = properties == null ? new HashMap<String, Object>() : new HashMap<>(properties);
+            intercept(topic, protonMsg, properties);
+        }
+
         protonMsg.setAddress("amqp:///" + topic);
         protonMsg.setTtl(sendOptions.getTtl());
         Map<String, Object> amqpProperties = new HashMap<>();
@@ -451,20 +567,14 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             protonMsg.setApplicationProperties(new ApplicationProperties(amqpProperties));
         }
 
-        byte data[] = new byte[2 * 1024];
-        int length;
-        while (true) {
-            try {
-                length = protonMsg.encode(data,  0,  data.length);
-                break;
-            } catch(BufferOverflowException boe) {
-                data = new byte[data.length * 2];
-            }
+        final ByteBuf buf = encode(protonMsg);
+        if (interceptId != 0) {
+            interceptors.onSend(ClientInterceptor.Stage.POST_ENCODE, topic, interceptId, System.nanoTime());
         }
-
-        final ByteBuf buf = io.netty.buffer.Unpooled.wrappedBuffer(data);
-        InternalSend<T> is = new InternalSend<T>(this, topic, sendOptions.getQos(), buf, length);
-        ++undrainedSends;
+        InternalSend<T> is = new InternalSend<T>(this, topic, sendOptions.getQos(), buf, buf.readableBytes(),
+                                                 conflationKey(topic, properties, sendOptions), interceptId);
+        final int messages = incompleteSends.incrementAndGet();
+        final long bytes = incompleteSendBytes.addAndGet(is.length);
         tell(is, this);
 
         try {
@@ -479,14 +589,106 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
           throw exception;
         }
 
-        boolean result = undrainedSends < 2;
-        pendingDrain |= !result;
+        final boolean result = messages < sendHighWatermarkMessages && bytes < sendHighWatermarkBytes;
+        if (!result) {
+            pendingDrain.set(true);
+            // The sends may all have completed since they were counted, in which case there will
+            // be nothing left to trigger the drain notification
+            checkDrain();
+        }
 
         logger.exit(this, methodName, result);
 
         return result;
     }
 
+    /**
+     * Passes the data of a message that is about to be encoded to the interceptors, replacing it with
+     * the data that they return.
+     */
+    private void intercept(String topic, org.apache.qpid.proton.message.Message protonMsg, Map<String, Object> properties) {
+        final String methodName = "intercept";
+        logger.entry(this, methodName, topic, protonMsg, properties);
+
+        final Object value = ((AmqpValue)protonMsg.getBody()).getValue();
+        final Object data = value instanceof Binary ? ((Binary)value).asByteBuffer().asReadOnlyBuffer() : value;
+        final Object result = interceptors.preEncode(topic, data, properties);
+        if (result != data) {
+            if (value instanceof Binary && result instanceof ByteBuffer) {
+                protonMsg.setBody(new AmqpValue(toBinary((ByteBuffer)result)));
+            } else if (value instanceof String && result instanceof String) {
+                protonMsg.setBody(new AmqpValue(result));
+            } else {
+                final IllegalArgumentException exception = new IllegalArgumentException("Interceptor returned data of type "
+                        + (result == null ? null : result.getClass().getName()) + " in place of " + data.getClass().getName());
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    InterceptorChain getInterceptors() {
+        return interceptors;
+    }
+
+    /**
+     * @return the key that identifies which messages a message can replace, or <code>null</code> if conflation
+     *         has not been enabled for the message.
+     */
+    private static String conflationKey(String topic, Map<String, Object> properties, SendOptions sendOptions) {
+        if (!sendOptions.getConflate()) {
+            return null;
+        } else if (sendOptions.getConflationKeyProperty() == null) {
+            return topic;
+        }
+        Object value = properties == null ? null : properties.get(sendOptions.getConflationKeyProperty());
+        if (value instanceof byte[]) {
+            value = Arrays.toString((byte[])value);
+        } else if (value instanceof Byte[]) {
+            value = Arrays.toString((Byte[])value);
+        }
+        // A NUL character separates the topic from the property value
+        return topic + '\u0000' + value;
+    }
+
+    /**
+     * Encodes a message into a pooled heap buffer.  The buffer is initially sized using an
+     * estimate based on the size of the messages previously encoded by this client, and is
+     * replaced with a larger buffer if the message does not fit.
+     *
+     * @param protonMsg the message to encode.
+     * @return a buffer containing the encoded message.  The caller is responsible for
+     *         releasing the buffer.
+     */
+    private ByteBuf encode(org.apache.qpid.proton.message.Message protonMsg) {
+        final String methodName = "encode";
+        logger.entry(this, methodName, protonMsg);
+
+        final int estimate = encodedSizeEstimate;
+        ByteBuf buf = allocator.heapBuffer(estimate + (estimate >> 3));
+        while (true) {
+            try {
+                buf.writerIndex(protonMsg.encode(buf.array(), buf.arrayOffset(), buf.capacity()));
+                break;
+            } catch(BufferOverflowException boe) {
+                final int capacity = buf.capacity() * 2;
+                buf.release();
+                buf = allocator.heapBuffer(capacity);
+            }
+        }
+
+        // Follow increases in message size immediately, and decreases gradually.  Updates from
+        // concurrent senders can be lost, which is harmless as this is only an estimate.
+        final int length = buf.readableBytes();
+        encodedSizeEstimate = length >= estimate ? length : estimate - ((estimate - length) >> 4);
+
+        logger.exit(this, methodName, buf);
+
+        return buf;
+    }
+
     @Override
     public <T> NonBlockingClient start(CompletionListener<T> listener, T context) throws StoppedException {
         final String methodName = "start";
@@ -557,7 +759,10 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final SubscriptionTopic subTopic = new SubscriptionTopic(topicPattern, subOptions.getShareName());
         boolean autoConfirm = subOptions.getAutoConfirm() || subOptions.getQOS() == QOS.AT_MOST_ONCE;
         InternalSubscribe<T> is =
-                new InternalSubscribe<T>(this, subTopic, subOptions.getQOS(), subOptions.getCredit(), autoConfirm, (int) Math.round(subOptions.getTtl() / 1000.0), gsonBuilder, destListener, context);
+                new InternalSubscribe<T>(this, subTopic, subOptions.getQOS(), subOptions.getCredit(),
+                        subOptions.getAdaptiveCredit(), subOptions.getMaxBufferedBytes(), autoConfirm, (int) Math.round(subOptions.getTtl() / 1000.0),
+                        subOptions.getOrderingScope(), subOptions.getOrderingKey(), subOptions.getConflate(), subOptions.getConflationKeyProperty(),
+                        gsonBuilder, destListener, context);
         tell(is, this);
 
         try {
@@ -688,24 +893,36 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             InternalSend<?> is = (InternalSend<?>)message;
             NonBlockingClientState state = stateMachine.getState();
             if (NonBlockingClientState.acceptingWorkStates.contains(state)) {
-                SendRequest sr = new SendRequest(currentConnection, is.topic, is.buf, is.length, is.qos);
-                outstandingSends.put(sr, is);
+                // The engine releases the buffer once it has been sent, but the client holds onto
+                // it (until the send completes) in case the message needs to be sent again.
+                SendRequest sr = new SendRequest(currentConnection, is.topic, is.buf.retain(), is.length, is.qos, nextSendSequence++, is.conflationKey);
+                outstandingSends.put(sr.sequence, is);
                 engine.tell(sr, this);
             } else if (NonBlockingClientState.queueingWorkStates.contains(state)) {
-                pendingWork.addLast(is);
+                if (is.qos == QOS.AT_MOST_ONCE) {
+                    queueAtMostOnceSend(is);
+                } else {
+                    pendingWork.addLast(is);
+                }
             } else {  // Assume state is in NonBlockingClientState.sendFail
+                releaseSend(is);
                 is.future.setFailure(new StoppedException("Cannot send messages because the client is in stopped state"));
             }
 
         } else if (message instanceof SendResponse) {
             SendResponse sr = (SendResponse)message;
-            InternalSend<?> is = outstandingSends.remove(sr.request);
+            InternalSend<?> is = outstandingSends.remove(sr.request.sequence);
             if (is != null) {
+                if (is.interceptId != 0 && sr.request.transferNanos != 0) {
+                    interceptors.onSend(ClientInterceptor.Stage.HANDED_TO_TRANSPORT, is.topic, is.interceptId, sr.request.transferNanos);
+                }
+                releaseSend(is);
                 if (sr.cause == null) {
                     is.future.setSuccess(null);
                 } else {
                     is.future.setFailure(sr.cause);
                 }
+                checkDrain();
             }
         } else if (message instanceof InternalStart) {
             pendingStarts.addLast((InternalStart<?>)message);
@@ -729,11 +946,13 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                 SubData sd = subscribedDestinations.get(is.topic);
                 if (sd == null) {
                     // Not already subscribed - so subscribe...
-                    SubscribeRequest sr = new SubscribeRequest(currentConnection, is.topic, is.qos, is.credit, is.ttl);
-                    sd = new SubData(is.destListener, is.qos, is.credit, is.autoConfirm, is.ttl);
+                    SubscribeRequest sr = new SubscribeRequest(currentConnection, is.topic, is.qos, is.credit, is.ttl,
+                            is.adaptiveCredit, is.maxBufferedBytes);
+                    sd = new SubData(is.destListener, is.qos, is.credit, is.adaptiveCredit, is.maxBufferedBytes, is.autoConfirm, is.ttl);
                     sd.inProgressSubscribe = is;
                     sd.state = SubData.State.ATTACHING;
                     subscribedDestinations.put(is.topic, sd);
+                    unconfirmedDeliveries.put(is.topic.getTopic(), sd.unconfirmed);
                     engine.tell(sr, this);
                 } else if (sd.pending.isEmpty()) {
                     // Already subscribed - no pending actions on the subscription.
@@ -806,7 +1025,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                     }
                     UnsubscribedException se = new UnsubscribedException(errMsg);
                     iu.future.setFailure(se);
-                } else if (sd.pending.isEmpty() && pendingDeliveries.isEmpty()) {
+                } else if (sd.pending.isEmpty() && sd.unconfirmed.isEmpty()) {
                     if (sd.state == SubData.State.ATTACHING) {
                         pendingWork.addLast(iu);
                     } else if (sd.state == SubData.State.DETATCHING) {
@@ -834,6 +1053,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             // unsubscribe request (in the case that the server closes the link)
             UnsubscribeResponse ur = (UnsubscribeResponse)message;
             SubData sd = subscribedDestinations.remove(ur.topic);
+            unconfirmedDeliveries.remove(ur.topic.getTopic());
             String[] parts = ur.topic.split();
             sd.listener.onUnsubscribed(callbackService, parts[0], parts[1], ur.error);
             if (sd.inProgressUnsubscribe != null) {
@@ -863,7 +1083,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             DeliveryRequest dr = (DeliveryRequest)message;
             final SubData subData = subscribedDestinations.get(new SubscriptionTopic(dr.topicPattern));
             if (dr.qos == QOS.AT_LEAST_ONCE) {
-                pendingDeliveries.add(dr);
+                subData.unconfirmed.add(dr);
             }
             subData.listener.onDelivery(callbackService, dr, subData.qos, subData.autoConfirm);
         } else if (message instanceof DisconnectNotification) {
@@ -885,13 +1105,19 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                 stateMachine.fire(NonBlockingClientTrigger.NETWORK_ERROR);
             }
         } else if (message instanceof FlushResponse) {
-            stateMachine.fire(NonBlockingClientTrigger.INBOUND_WORK_COMPLETE);
-        } else if (message instanceof DrainNotification) {
-            undrainedSends = 0;
-            if (pendingDrain) {
-                pendingDrain = false;
-                clientListener.onDrain(callbackService);
+            flushPending.set(true);
+            if (deliveryCallbacks.get() == 0 && flushPending.compareAndSet(true, false)) {
+                stateMachine.fire(NonBlockingClientTrigger.INBOUND_WORK_COMPLETE);
             }
+        } else if (message instanceof DrainNotification) {
+            // Sends are only counted as complete once they have been written to the network (or
+            // confirmed by the server), so the watermarks already account for the engine's buffers
+            checkDrain();
+        } else if (message instanceof ConfirmFailureNotification) {
+            // The delivery had already been confirmed, as far as the application is concerned, so there
+            // is no one to report this to.  The server treats the message as not having been confirmed.
+            StateException exception = ((ConfirmFailureNotification)message).exception;
+            logger.data(this, methodName, "Delivery confirmed after unsubscribing", exception);
         } else if (message instanceof CallbackExceptionNotification) {
             Exception exception = ((CallbackExceptionNotification)message).exception;
             logger.data(this, methodName, "Exception thrown from inside callback", exception);
@@ -929,7 +1155,8 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "openConnection";
         logger.entry(this, methodName);
 
-        engine.tell(new OpenRequest(currentEndpoint, clientId), this);
+        engine.tell(new OpenRequest(currentEndpoint, clientId, maxSenderLinks,
+                sendBatchMaxMessages, sendBatchMaxBytes, sendBatchLingerMicros), this);
 
         logger.exit(this, methodName);
     }
@@ -939,7 +1166,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "closeConnection";
         logger.entry(this, methodName);
 
-        pendingDeliveries.clear();
+        clearUnconfirmedDeliveries();
         engine.tell(new CloseRequest(currentConnection), this);
 
         logger.exit(this, methodName);
@@ -981,7 +1208,8 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             for (Map.Entry<SubscriptionTopic, SubData>entry : subscribedDestinations.entrySet()) {
                 SubData data = entry.getValue();
                 data.state = SubData.State.ATTACHING;
-                SubscribeRequest sr = new SubscribeRequest(currentConnection, entry.getKey(), data.qos, data.credit, data.ttl);
+                SubscribeRequest sr = new SubscribeRequest(currentConnection, entry.getKey(), data.qos, data.credit, data.ttl,
+                        data.adaptiveCredit, data.maxBufferedBytes);
                 engine.tell(sr, this);
             }
         }
@@ -1008,14 +1236,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "cleanup";
         logger.entry(this, methodName);
 
-        pendingDeliveries.clear();
-
-        // Fire a drain notification if required.
-        undrainedSends = 0;
-        if (pendingDrain) {
-            pendingDrain = false;
-            clientListener.onDrain(callbackService);
-        }
+        clearUnconfirmedDeliveries();
 
         // Flush any pending subscribe operations into pending work queue
         for (Map.Entry<SubscriptionTopic, SubData> entry : subscribedDestinations.entrySet()) {
@@ -1037,9 +1258,11 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
             }
         }
         subscribedDestinations.clear();
+        unconfirmedDeliveries.clear();
 
         // For any inflight sends - fail AT_LEAST_ONCE, succeed AT_MOST_ONCE
-        for (InternalSend<?> send : outstandingSends.values()) {
+        for (InternalSend<?> send : outstandingSends.removeAll()) {
+            releaseSend(send);
             if (send.qos == QOS.AT_MOST_ONCE) {
                 send.future.setSuccess(null);
             } else {
@@ -1048,9 +1271,11 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         }
 
         // Fail any pending work
+        queuedAtMostOnceSends.removeAllInto(pendingWork);
         for (QueueableWork work : pendingWork) {
             if (work instanceof InternalSend<?>) {
                 InternalSend<?> is = (InternalSend<?>)work;
+                releaseSend(is);
                 StoppedException stoppedException = new StoppedException("Cannot send messages because the client is in stopped state");
                 is.future.setFailure(stoppedException);
             } else if (work instanceof InternalSubscribe<?>) {
@@ -1063,6 +1288,9 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
                 iu.future.setFailure(stoppedException);
             }
         }
+        pendingWork.clear();
+        queuedAtMostOnceSeen = 0;
+        checkDrain();
 
         timerPromise = null;
         currentConnection = null;
@@ -1136,9 +1364,11 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "processQueuedActions";
         logger.entry(this, methodName);
 
+        queuedAtMostOnceSends.removeAllInto(pendingWork);
         while (!pendingWork.isEmpty()) {
             tell((Message)pendingWork.removeFirst(), this);
         }
+        queuedAtMostOnceSeen = 0;
 
         logger.exit(this, methodName);
     }
@@ -1232,23 +1462,19 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "breakInboundLinks";
         logger.entry(this, methodName);
 
-        pendingDeliveries.clear();
+        clearUnconfirmedDeliveries();
 
-        undrainedSends = 0;
-        if (pendingDrain) {
-            pendingDrain = false;
-            clientListener.onDrain(callbackService);
-        }
-        for (InternalSend<?> sendRequest : outstandingSends.values()) {
+        for (InternalSend<?> sendRequest : outstandingSends.removeAll()) {
             if (sendRequest.qos == QOS.AT_MOST_ONCE) {
                 // We don't know if the message made it or not - but based on this QOS - we have to assume it did...
+                releaseSend(sendRequest);
                 sendRequest.future.setSuccess(null);
             } else {
                 // And for this QOS - we can be pessimistic and assume it didn't...
                 pendingWork.addLast(sendRequest);
             }
         }
-        outstandingSends.clear();
+        checkDrain();
 
         for (Map.Entry<SubscriptionTopic, SubData>entry : subscribedDestinations.entrySet()) {
             SubData subData = entry.getValue();
@@ -1261,6 +1487,78 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         logger.exit(this, methodName);
     }
 
+    /**
+     * Called when a delivery callback is queued, so that the client can tell when all of the
+     * callbacks queued before the callback service was flushed have completed.
+     */
+    void deliveryCallbackQueued() {
+        deliveryCallbacks.incrementAndGet();
+    }
+
+    /**
+     * Called when a delivery callback, counted by {@link #deliveryCallbackQueued()}, has completed.
+     */
+    void deliveryCallbackCompleted() {
+        // If the callback service has already been flushed - try again now that the last delivery callback has completed
+        if (deliveryCallbacks.decrementAndGet() == 0 && flushPending.compareAndSet(true, false)) {
+            tell(new FlushResponse(), this);
+        }
+    }
+
+    @Override
+    public void confirm(Collection<? extends Delivery> deliveries) throws StateException, IllegalArgumentException {
+        final String methodName = "confirm";
+        logger.entry(this, methodName, deliveries);
+
+        if (deliveries == null) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Deliveries cannot be null");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+
+        // Check all of the deliveries can be confirmed, before confirming any of them
+        final ArrayList<DeliveryImpl> toConfirm = new ArrayList<>(deliveries.size());
+        for (Delivery delivery : deliveries) {
+            if (!(delivery instanceof DeliveryImpl) || ((DeliveryImpl)delivery).getClient() != this) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Delivery " + delivery + " was not received by this client");
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            try {
+                ((DeliveryImpl)delivery).checkConfirmable();
+            } catch(StateException e) {
+                logger.throwing(this, methodName, e);
+                throw e;
+            }
+            toConfirm.add((DeliveryImpl)delivery);
+        }
+
+        final ArrayList<DeliveryRequest> requests = new ArrayList<>(toConfirm.size());
+        // The same delivery may appear more than once in the collection - only the first can be confirmed
+        final Set<DeliveryRequest> requested = Collections.newSetFromMap(new IdentityHashMap<DeliveryRequest, Boolean>());
+        int interrupted = 0;
+        for (DeliveryImpl delivery : toConfirm) {
+            final DeliveryRequest request = delivery.getDeliveryRequest();
+            if (removeUnconfirmed(request)) {
+                requests.add(request);
+                requested.add(request);
+                delivery.setConfirmed();
+            } else if (!requested.contains(request)) {
+                ++interrupted;
+            }
+        }
+        if (!requests.isEmpty()) {
+            engine.tell(new DeliveryResponse(requests), this);
+        }
+        if (interrupted > 0) {
+            final StateException exception = new StateException("Cannot confirm " + interrupted + " of the deliveries because of an interruption to the network connection to the MQ Light server");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+
+        logger.exit(this, methodName);
+    }
+
     /**
      * Pass a {@link DeliveryResponse} back to the engine which will settle the delivery
      * (in the AT_LEAST_ONCE case) and flow deliveryCount++ and link-credit to the remote end
@@ -1273,7 +1571,7 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         final String methodName = "doDelivery";
         logger.entry(this, methodName, request);
 
-        final boolean result = (request.qos == QOS.AT_MOST_ONCE || pendingDeliveries.remove(request));
+        final boolean result = (request.qos == QOS.AT_MOST_ONCE || removeUnconfirmed(request));
         if (result) {
             engine.tell(new DeliveryResponse(request), this);
         }
@@ -1282,6 +1580,91 @@ public class NonBlockingClientImpl extends NonBlockingClient implements FSMActio
         return result;
     }
 
+    /**
+     * Holds an 'at most once' send with the pending work, while the client is not connected to the server.  If
+     * the maximum number of these sends are already pending, the overflow policy decides which send (if any)
+     * is discarded.
+     */
+    private void queueAtMostOnceSend(InternalSend<?> send) {
+        final String methodName = "queueAtMostOnceSend";
+        logger.entry(this, methodName, send);
+
+        ++queuedAtMostOnceSeen;
+        if (maxQueuedAtMostOnceSends == 0 || queuedAtMostOnceSends.size() < maxQueuedAtMostOnceSends) {
+            queuedAtMostOnceSends.addLast(send, pendingWork.size());
+        } else if (atMostOnceOverflowPolicy == BufferOverflowPolicy.REJECT) {
+            droppedSends.incrementAndGet();
+            releaseSend(send);
+            send.future.setFailure(new ClientException("Cannot send message because the client is already holding the maximum of "
+                    + maxQueuedAtMostOnceSends + " 'at most once' messages waiting to be sent"));
+            checkDrain();
+        } else {
+            InternalSend<?> dropped = send;
+            if (atMostOnceOverflowPolicy == BufferOverflowPolicy.DROP_OLDEST) {
+                dropped = queuedAtMostOnceSends.removeFirst();
+                queuedAtMostOnceSends.addLast(send, pendingWork.size());
+            } else if (atMostOnceOverflowPolicy == BufferOverflowPolicy.SAMPLE) {
+                // Reservoir sampling - each of the sends seen so far has the same chance of being kept
+                final long index = (long)(random.nextDouble() * queuedAtMostOnceSeen);
+                if (index < queuedAtMostOnceSends.size()) {
+                    dropped = queuedAtMostOnceSends.replace((int)index, send, pendingWork.size());
+                }
+            }
+            droppedSends.incrementAndGet();
+            logger.data(this, methodName, "Discarding message", dropped.topic, atMostOnceOverflowPolicy);
+            releaseSend(dropped);
+            dropped.future.setSuccess(null);
+            checkDrain();
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Releases the buffer holding a message, once the send operation has completed, and stops counting
+     * the message against the send watermarks.  Every completed send passes through here, whether it
+     * succeeded or not, so this is also where interceptors are told that the send has settled.
+     */
+    private void releaseSend(InternalSend<?> send) {
+        if (send.interceptId != 0) {
+            interceptors.onSend(ClientInterceptor.Stage.SETTLED, send.topic, send.interceptId, System.nanoTime());
+        }
+        send.buf.release();
+        incompleteSends.decrementAndGet();
+        incompleteSendBytes.addAndGet(-send.length);
+    }
+
+    /**
+     * Notifies the client listener's onDrain() method if a send has returned false (because the send high
+     * watermark was reached) and the incomplete sends have since dropped to the send low watermark.  Can be
+     * called from any thread - the notification is made at most once for each time the high watermark is reached.
+     */
+    private void checkDrain() {
+        if (incompleteSends.get() <= sendLowWatermarkMessages && incompleteSendBytes.get() <= sendLowWatermarkBytes
+                && pendingDrain.compareAndSet(true, false)) {
+            clientListener.onDrain(callbackService);
+        }
+    }
+
+    /**
+     * Removes a delivery from the unconfirmed deliveries of the subscription it arrived on.
+     * @return true if the delivery was unconfirmed, false if it has already been confirmed or
+     *         was discarded because the connection to the server was interrupted.
+     */
+    private boolean removeUnconfirmed(DeliveryRequest request) {
+        final UnconfirmedDeliveries unconfirmed = request.topicPattern == null ? null : unconfirmedDeliveries.get(request.topicPattern);
+        return unconfirmed != null && unconfirmed.remove(request);
+    }
+
+    /**
+     * Discards all of the unconfirmed deliveries, so that they can no longer be confirmed.
+     */
+    private void clearUnconfirmedDeliveries() {
+        for (UnconfirmedDeliveries unconfirmed : unconfirmedDeliveries.values()) {
+            unconfirmed.clear();
+        }
+    }
+
     private final ComponentImpl component = new ComponentImpl() {
       @Override
       protected void onReceive(Message message) {
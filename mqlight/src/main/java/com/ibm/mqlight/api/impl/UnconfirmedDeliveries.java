@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+
+/**
+ * The 'at least once' deliveries for a subscription that are waiting to be confirmed by the application.
+ * <p>
+ * Deliveries are added by the client's thread and removed by whichever application thread confirms
+ * them, without any lock being taken.  Each delivery is numbered, in sequence, by the engine, and held
+ * in the slot of a ring indexed by its sequence number.  As the server cannot send more deliveries than
+ * the subscription's credit allows, a ring of that size almost always has a free slot - a delivery is
+ * only held in a (concurrent) overflow set if its slot is still occupied by an older, unconfirmed, delivery.
+ * <p>
+ * A slot only ever matches the delivery it was filled with, and the ring is cleared when the connection to
+ * the server is lost, so attempts to confirm a delivery received over an earlier connection fail without
+ * affecting deliveries received since.
+ */
+class UnconfirmedDeliveries {
+
+    // Larger credit values are permitted, but would waste memory if every slot were allocated up front
+    private static final int MAX_RING_SIZE = 4096;
+
+    private final AtomicReferenceArray<DeliveryRequest> ring;
+    private final int mask;
+    private final ConcurrentHashMap<DeliveryRequest, Boolean> overflow = new ConcurrentHashMap<>();
+
+    /**
+     * @param credit the link credit for the subscription, which determines the size of the ring.
+     */
+    UnconfirmedDeliveries(int credit) {
+        int size = 1;
+        while (size < Math.min(credit, MAX_RING_SIZE)) size <<= 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a delivery that is waiting to be confirmed.  Only called by the client's thread.
+     */
+    void add(DeliveryRequest request) {
+        if (!ring.compareAndSet((int)(request.sequence & mask), null, request)) {
+            overflow.put(request, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes a delivery, when it is confirmed.  Can be called by any thread.
+     * @return <code>true</code> if the delivery was waiting to be confirmed, or <code>false</code> if it has
+     *         already been removed (or was received before the ring was last cleared).
+     */
+    boolean remove(DeliveryRequest request) {
+        return ring.compareAndSet((int)(request.sequence & mask), request, null) || overflow.remove(request) != null;
+    }
+
+    /**
+     * @return <code>true</code> if there are no deliveries waiting to be confirmed.  This checks every slot
+     *         of the ring, so is not intended for frequent use.
+     */
+    boolean isEmpty() {
+        for (int i = 0; i < ring.length(); ++i) {
+            if (ring.get(i) != null) return false;
+        }
+        return overflow.isEmpty();
+    }
+
+    /**
+     * Discards all of the deliveries, for example because the connection to the server has been lost.
+     */
+    void clear() {
+        for (int i = 0; i < ring.length(); ++i) {
+            ring.set(i, null);
+        }
+        overflow.clear();
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+/**
+ * Decides when, and how much, link credit to flow to the server for a subscription.  Credit is
+ * returned to the server as deliveries are settled (i.e. once the application has processed them),
+ * so the credit window also bounds the number of messages held by the client for the subscription.
+ * <p>
+ * By default the window is fixed at the credit value requested for the subscription.  In adaptive mode
+ * the window is sized to twice the number of messages the application processes in one round trip to
+ * the server - enough to keep the application busy without buffering more messages than it needs.  The
+ * processing rate is a moving average of the interval between settlements, and the round trip time is
+ * measured from flowing credit to a link that had run out of it, to the arrival of the next delivery.
+ * Until both have been measured, the window starts small and doubles each time the application is left
+ * waiting for messages because the link has run out of credit.
+ * <p>
+ * In either mode, credit is withheld while the deliveries held by the client (received but not yet
+ * settled) exceed a limit on their size in bytes.
+ * <p>
+ * Instances are only ever used by the engine's thread.
+ */
+class CreditController {
+
+    // Weight given to each new sample in the moving averages
+    private static final double SMOOTHING = 0.125;
+    // Settlement intervals longer than this are treated as the subscription being idle, not the application being slow
+    private static final long MAX_SETTLE_INTERVAL_NANOS = 1000000000L;
+    private static final int MIN_ADAPTIVE_WINDOW = 4;
+    private static final int INITIAL_ADAPTIVE_WINDOW = 32;
+
+    private final int maxCredit;
+    private final boolean adaptive;
+    private final long maxBufferedBytes;
+
+    private int window;
+    private int outstanding = 0;        // Credit flowed to the server, that it has not yet used
+    private int unsettled = 0;          // Deliveries received, that have not yet been settled
+    private int settled = 0;            // Deliveries settled since credit was last flowed (fixed mode)
+    private long bufferedBytes = 0;     // Size of the unsettled deliveries
+
+    private long lastSettleNanos = 0;
+    private double settleIntervalNanos = 0;
+    private long starvedFlowNanos = 0;
+    private double roundTripNanos = 0;
+
+    /**
+     * @param maxCredit the credit requested for the subscription - the largest window that will be used.
+     * @param adaptive whether the window is sized from the application's processing rate.
+     * @param maxBufferedBytes the size of unsettled deliveries above which credit is withheld, or 0 for no limit.
+     */
+    CreditController(int maxCredit, boolean adaptive, long maxBufferedBytes) {
+        this.maxCredit = maxCredit;
+        this.adaptive = adaptive && maxCredit > 0;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.window = this.adaptive ? Math.min(maxCredit, INITIAL_ADAPTIVE_WINDOW) : maxCredit;
+    }
+
+    /**
+     * @return the credit to flow when the link is opened.
+     */
+    int initialCredit() {
+        outstanding = window;
+        return window;
+    }
+
+    /**
+     * Called when a delivery is received for the subscription.
+     * @param size the size of the delivery, in bytes.
+     * @param now the current value of {@link System#nanoTime()}.
+     */
+    void delivered(int size, long now) {
+        if (outstanding > 0) --outstanding;
+        ++unsettled;
+        bufferedBytes += size;
+        if (starvedFlowNanos != 0) {
+            roundTripNanos = average(roundTripNanos, now - starvedFlowNanos);
+            starvedFlowNanos = 0;
+        }
+    }
+
+    /**
+     * Called when a delivery is settled.
+     * @param size the size of the delivery, in bytes.
+     * @param now the current value of {@link System#nanoTime()}.
+     * @return the amount of credit to flow to the server, or 0 if no credit should be flowed yet.
+     */
+    int settled(int size, long now) {
+        if (unsettled > 0) --unsettled;
+        bufferedBytes = Math.max(0, bufferedBytes - size);
+        ++settled;
+
+        if (adaptive) {
+            if (lastSettleNanos != 0) {
+                settleIntervalNanos = average(settleIntervalNanos, Math.min(now - lastSettleNanos, MAX_SETTLE_INTERVAL_NANOS));
+            }
+            lastSettleNanos = now;
+        }
+
+        if (maxBufferedBytes > 0 && bufferedBytes >= maxBufferedBytes) {
+            return 0;
+        }
+
+        return adaptive ? adaptiveFlow(now) : fixedFlow();
+    }
+
+    private int fixedFlow() {
+        double available = maxCredit - unsettled;
+        if ((available / settled) <= 1.25 || (unsettled == 0 && settled > 0)) {
+            return flow(settled);
+        }
+        return 0;
+    }
+
+    private int adaptiveFlow(long now) {
+        final boolean starved = outstanding == 0;
+        if (roundTripNanos > 0 && settleIntervalNanos > 0) {
+            final double messagesPerRoundTrip = roundTripNanos / settleIntervalNanos;
+            window = (int)Math.min(maxCredit, Math.max(MIN_ADAPTIVE_WINDOW, Math.ceil(2 * messagesPerRoundTrip)));
+        } else if (starved && unsettled == 0) {
+            // The application has processed every message it was sent, and is waiting for more
+            window = Math.min(maxCredit, window * 2);
+        }
+
+        final int amount = window - outstanding - unsettled;
+        // Flow credit in batches of at least a quarter of the window, unless the link has run dry
+        if (amount > 0 && (starved || amount >= Math.max(1, window / 4))) {
+            if (starved) starvedFlowNanos = now;
+            return flow(amount);
+        }
+        return 0;
+    }
+
+    private int flow(int amount) {
+        outstanding += amount;
+        settled = 0;
+        return amount;
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    int getUnsettled() {
+        return unsettled;
+    }
+
+    long getBufferedBytes() {
+        return bufferedBytes;
+    }
+}
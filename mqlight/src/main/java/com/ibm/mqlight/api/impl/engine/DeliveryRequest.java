@@ -36,12 +36,29 @@ public class DeliveryRequest extends Message {
     public final String topicPattern;
     protected final Delivery delivery;
     protected final Connection protonConnection;
+    // The size of the message when it was received - the buffer is released once the message has been decoded
+    protected final int size;
+    // Numbers the deliveries received by a subscription, in the order they were received
+    public final long sequence;
+    // The value of System.nanoTime() when the engine read the message from the network
+    public final long receivedNanos;
 
     public DeliveryRequest(ByteBuf buf, QOS qos, String topicPattern, Delivery delivery, Connection protonConnection) {
+        this(buf, qos, topicPattern, delivery, protonConnection, 0);
+    }
+
+    public DeliveryRequest(ByteBuf buf, QOS qos, String topicPattern, Delivery delivery, Connection protonConnection, long sequence) {
+        this(buf, qos, topicPattern, delivery, protonConnection, sequence, System.nanoTime());
+    }
+
+    public DeliveryRequest(ByteBuf buf, QOS qos, String topicPattern, Delivery delivery, Connection protonConnection, long sequence, long receivedNanos) {
         this.buf = buf;
         this.qos = qos;
         this.topicPattern = topicPattern;
         this.delivery = delivery;
         this.protonConnection = protonConnection;
+        this.size = buf == null ? 0 : buf.readableBytes();
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
     }
 }
@@ -18,12 +18,21 @@
  */
 package com.ibm.mqlight.api.impl.engine;
 
+import java.util.Collection;
+
 import com.ibm.mqlight.api.impl.Message;
 
 // Note: this is unusual for a response message in that it flows to the engine.
 public class DeliveryResponse extends Message {
     public final DeliveryRequest request;
+    // Set, instead of request, when a number of deliveries are confirmed together
+    public final Collection<DeliveryRequest> requests;
     public DeliveryResponse(DeliveryRequest request) {
         this.request = request;
+        this.requests = null;
+    }
+    public DeliveryResponse(Collection<DeliveryRequest> requests) {
+        this.request = null;
+        this.requests = requests;
     }
 }
@@ -19,13 +19,18 @@
 package com.ibm.mqlight.api.impl.engine;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.EnumSet;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Symbol;
@@ -88,10 +93,31 @@ public class Engine extends ComponentImpl implements Handler {
 
     private final NetworkService network;
     private final TimerService timer;
+    // Connections holding a partly filled batch of messages, to be written once all queued requests are processed.
+    private final ArrayList<EngineConnection> flushOnIdle = new ArrayList<>();
+
+    // Timer context used to write a partly filled batch of messages once the linger time has elapsed.
+    private static class BatchLinger {
+        private final EngineConnection engineConnection;
+        private BatchLinger(EngineConnection engineConnection) {
+            this.engineConnection = engineConnection;
+        }
+    }
 
     public Engine(NetworkService network, TimerService timer) {
+        this(network, timer, null);
+    }
+
+    /**
+     * @param network the network service used to establish connections.
+     * @param timer the timer service used to schedule idle timeouts.
+     * @param executor used to process the engine's requests, or <code>null</code> for them to be processed by
+     *                 the threads that make them.
+     */
+    public Engine(NetworkService network, TimerService timer, Executor executor) {
+        super(executor);
         final String methodName = "<init>";
-        logger.entry(this, methodName, network, timer);
+        logger.entry(this, methodName, network, timer, executor);
 
         if (network == null) {
           final IllegalArgumentException exception = new IllegalArgumentException("NetworkService argument cannot be null");
@@ -148,6 +174,10 @@ public class Engine extends ComponentImpl implements Handler {
 
                 EngineConnection engineConnection = new EngineConnection(protonConnection, session, or.getSender(), transport, collector, cr.channel);
                 engineConnection.openRequest = or;
+                engineConnection.maxSenderLinks = or.maxSenderLinks;
+                engineConnection.sendBatchMaxMessages = or.sendBatchMaxMessages;
+                engineConnection.sendBatchMaxBytes = or.sendBatchMaxBytes;
+                engineConnection.sendBatchLingerMicros = or.sendBatchLingerMicros;
                 protonConnection.setContext(engineConnection);
                 cr.channel.setContext(engineConnection);
 
@@ -163,6 +193,7 @@ public class Engine extends ComponentImpl implements Handler {
                 engineConnection.timerPromise = null;
                 timer.cancel(tmp);
             }
+            cancelLinger(engineConnection);
             protonConnection.close();
             engineConnection.closeRequest = cr;
             writeToNetwork(engineConnection);
@@ -171,54 +202,30 @@ public class Engine extends ComponentImpl implements Handler {
             EngineConnection engineConnection = sr.connection;
 
             // Look to see if there is already a suitable sending link, and open one if there is not...
-            Link link = sr.connection.connection.linkHead(EnumSet.of(EndpointState.ACTIVE),
-                                                          EnumSet.of(EndpointState.ACTIVE, EndpointState.UNINITIALIZED));
-            Sender linkSender;
-            boolean linkOpened = false;
-            while(true) {
-                if (link == null) {
-                    linkSender = sr.connection.session.sender(sr.topic);
-                    Source source = new Source();
-                    Target target = new Target();
-                    source.setAddress(sr.topic);
-                    target.setAddress(sr.topic);
-                    linkSender.setSource(source);
-                    linkSender.setTarget(target);
-                    linkSender.open();
-                    linkOpened = true;
-                    break;
-                }
-                if ((link instanceof Sender) && sr.topic.equals(link.getName())) {
-                    linkSender = (Sender)link;
-                    break;
-                }
-                link = link.next(EnumSet.of(EndpointState.ACTIVE),
-                                            EnumSet.of(EndpointState.ACTIVE, EndpointState.UNINITIALIZED));
+            Sender linkSender = activeSender(engineConnection, sr.topic);
+            final boolean linkOpened = linkSender == null;
+            if (linkOpened) {
+                linkSender = openSender(engineConnection, sr.topic);
             }
-            Delivery d = linkSender.delivery(String.valueOf(engineConnection.deliveryTag++).getBytes(Charset.forName("UTF-8")));
 
-            linkSender.send(sr.buf.array(), 0, sr.length);
-            sr.buf.release();
-
-            if (sr.qos == QOS.AT_MOST_ONCE) {
-                d.settle();
+            if (sr.conflationKey != null && !engineConnection.closed) {
+                // Hold onto the message until it can be written to the network, in case it is replaced
+                conflate(engineConnection, sr);
+                if (linkOpened) {
+                    // Write the link open, so that the server can grant credit to send on it
+                    writeToNetwork(engineConnection);
+                }
+                sendConflated(engineConnection);
             } else {
-                engineConnection.inProgressOutboundDeliveries.put(d, sr);
-            }
-            linkSender.advance();
-            engineConnection.drained = false;
-            int delta = engineConnection.transport.head().remaining();
-            // If the link was also opened as part of processing this request then increase the
-            // amount of data expected (as the linkSender.send() won't count against the amount of
-            // data in transport.head() unless there is link credit - which there won't be until
-            // the server responds to the link open).
-            if (linkOpened) {
-                delta += sr.length;
-            }
-            if (sr.qos == QOS.AT_MOST_ONCE) {
-                engineConnection.addInflightQos0(delta, new SendResponse(sr, null), sr.getSender(), this);
+                // Any messages held for conflation on the topic were sent first, so must be transferred first
+                flushConflated(engineConnection, linkSender, linkOpened, sr.topic);
+                transfer(engineConnection, linkSender, linkOpened, sr);
+                if (engineConnection.sendBatchMaxMessages > 1) {
+                    addToBatch(engineConnection);
+                } else {
+                    writeToNetwork(engineConnection);
+                }
             }
-            writeToNetwork(engineConnection);
         } else if (message instanceof SubscribeRequest) {
             SubscribeRequest sr = (SubscribeRequest) message;
             EngineConnection engineConnection = sr.connection;
@@ -228,7 +235,8 @@ public class Engine extends ComponentImpl implements Handler {
                 sr.getSender().tell(new SubscribeResponse(engineConnection, sr.topic, exception), this);
             } else {
                 Receiver linkReceiver = sr.connection.session.receiver(sr.topic.getTopic());
-                engineConnection.subscriptionData.put(sr.topic.toString(), new EngineConnection.SubscriptionData(sr.getSender(), sr.initialCredit, linkReceiver));
+                CreditController credit = new CreditController(sr.initialCredit, sr.adaptiveCredit, sr.maxBufferedBytes);
+                engineConnection.subscriptionData.put(sr.topic.toString(), new EngineConnection.SubscriptionData(sr.getSender(), credit, linkReceiver));
                 Source source = new Source();
                 source.setAddress(sr.topic.getTopic());
                 Target target = new Target();
@@ -252,7 +260,7 @@ public class Engine extends ComponentImpl implements Handler {
                 }
 
                 linkReceiver.open();
-                linkReceiver.flow(sr.initialCredit);
+                linkReceiver.flow(credit.initialCredit());
 
                 writeToNetwork(engineConnection);
             }
@@ -278,6 +286,46 @@ public class Engine extends ComponentImpl implements Handler {
             }
             writeToNetwork(engineConnection);
 
+        } else if (message instanceof DeliveryResponse && ((DeliveryResponse)message).requests != null) {
+            // A number of deliveries confirmed together - settle them all, then flow credit once for each
+            // subscription and write to the network once for each connection.
+            DeliveryResponse dr = (DeliveryResponse)message;
+            final long now = System.nanoTime();
+            final LinkedHashMap<EngineConnection.SubscriptionData, Integer> flows = new LinkedHashMap<>();
+            final Set<EngineConnection> connections = Collections.newSetFromMap(new IdentityHashMap<EngineConnection, Boolean>());
+            // connection -> topic patterns, that have been unsubscribed from, for which the client has been told
+            final IdentityHashMap<EngineConnection, HashSet<String>> unsubscribed = new IdentityHashMap<>();
+            for (DeliveryRequest request : dr.requests) {
+                request.delivery.settle();
+                EngineConnection engineConnection = (EngineConnection)request.protonConnection.getContext();
+                connections.add(engineConnection);
+                EngineConnection.SubscriptionData subData = engineConnection.subscriptionData.get(request.topicPattern);
+                if (subData == null) {
+                    if (request.qos != QOS.AT_MOST_ONCE) {
+                        HashSet<String> topicPatterns = unsubscribed.get(engineConnection);
+                        if (topicPatterns == null) {
+                            topicPatterns = new HashSet<>();
+                            unsubscribed.put(engineConnection, topicPatterns);
+                        }
+                        if (topicPatterns.add(request.topicPattern)) {
+                            confirmFailed(engineConnection, request.topicPattern);
+                        }
+                    }
+                } else {
+                    int amount = subData.credit.settled(request.size, now);
+                    if (amount > 0) {
+                        Integer flow = flows.get(subData);
+                        flows.put(subData, flow == null ? amount : flow + amount);
+                    }
+                }
+            }
+            for (Map.Entry<EngineConnection.SubscriptionData, Integer> flow : flows.entrySet()) {
+                flow.getKey().receiver.flow(flow.getValue());
+            }
+            for (EngineConnection engineConnection : connections) {
+                writeToNetwork(engineConnection);
+            }
+
         } else if (message instanceof DeliveryResponse) {
             DeliveryResponse dr = (DeliveryResponse)message;
             Delivery delivery = dr.request.delivery;
@@ -287,17 +335,12 @@ public class Engine extends ComponentImpl implements Handler {
             EngineConnection.SubscriptionData subData = engineConnection.subscriptionData.get(dr.request.topicPattern);
             if (subData == null) {
               if (dr.request.qos != QOS.AT_MOST_ONCE) {
-                throw new StateException("Client had unsubscribed from '" + dr.request.topicPattern + "' before delivery was confirmed");
+                confirmFailed(engineConnection, dr.request.topicPattern);
               }
             } else {
-              subData.settled++;
-              subData.unsettled--;
-
-              double available = subData.maxLinkCredit - subData.unsettled;
-              if ((available / subData.settled) <= 1.25 ||
-                  (subData.unsettled == 0 && subData.settled > 0)) {
-                subData.receiver.flow(subData.settled);
-                subData.settled = 0;
+              int amount = subData.credit.settled(dr.request.size, System.nanoTime());
+              if (amount > 0) {
+                subData.receiver.flow(amount);
               }
             }
 
@@ -311,11 +354,14 @@ public class Engine extends ComponentImpl implements Handler {
             if (engineConnection != null) {
                 engineConnection.bytesWritten += wr.amount;
                 engineConnection.notifyInflightQos0(false);
-                if (engineConnection.transport.pending() > 0) {
+                if (engineConnection.batchedMessages > 0) {
+                    // Leave a partly filled batch for addToBatch(), onIdle() or the linger timer to write
+                } else if (engineConnection.transport.pending() > 0) {
                     writeToNetwork(engineConnection);
                 } else if (!engineConnection.drained){
                     engineConnection.drained = true;
                     engineConnection.requestor.tell(new DrainNotification(), this);
+                    sendConflated(engineConnection);
                 }
             }
         } else if (message instanceof DataRead) {
@@ -346,6 +392,7 @@ public class Engine extends ComponentImpl implements Handler {
             if (cr != null) {
                 cr.connection.closed = true;
                 cr.connection.notifyInflightQos0(true);
+                discardConflated(cr.connection);
                 cr.getSender().tell(new CloseResponse(cr), this);
             }
         } else if (message instanceof ConnectionError) {
@@ -358,19 +405,47 @@ public class Engine extends ComponentImpl implements Handler {
                     engineConnection.timerPromise = null;
                     timer.cancel(tmp);
                 }
+                cancelLinger(engineConnection);
                 engineConnection.notifyInflightQos0(true);
+                discardConflated(engineConnection);
                 engineConnection.closed = true;
                 engineConnection.transport.close_tail();
                 engineConnection.requestor.tell(new DisconnectNotification(
                         engineConnection, ce.cause), this);
             }
+        } else if (message instanceof PopResponse && ((PopResponse)message).promise.getContext() instanceof BatchLinger) {
+            // The linger time for a partly filled batch of messages has elapsed
+            PopResponse pr = (PopResponse)message;
+            EngineConnection engineConnection = ((BatchLinger)pr.promise.getContext()).engineConnection;
+            if (engineConnection.lingerPromise == pr.promise) {
+                engineConnection.lingerPromise = null;
+                if (!engineConnection.closed) writeToNetwork(engineConnection);
+            }
         } else if (message instanceof PopResponse) {
+            // Periodic tick for the connection.  Proton uses this both to send heartbeats and to check
+            // that data has been received from the server within the idle timeout.
             PopResponse pr = (PopResponse)message;
             EngineConnection engineConnection = (EngineConnection)pr.promise.getContext();
+            if (engineConnection.closed || engineConnection.timerPromise != pr.promise) {
+                logger.exit(this, methodName);
+                return;
+            }
+            engineConnection.timerPromise = null;
             long now = System.currentTimeMillis();
             long timeout = engineConnection.transport.tick(now);
             logger.data(this, methodName, "Timeout: {}", timeout);
-            if (timeout > 0) {
+            if (engineConnection.closeRequest == null
+                    && engineConnection.connection.getLocalState() == EndpointState.CLOSED) {
+                // Proton has closed the connection because nothing was received within the idle timeout
+                writeToNetwork(engineConnection);
+                engineConnection.notifyInflightQos0(true);
+                discardConflated(engineConnection);
+                engineConnection.closed = true;
+                engineConnection.channel.close(null);
+                engineConnection.requestor.tell(new DisconnectNotification(engineConnection,
+                        new NetworkException("No data was received from the server within the idle timeout of "
+                                + engineConnection.transport.getIdleTimeout() + "ms")), this);
+            } else if (timeout > 0) {
                 TimerPromiseImpl promise = new TimerPromiseImpl(this, engineConnection);
                 engineConnection.timerPromise = promise;
                 logger.data(this, methodName, "Scheduling at: {}", timeout - now);
@@ -382,11 +457,282 @@ public class Engine extends ComponentImpl implements Handler {
         logger.exit(this, methodName);
     }
 
+    // Returns the sending link for a topic, or null if there is no link that can still be used.
+    private Sender activeSender(EngineConnection engineConnection, String topic) {
+        Sender linkSender = engineConnection.senders.get(topic);
+        if (linkSender != null &&
+                (linkSender.getLocalState() != EndpointState.ACTIVE || linkSender.getRemoteState() == EndpointState.CLOSED)) {
+            engineConnection.senders.remove(topic);
+            linkSender = null;
+        }
+        return linkSender;
+    }
+
+    // Opens a sending link for a topic.  The link is given a name that has not been used before on the
+    // connection, as a link to the topic that was closed as idle may not have been detached by the server yet.
+    private Sender openSender(EngineConnection engineConnection, String topic) {
+        Sender linkSender = engineConnection.session.sender(topic + "_" + engineConnection.senderLinksOpened++);
+        Source source = new Source();
+        Target target = new Target();
+        source.setAddress(topic);
+        target.setAddress(topic);
+        linkSender.setSource(source);
+        linkSender.setTarget(target);
+        linkSender.open();
+        engineConnection.senders.put(topic, linkSender);
+        closeIdleSenders(engineConnection, linkSender);
+        return linkSender;
+    }
+
+    // Encodes a message into the transport, as a delivery on the sending link.
+    private void transfer(EngineConnection engineConnection, Sender linkSender, boolean linkOpened, SendRequest sr) {
+        Delivery d = linkSender.delivery(deliveryTag(engineConnection.deliveryTag++));
+
+        if (sr.buf.hasArray()) {
+            linkSender.send(sr.buf.array(), sr.buf.arrayOffset() + sr.buf.readerIndex(), sr.length);
+        } else {
+            byte[] data = new byte[sr.length];
+            sr.buf.getBytes(sr.buf.readerIndex(), data);
+            linkSender.send(data, 0, sr.length);
+        }
+        sr.buf.release();
+        sr.transferNanos = System.nanoTime();
+
+        if (sr.qos == QOS.AT_MOST_ONCE) {
+            d.settle();
+        } else {
+            d.setContext(sr);
+        }
+        linkSender.advance();
+        engineConnection.drained = false;
+        int delta = engineConnection.transport.head().remaining();
+        // If the link was also opened as part of processing this request then increase the
+        // amount of data expected (as the linkSender.send() won't count against the amount of
+        // data in transport.head() unless there is link credit - which there won't be until
+        // the server responds to the link open).
+        if (linkOpened) {
+            delta += sr.length;
+        }
+        if (sr.qos == QOS.AT_MOST_ONCE) {
+            engineConnection.addInflightQos0(delta, new SendResponse(sr, null), sr.getSender(), this);
+        }
+    }
+
+    // Holds onto an 'at most once' message that has conflation enabled, replacing any earlier message with
+    // the same conflation key that is still being held.  The replaced message is treated as having been sent.
+    private void conflate(EngineConnection engineConnection, SendRequest sr) {
+        final String methodName = "conflate";
+        logger.entry(this, methodName, engineConnection, sr);
+
+        final SendRequest replaced = engineConnection.conflatedSends.put(sr.conflationKey, sr);
+        if (replaced != null) {
+            replaced.buf.release();
+            replaced.getSender().tell(new SendResponse(replaced, null), this);
+        } else {
+            final Integer count = engineConnection.conflatedTopics.get(sr.topic);
+            engineConnection.conflatedTopics.put(sr.topic, count == null ? 1 : count + 1);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Completes the messages held for conflation when the connection is closed.  They have not been written,
+    // but for 'at most once' messages we have to assume they might have been...
+    private void discardConflated(EngineConnection engineConnection) {
+        for (SendRequest sr : engineConnection.conflatedSends.values()) {
+            sr.buf.release();
+            sr.getSender().tell(new SendResponse(sr, null), this);
+        }
+        engineConnection.conflatedSends.clear();
+        engineConnection.conflatedTopics.clear();
+    }
+
+    // Stops counting a message that is no longer held for conflation against its topic.
+    private void unconflated(EngineConnection engineConnection, String topic) {
+        final int count = engineConnection.conflatedTopics.get(topic);
+        if (count == 1) {
+            engineConnection.conflatedTopics.remove(topic);
+        } else {
+            engineConnection.conflatedTopics.put(topic, count - 1);
+        }
+    }
+
+    // Transfers any messages held for conflation on a topic, ahead of a message that cannot be conflated, so
+    // that the messages sent to the topic stay in order.
+    private void flushConflated(EngineConnection engineConnection, Sender linkSender, boolean linkOpened, String topic) {
+        final String methodName = "flushConflated";
+        logger.entry(this, methodName, engineConnection, linkSender, linkOpened, topic);
+
+        final Integer count = engineConnection.conflatedTopics.remove(topic);
+        if (count != null) {
+            int remaining = count;
+            final Iterator<SendRequest> iterator = engineConnection.conflatedSends.values().iterator();
+            while (remaining > 0 && iterator.hasNext()) {
+                final SendRequest sr = iterator.next();
+                if (sr.topic.equals(topic)) {
+                    iterator.remove();
+                    transfer(engineConnection, linkSender, linkOpened, sr);
+                    --remaining;
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Transfers the messages held for conflation, for which there is now link credit, once the network
+    // has caught up with the data previously written to it.
+    private void sendConflated(EngineConnection engineConnection) {
+        final String methodName = "sendConflated";
+        logger.entry(this, methodName, engineConnection);
+
+        if (engineConnection.drained && !engineConnection.closed && !engineConnection.conflatedSends.isEmpty()) {
+            boolean transferred = false;
+            boolean linksOpened = false;
+            final Iterator<SendRequest> iterator = engineConnection.conflatedSends.values().iterator();
+            while (iterator.hasNext()) {
+                final SendRequest sr = iterator.next();
+                Sender linkSender = activeSender(engineConnection, sr.topic);
+                if (linkSender == null) {
+                    // The link has been closed since the message was held
+                    linkSender = openSender(engineConnection, sr.topic);
+                    linksOpened = true;
+                } else if (linkSender.getCredit() > 0) {
+                    iterator.remove();
+                    unconflated(engineConnection, sr.topic);
+                    transfer(engineConnection, linkSender, false, sr);
+                    transferred = true;
+                }
+            }
+            if (linksOpened) {
+                writeToNetwork(engineConnection);
+            } else if (transferred) {
+                if (engineConnection.sendBatchMaxMessages > 1) {
+                    addToBatch(engineConnection);
+                } else {
+                    writeToNetwork(engineConnection);
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Encodes a delivery tag as the minimum number of big-endian bytes needed to represent it.
+    static byte[] deliveryTag(long tag) {
+        int length = 1;
+        while (length < 8 && (tag >>> (length * 8)) != 0) ++length;
+        final byte[] result = new byte[length];
+        for (int i = length - 1; i >= 0; --i) {
+            result[i] = (byte)tag;
+            tag >>>= 8;
+        }
+        return result;
+    }
+
+    // Tells the client that it confirmed a delivery after unsubscribing from the destination that the delivery
+    // arrived on.  This is not thrown, as the engine may be running on a thread that is shared with other clients.
+    private void confirmFailed(EngineConnection engineConnection, String topicPattern) {
+        final String methodName = "confirmFailed";
+        logger.entry(this, methodName, engineConnection, topicPattern);
+
+        final StateException exception = new StateException("Client had unsubscribed from '" + topicPattern + "' before delivery was confirmed");
+        engineConnection.requestor.tell(new ConfirmFailureNotification(engineConnection, exception), this);
+
+        logger.exit(this, methodName);
+    }
+
+    // Closes the least recently used sending links, that have no messages waiting to be sent or
+    // settled, until the connection is back within its limit on the number of sending links.  Links
+    // to topics with messages held for conflation are kept open, as the messages will be sent on them.
+    private void closeIdleSenders(EngineConnection engineConnection, Sender inUse) {
+        final String methodName = "closeIdleSenders";
+        logger.entry(this, methodName, engineConnection, inUse);
+
+        if (engineConnection.maxSenderLinks > 0) {
+            Iterator<Map.Entry<String, Sender>> iterator = engineConnection.senders.entrySet().iterator();
+            while (engineConnection.senders.size() > engineConnection.maxSenderLinks && iterator.hasNext()) {
+                Map.Entry<String, Sender> entry = iterator.next();
+                Sender sender = entry.getValue();
+                if (sender != inUse && sender.getQueued() == 0 && sender.getUnsettled() == 0
+                        && !engineConnection.conflatedTopics.containsKey(entry.getKey())) {
+                    logger.data(this, methodName, "Closing idle sending link: {}", sender.getName());
+                    iterator.remove();
+                    sender.close();
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    // Adds the message just encoded into the transport to the connection's current batch, and writes
+    // the batch to the network if it is full.  Otherwise the batch is written once the linger time has
+    // elapsed or, if there is no linger time, once the engine has processed all of its queued requests.
+    private void addToBatch(EngineConnection engineConnection) {
+        final String methodName = "addToBatch";
+        logger.entry(this, methodName, engineConnection);
+
+        engineConnection.batchedMessages++;
+        if (engineConnection.batchedMessages >= engineConnection.sendBatchMaxMessages ||
+                engineConnection.transport.pending() >= engineConnection.sendBatchMaxBytes) {
+            writeToNetwork(engineConnection);
+        } else if (engineConnection.sendBatchLingerMicros > 0) {
+            if (engineConnection.lingerPromise == null) {
+                TimerPromiseImpl promise = new TimerPromiseImpl(this, new BatchLinger(engineConnection));
+                engineConnection.lingerPromise = promise;
+                timer.schedule((engineConnection.sendBatchLingerMicros + 999) / 1000, promise);
+            }
+        } else if (!engineConnection.flushOnIdle) {
+            engineConnection.flushOnIdle = true;
+            flushOnIdle.add(engineConnection);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private void cancelLinger(EngineConnection engineConnection) {
+        final String methodName = "cancelLinger";
+        logger.entry(this, methodName, engineConnection);
+
+        if (engineConnection.lingerPromise != null) {
+            TimerPromiseImpl tmp = engineConnection.lingerPromise;
+            engineConnection.lingerPromise = null;
+            timer.cancel(tmp);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    protected void onIdle() {
+        if (!flushOnIdle.isEmpty()) {
+            final String methodName = "onIdle";
+            logger.entry(this, methodName);
+
+            try {
+                for (EngineConnection engineConnection : flushOnIdle) {
+                    engineConnection.flushOnIdle = false;
+                    if (!engineConnection.closed) writeToNetwork(engineConnection);
+                }
+            } finally {
+                // Do not retry a flush that failed - any connections not yet written to wait for their next message
+                for (EngineConnection engineConnection : flushOnIdle) {
+                    engineConnection.flushOnIdle = false;
+                }
+                flushOnIdle.clear();
+            }
+
+            logger.exit(this, methodName);
+        }
+    }
+
     // Drains any pending data from a Proton transport object onto the network
     private void writeToNetwork(EngineConnection engineConnection) {
       final String methodName = "writeToNetwork";
       logger.entry(this, methodName, engineConnection);
 
+        engineConnection.batchedMessages = 0;
         if (engineConnection.transport.pending() > 0) {
             ByteBuffer head = engineConnection.transport.head();
             int amount = head.remaining();
@@ -398,46 +744,6 @@ public class Engine extends ComponentImpl implements Handler {
         logger.exit(this, methodName);
     }
 
-    /** Runs scheduled asynchronous Tasks. */
-    private final ScheduledExecutorService scheduler = java.util.concurrent.Executors.newScheduledThreadPool(1);
-    /** A scheduled task that runs if we receive no data from the client in the scheduled time. */
-    private ScheduledFuture<?> receiveScheduledFuture;
-
-    /**
-     * Reset the local idle timers, now that we have received some data.
-     *
-     * If we have set an idle timeout the client must send some data at least that often,
-     * we double the timeout before checking.
-     */
-    private void resetReceiveIdleTimer(Event event) {
-        final String methodName = "resetReceiveIdleTimer";
-        logger.entry(this, methodName, event);
-
-        if (receiveScheduledFuture != null) {
-            receiveScheduledFuture.cancel(false);
-        }
-
-        final Transport transport = event.getTransport();
-        if (transport != null) {
-            final int localIdleTimeOut = transport.getIdleTimeout();
-            if (localIdleTimeOut > 0) {
-                Runnable receiveTimeout = new Runnable() {
-                    @Override
-                    public void run() {
-                        final String methodName = "run";
-                        logger.entry(this, methodName);
-                        transport.process();
-                        transport.tick(System.currentTimeMillis());
-                        logger.exit(methodName);
-                    }
-                };
-                receiveScheduledFuture = scheduler.schedule(receiveTimeout,
-                        localIdleTimeOut, TimeUnit.MILLISECONDS);
-            }
-        }
-        logger.exit(this, methodName);
-    }
-
     private void process(Collector collector) {
         final String methodName = "process";
         logger.entry(this, methodName, collector);
@@ -446,7 +752,6 @@ public class Engine extends ComponentImpl implements Handler {
             Event event = collector.peek();
             logger.data(this, methodName, "Processing event: {}", event.getType());
             event.dispatch(this);
-            resetReceiveIdleTimer(event);
 
             collector.pop();
         }
@@ -470,6 +775,7 @@ public class Engine extends ComponentImpl implements Handler {
             if (event.getConnection().getLocalState() == EndpointState.CLOSED || engineConnection.openRequest == null) {
                 if (!engineConnection.closed) {
                     engineConnection.notifyInflightQos0(true);
+                    discardConflated(engineConnection);
                     engineConnection.closed = true;
                     CloseRequest cr = engineConnection.closeRequest;
                     engineConnection.closeRequest = null;
@@ -485,6 +791,7 @@ public class Engine extends ComponentImpl implements Handler {
                 engineConnection.openRequest = null;
                 if (!engineConnection.closed) {
                     engineConnection.notifyInflightQos0(true);
+                    discardConflated(engineConnection);
                     engineConnection.closed = true;
                     engineConnection.channel.close(null);
 
@@ -609,6 +916,7 @@ public class Engine extends ComponentImpl implements Handler {
         } else if (link instanceof Sender) {
             if (eventType == Event.Type.LINK_REMOTE_CLOSE &&
                     link.getRemoteState() == EndpointState.CLOSED) {
+                EngineConnection engineConnection = (EngineConnection)event.getConnection().getContext();
                 if (link.getLocalState() != EndpointState.CLOSED) {
                     String msg = "The server indicated that our sending link was closed due to an error condition, ";
                     ErrorCondition remoteCondition = link.getRemoteCondition();
@@ -621,15 +929,19 @@ public class Engine extends ComponentImpl implements Handler {
                         }
                     }
                     logger.data(this, methodName, msg, link.getTarget().getAddress(), this);
-                    EngineConnection engineConnection = (EngineConnection) event.getConnection().getContext();
                     for (Delivery delivery = link.head(); delivery != null; delivery = delivery.next()) {
-                        SendRequest sr = engineConnection.inProgressOutboundDeliveries.remove(delivery);
+                        SendRequest sr = (SendRequest)delivery.getContext();
+                        delivery.setContext(null);
                         if (sr != null && sr.getSender() != null) {
                             sr.getSender().tell(new SendResponse(sr, new ClientException(msg)), this);
                         }
                     }
                     link.close();
                 }
+                final String topic = link.getTarget().getAddress();
+                if (engineConnection.senders.get(topic) == link) {
+                    engineConnection.senders.remove(topic);
+                }
                 link.free();
             }
         }
@@ -769,7 +1081,10 @@ public class Engine extends ComponentImpl implements Handler {
 
     @Override
     public void onLinkFlow(Event e) {
-      // No action required
+      if (e.getLink() instanceof Sender) {
+          // The server has granted credit - which may allow messages held for conflation to be sent
+          sendConflated((EngineConnection)e.getConnection().getContext());
+      }
     }
 
     @Override
@@ -785,7 +1100,8 @@ public class Engine extends ComponentImpl implements Handler {
       EngineConnection engineConnection = (EngineConnection)event.getConnection().getContext();
       Delivery delivery = event.getDelivery();
       if (event.getLink() instanceof Sender) {
-          SendRequest sr = engineConnection.inProgressOutboundDeliveries.remove(delivery);
+          SendRequest sr = (SendRequest)delivery.getContext();
+          delivery.setContext(null);
           Exception exception = null;
           if (delivery.getRemoteState() instanceof Rejected) {
               final Rejected rejected = (Rejected) delivery.getRemoteState();
@@ -803,16 +1119,18 @@ public class Engine extends ComponentImpl implements Handler {
           sr.getSender().tell(new SendResponse(sr, exception), this);
       } else if (delivery.isReadable() && !delivery.isPartial()) {    // Assuming link instanceof Receiver...
           Receiver receiver = (Receiver)event.getLink();
+          // Copy the message straight into a pooled buffer - this is released once the message
+          // has been decoded (see DestinationListenerWrapper)
           int amount = delivery.pending();
-          byte[] data = new byte[amount];
-          receiver.recv(data, 0, amount);
+          ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(amount);
+          buf.writerIndex(receiver.recv(buf.array(), buf.arrayOffset(), amount));
           receiver.advance();
-          ByteBuf buf = io.netty.buffer.Unpooled.wrappedBuffer(data);
 
           EngineConnection.SubscriptionData subData = engineConnection.subscriptionData.get(event.getLink().getName());
-          subData.unsettled++;
+          final long now = System.nanoTime();
+          subData.credit.delivered(amount, now);
           QOS qos = delivery.remotelySettled() ? QOS.AT_MOST_ONCE : QOS.AT_LEAST_ONCE;
-          subData.subscriber.tell(new DeliveryRequest(buf, qos, event.getLink().getName(), delivery, event.getConnection()), this);
+          subData.subscriber.tell(new DeliveryRequest(buf, qos, event.getLink().getName(), delivery, event.getConnection(), subData.nextSequence++, now), this);
       }
 
       logger.exit(this, methodName);
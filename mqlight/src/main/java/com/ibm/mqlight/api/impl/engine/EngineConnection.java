@@ -19,12 +19,13 @@
 package com.ibm.mqlight.api.impl.engine;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 
 import org.apache.qpid.proton.engine.Collector;
 import org.apache.qpid.proton.engine.Connection;
-import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Receiver;
+import org.apache.qpid.proton.engine.Sender;
 import org.apache.qpid.proton.engine.Session;
 import org.apache.qpid.proton.engine.Transport;
 
@@ -98,33 +99,49 @@ public class EngineConnection {
     protected final Collector collector;
     protected final NetworkChannel channel;
     protected long deliveryTag = 0;
-    protected final HashMap<Delivery, SendRequest> inProgressOutboundDeliveries = new HashMap<>();
     protected final HashMap<String, SubscriptionData> subscriptionData = new HashMap<>();
+    // topic -> sending link, in least recently used order.  Avoids searching every link
+    // on the connection to find the sender for a topic.
+    protected final LinkedHashMap<String, Sender> senders = new LinkedHashMap<>(16, 0.75f, true);
+    // conflation key -> 'at most once' message waiting to be written to the network, in the order they were sent
+    protected final LinkedHashMap<String, SendRequest> conflatedSends = new LinkedHashMap<>();
+    // topic -> the number of messages in conflatedSends for the topic
+    protected final HashMap<String, Integer> conflatedTopics = new HashMap<>();
+    // The maximum number of sending links to keep open, or 0 for no limit.
+    protected int maxSenderLinks = 0;
+    // The number of sending links opened, which gives each link a unique name.
+    protected long senderLinksOpened = 0;
     protected OpenRequest openRequest = null;
     protected CloseRequest closeRequest = null;
     protected TimerPromiseImpl timerPromise = null;
     protected boolean closed = false;
     protected boolean drained = true;
     protected long bytesWritten = 0;
+    // Send batching settings - batching is disabled when sendBatchMaxMessages is 1.
+    protected int sendBatchMaxMessages = 1;
+    protected int sendBatchMaxBytes = 0;
+    protected long sendBatchLingerMicros = 0;
+    // The number of messages encoded into the transport, but not yet written to the network.
+    protected int batchedMessages = 0;
+    // Set when the connection is waiting for the engine to become idle before writing a batch.
+    protected boolean flushOnIdle = false;
+    protected TimerPromiseImpl lingerPromise = null;
 
     protected static class SubscriptionData {
       
         private static final Logger logger = LoggerFactory.getLogger(SubscriptionData.class);
       
         protected final Component subscriber;
-        protected final int maxLinkCredit;
+        protected final CreditController credit;
         protected final Receiver receiver;
-        protected int unsettled;
-        protected int settled;
-        protected SubscriptionData(Component subscriber, int maxLinkCredit, Receiver receiver) {
+        protected long nextSequence = 0;
+        protected SubscriptionData(Component subscriber, CreditController credit, Receiver receiver) {
             final String methodName = "<init>";
-            logger.entry(this, methodName, subscriber, subscriber, receiver);
+            logger.entry(this, methodName, subscriber, credit, receiver);
             
             this.subscriber = subscriber;
-            this.maxLinkCredit = maxLinkCredit;
+            this.credit = credit;
             this.receiver = receiver;
-            this.unsettled = 0;
-            this.settled = 0;
             
             logger.exit(this, methodName);
         }
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.network.NetworkService;
+import com.ibm.mqlight.api.timer.TimerService;
+
+/**
+ * A fixed set of engines, each processing its requests on its own executor, that can be shared by
+ * any number of clients.  Each client is assigned one engine (in round-robin order) which then
+ * handles every request for that client's connection, so the number of threads used to drive the
+ * connections stays the same as the number of clients grows.
+ */
+public class EnginePool {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnginePool.class);
+
+    private static class EngineThreadFactory implements ThreadFactory {
+        private final ThreadGroup group;
+        private final String name;
+        protected EngineThreadFactory(String name) {
+            SecurityManager sm = System.getSecurityManager();
+            group = sm == null ? Thread.currentThread().getThreadGroup() : sm.getThreadGroup();
+            this.name = name;
+        }
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread result = new Thread(group, runnable, name);
+            result.setDaemon(true);
+            return result;
+        }
+    }
+
+    private static final AtomicInteger engineNumber = new AtomicInteger();
+
+    private final Engine[] engines;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a pool with one engine for each processor available to the JVM.
+     * @see #EnginePool(NetworkService, TimerService, int)
+     */
+    public EnginePool(NetworkService network, TimerService timer) {
+        this(network, timer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool of engines, each running on its own (daemon) thread.
+     * @param network the network service used by the engines to establish connections.
+     * @param timer the timer service used by the engines to schedule idle timeouts.
+     * @param size the number of engines in the pool.
+     */
+    public EnginePool(NetworkService network, TimerService timer, int size) {
+        this(network, timer, newExecutors(size));
+    }
+
+    /**
+     * Creates a pool with one engine for each of the supplied executors.  Each executor must process
+     * the work submitted to it in order, for example a single threaded executor or an event loop.
+     * @param network the network service used by the engines to establish connections.
+     * @param timer the timer service used by the engines to schedule idle timeouts.
+     * @param executors the executors used to run the engines.
+     */
+    public EnginePool(NetworkService network, TimerService timer, Executor[] executors) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, network, timer, executors);
+
+        if (executors == null || executors.length == 0) {
+            final IllegalArgumentException exception = new IllegalArgumentException("At least one executor must be specified");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        engines = new Engine[executors.length];
+        for (int i = 0; i < executors.length; ++i) {
+            if (executors[i] == null) {
+                final IllegalArgumentException exception = new IllegalArgumentException("Executor " + i + " cannot be null");
+                logger.throwing(this, methodName, exception);
+                throw exception;
+            }
+            engines[i] = new Engine(network, timer, executors[i]);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private static Executor[] newExecutors(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Engine pool size must be at least 1, not " + size);
+        }
+        final Executor[] executors = new Executor[size];
+        for (int i = 0; i < size; ++i) {
+            executors[i] = Executors.newSingleThreadExecutor(
+                    new EngineThreadFactory("mqlight-engine-" + engineNumber.getAndIncrement()));
+        }
+        return executors;
+    }
+
+    /**
+     * @return the engine that the next client to be created should use.
+     */
+    public Engine getEngine() {
+        final String methodName = "getEngine";
+        logger.entry(this, methodName);
+
+        final Engine result = engines[(next.getAndIncrement() & Integer.MAX_VALUE) % engines.length];
+
+        logger.exit(this, methodName, result);
+
+        return result;
+    }
+
+    /**
+     * @return the number of engines in the pool.
+     */
+    public int size() {
+        return engines.length;
+    }
+}
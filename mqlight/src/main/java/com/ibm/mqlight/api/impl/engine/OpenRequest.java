@@ -25,9 +25,26 @@ public class OpenRequest extends Message {
 
     public final Endpoint endpoint;
     public final String clientId;
+    public final int maxSenderLinks;
+    public final int sendBatchMaxMessages;
+    public final int sendBatchMaxBytes;
+    public final long sendBatchLingerMicros;
     
     public OpenRequest(Endpoint endpoint, String clientId) {
+        this(endpoint, clientId, 0);
+    }
+
+    public OpenRequest(Endpoint endpoint, String clientId, int maxSenderLinks) {
+        this(endpoint, clientId, maxSenderLinks, 1, 0, 0);
+    }
+
+    public OpenRequest(Endpoint endpoint, String clientId, int maxSenderLinks,
+                       int sendBatchMaxMessages, int sendBatchMaxBytes, long sendBatchLingerMicros) {
         this.endpoint = endpoint;
         this.clientId = clientId;
+        this.maxSenderLinks = maxSenderLinks;
+        this.sendBatchMaxMessages = sendBatchMaxMessages;
+        this.sendBatchMaxBytes = sendBatchMaxBytes;
+        this.sendBatchLingerMicros = sendBatchLingerMicros;
     }
 }
@@ -29,12 +29,21 @@ public class SendRequest extends Message {
     protected final ByteBuf buf;
     protected final int length;
     protected final QOS qos;
+    public final long sequence;
+    protected final String conflationKey;
+    // The value of System.nanoTime() when the engine wrote the message into the transport, or 0 if it has not
+    public long transferNanos = 0;
     public SendRequest(EngineConnection connection, String topic, ByteBuf buf, int length, QOS qos) {
+        this(connection, topic, buf, length, qos, 0, null);
+    }
+    public SendRequest(EngineConnection connection, String topic, ByteBuf buf, int length, QOS qos, long sequence, String conflationKey) {
         this.connection = connection;
         this.topic = topic;
         this.buf = buf;
         this.length = length;
         this.qos = qos;
+        this.sequence = sequence;
+        this.conflationKey = conflationKey;
     }
 
 }
@@ -28,12 +28,21 @@ public class SubscribeRequest extends Message {
     public final QOS qos;
     public final int initialCredit;
     public final int ttl;
+    public final boolean adaptiveCredit;
+    public final long maxBufferedBytes;
     
     public SubscribeRequest(EngineConnection connection, SubscriptionTopic topic, QOS qos, int initialCredit, int ttl) {
+        this(connection, topic, qos, initialCredit, ttl, false, 0);
+    }
+
+    public SubscribeRequest(EngineConnection connection, SubscriptionTopic topic, QOS qos, int initialCredit, int ttl,
+                            boolean adaptiveCredit, long maxBufferedBytes) {
         this.connection = connection;
         this.topic = topic;
         this.qos = qos;
         this.initialCredit = initialCredit;
         this.ttl = ttl;
+        this.adaptiveCredit = adaptiveCredit;
+        this.maxBufferedBytes = maxBufferedBytes;
     }
 }
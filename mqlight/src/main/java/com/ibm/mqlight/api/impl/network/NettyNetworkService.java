@@ -20,15 +20,18 @@ package com.ibm.mqlight.api.impl.network;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -37,6 +40,7 @@ import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.concurrent.GenericFutureListener;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -48,8 +52,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.SSLEngine;
@@ -67,6 +75,7 @@ import com.ibm.mqlight.api.logging.Logger;
 import com.ibm.mqlight.api.logging.LoggerFactory;
 import com.ibm.mqlight.api.network.NetworkChannel;
 import com.ibm.mqlight.api.network.NetworkListener;
+import com.ibm.mqlight.api.network.NetworkOptions;
 import com.ibm.mqlight.api.network.NetworkService;
 
 public class NettyNetworkService implements NetworkService {
@@ -77,22 +86,152 @@ public class NettyNetworkService implements NetworkService {
         LogbackLogging.setup();
     }
 
-    private static Object bootstrapSync = new Object();
-    private static Bootstrap bootstrap;
+    /**
+     * The Netty transports that the network service can use.
+     */
+    public enum Transport {
+        /** The Java NIO transport, which is available on all platforms. */
+        NIO,
+        /** Netty's native epoll transport, which is only available on Linux. */
+        EPOLL,
+        /** The epoll transport where it is available, otherwise the NIO transport. */
+        AUTO
+    }
+
+    private final Transport transport;
+    private final NetworkOptions options;
+    // A bootstrap for the event loop group supplied by the application, or null to use the shared event loop group
+    private final Bootstrap groupBootstrap;
+
+    /**
+     * Creates a network service that uses the NIO transport, and the default network options.
+     */
+    public NettyNetworkService() {
+        this(Transport.NIO, null);
+    }
+
+    /**
+     * Creates a network service that uses the specified transport, and the default network options.
+     *
+     * @param transport the transport to use.
+     * @see #NettyNetworkService(Transport, NetworkOptions)
+     */
+    public NettyNetworkService(Transport transport) {
+        this(transport, null);
+    }
+
+    /**
+     * Creates a network service that uses the NIO transport, and the specified network options.
+     *
+     * @param options the network options, or {@code null} to use the default network options.
+     */
+    public NettyNetworkService(NetworkOptions options) {
+        this(Transport.NIO, options);
+    }
+
+    /**
+     * Creates a network service that uses the specified transport and network options.  If
+     * {@link Transport#EPOLL} is specified, but is not available, the NIO transport is used instead.
+     * <p>
+     * All the network services share the threads used to service the network, so while any connection is
+     * open, new connections continue to use the transport (and number of threads) that was selected when
+     * the threads were started.
+     *
+     * @param transport the transport to use.
+     * @param options the network options, or {@code null} to use the default network options.
+     */
+    public NettyNetworkService(Transport transport, NetworkOptions options) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, transport, options);
+
+        if (transport == null) {
+          final IllegalArgumentException exception = new IllegalArgumentException("Transport cannot be null");
+          logger.throwing(this, methodName, exception);
+          throw exception;
+        }
+        this.transport = transport;
+        this.options = options == null ? NetworkOptions.builder().build() : options;
+        this.groupBootstrap = null;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * Creates a network service that makes its connections using an event loop group supplied by the
+     * application.  The group is not shut down when the connections are closed, so its threads (and
+     * their buffer caches) are reused when the client reconnects, and the group can be shared between
+     * any number of network services.  The application is responsible for shutting the group down,
+     * once it is no longer being used.
+     *
+     * @param group the event loop group, which must be a {@link NioEventLoopGroup} or an
+     *              {@link EpollEventLoopGroup}.
+     * @param options the network options, or {@code null} to use the default network options.  The number
+     *                of event loop threads is determined by the group, rather than the options.
+     */
+    public NettyNetworkService(EventLoopGroup group, NetworkOptions options) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, group, options);
+
+        groupBootstrap = new Bootstrap();
+        if (group instanceof NioEventLoopGroup) {
+            transport = Transport.NIO;
+            groupBootstrap.group(group).channel(NioSocketChannel.class);
+        } else if (group instanceof EpollEventLoopGroup) {
+            transport = Transport.EPOLL;
+            groupBootstrap.group(group).channel(EpollSocketChannel.class);
+        } else {
+            final IllegalArgumentException exception = new IllegalArgumentException("Event loop group must be a NioEventLoopGroup or an EpollEventLoopGroup");
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        this.options = options == null ? NetworkOptions.builder().build() : options;
+
+        logger.exit(this, methodName);
+    }
+
+    /**
+     * @param transport the requested transport.
+     * @return {@link Transport#EPOLL} if the epoll transport was requested (or could be used automatically)
+     *         and is available on this platform, otherwise {@link Transport#NIO}.
+     */
+    static Transport resolveTransport(Transport transport) {
+        final String methodName = "resolveTransport";
+        logger.entry(methodName, transport);
+
+        Transport result = Transport.NIO;
+        if (transport != Transport.NIO) {
+            boolean available;
+            try {
+                available = Epoll.isAvailable();
+            } catch (Throwable t) {     // The native library can fail to load in many ways
+                logger.data(methodName, t);
+                available = false;
+            }
+            if (available) {
+                result = Transport.EPOLL;
+            }
+        }
+
+        logger.exit(methodName, result);
+
+        return result;
+    }
 
     static class NettyInboundHandler extends ChannelInboundHandlerAdapter implements NetworkChannel {
 
         private static final Logger logger = LoggerFactory.getLogger(NettyInboundHandler.class);
 
         private final SocketChannel channel;
+        private final SharedEventLoopGroup shared;    // null if the event loop group was supplied by the application
         private NetworkListener listener = null;
         private final AtomicBoolean closed = new AtomicBoolean(false);
                 
-        protected NettyInboundHandler(SocketChannel channel) {
+        protected NettyInboundHandler(SocketChannel channel, SharedEventLoopGroup shared) {
             final String methodName = "<init>";
-            logger.entry(this, methodName, channel);
+            logger.entry(this, methodName, channel, shared);
 
             this.channel = channel;
+            this.shared = shared;
 
             logger.exit(this, methodName);
         }
@@ -168,16 +307,23 @@ public class NettyNetworkService implements NetworkService {
             logger.entry(this, methodName, ctx);
 
             boolean alreadyClosed = closed.getAndSet(true);
+            discardPendingWrites();
             if (!alreadyClosed) {
                 if (listener != null) {
                     listener.onClose(this);
                 }
-                decrementUseCount();
+                release();
             }
 
             logger.exit(this, methodName);
         }
 
+        private void release() {
+            if (shared != null) {
+                shared.release();
+            }
+        }
+
         protected void setListener(NetworkListener listener) {
             final String methodName = "setListener";
             logger.entry(this, methodName, listener);
@@ -194,17 +340,24 @@ public class NettyNetworkService implements NetworkService {
 
             boolean alreadyClosed = closed.getAndSet(true);
             if (!alreadyClosed) {
+                flushPendingWrites();
                 final ChannelFuture f = channel.disconnect();
+                f.addListener(new GenericFutureListener<ChannelFuture>() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        discardPendingWrites();
+                    }
+                });
                 if (nwfuture != null) {
                     f.addListener(new GenericFutureListener<ChannelFuture>() {
                         @Override
                         public void operationComplete(ChannelFuture future) throws Exception {
                             nwfuture.setSuccess(null);
-                            decrementUseCount();
+                            release();
                         }
                     });
                 } else {
-                    decrementUseCount();
+                    release();
                 }
             } else if (nwfuture != null) {
                 nwfuture.setSuccess(null);
@@ -235,13 +388,61 @@ public class NettyNetworkService implements NetworkService {
 
         LinkedList<WriteRequest> pendingWrites = new LinkedList<>();
         boolean writeInProgress = false;
+        boolean writesDiscarded = false;    // set once the channel is closing, after which writes are failed
+
+        // Passes the writes still waiting for the channel to become writable (for example, the one containing the
+        // AMQP close frame) to the channel, ahead of disconnecting it, so that they are sent if there is room in
+        // the socket's buffer.  Any later writes are failed straight away.
+        private void flushPendingWrites() {
+            final String methodName = "flushPendingWrites";
+            logger.entry(this, methodName);
+
+            final WriteRequest[] toProcess;
+            synchronized(pendingWrites) {
+                writesDiscarded = true;
+                toProcess = pendingWrites.toArray(new WriteRequest[pendingWrites.size()]);
+                pendingWrites.clear();
+                if (toProcess.length > 0) writeInProgress = true;
+            }
+            if (toProcess.length > 0) processWriteRequests(toProcess);
+
+            logger.exit(this, methodName);
+        }
+
+        // Releases the buffers of the writes still waiting for the channel to become writable, and fails their
+        // promises, once the channel has closed.  Any later writes are failed straight away.
+        private void discardPendingWrites() {
+            final String methodName = "discardPendingWrites";
+            logger.entry(this, methodName);
+
+            final WriteRequest[] discarded;
+            synchronized(pendingWrites) {
+                writesDiscarded = true;
+                discarded = pendingWrites.toArray(new WriteRequest[pendingWrites.size()]);
+                pendingWrites.clear();
+            }
+            for (WriteRequest request : discarded) {
+                request.buffer.release();
+                request.promise.setFailure(new NetworkException("The connection was closed before the data was written"));
+            }
+
+            logger.data(this, methodName, "Discarded {} pending write(s)", discarded.length);
+            logger.exit(this, methodName);
+        }
+
+        // Writes a batch of requests to the channel, flushing once at the end so that the data is
+        // sent using as few (gathering) socket writes as possible.  The requests' promises are
+        // completed, in order, once the last of them has been written.
+        private void processWriteRequests(final WriteRequest[] toProcess) {
+            final String methodName = "processWriteRequests";
+            logger.entry(this, methodName, toProcess.length);
 
-        private void processWriteRequest(WriteRequest toProcess) {
-            final String methodName = "processWriteRequest";
-            logger.entry(this, methodName, toProcess);
-            final Promise<Boolean> writeCompletePromise = toProcess.promise;
-            logger.data(this, methodName, "writeAndFlush {}", toProcess);
-            final ChannelFuture f = channel.writeAndFlush(toProcess.buffer);
+            final int last = toProcess.length - 1;
+            for (int i = 0; i < last; ++i) {
+                channel.write(toProcess[i].buffer, channel.voidPromise());
+            }
+            logger.data(this, methodName, "writeAndFlush {} request(s)", toProcess.length);
+            final ChannelFuture f = channel.writeAndFlush(toProcess[last].buffer);
             f.addListener(new GenericFutureListener<ChannelFuture>() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
@@ -251,7 +452,10 @@ public class NettyNetworkService implements NetworkService {
                         havePendingWrites = !pendingWrites.isEmpty();
                     }
                     logger.data(this, methodName, "doWrite (complete)");
-                    writeCompletePromise.setSuccess(!havePendingWrites);
+                    for (int i = 0; i < last; ++i) {
+                        toProcess[i].promise.setSuccess(false);
+                    }
+                    toProcess[last].promise.setSuccess(!havePendingWrites);
                     doWrite();
                 }
             });
@@ -262,15 +466,16 @@ public class NettyNetworkService implements NetworkService {
           final String methodName = "doWrite";
           logger.entry(this, methodName);
 
-          WriteRequest toProcess = null;
+          WriteRequest[] toProcess = null;
           synchronized(pendingWrites) {
               if (!writeInProgress && channel.isWritable() && !pendingWrites.isEmpty()) {
-                  toProcess = pendingWrites.removeFirst();
+                  toProcess = pendingWrites.toArray(new WriteRequest[pendingWrites.size()]);
+                  pendingWrites.clear();
                   writeInProgress = true;
               }
           }
 
-          if (toProcess != null) processWriteRequest(toProcess);
+          if (toProcess != null) processWriteRequests(toProcess);
 
           logger.exit(this, methodName);
         }
@@ -279,25 +484,39 @@ public class NettyNetworkService implements NetworkService {
             final String methodName = "doWrite";
             logger.entry(this, methodName, buffer, promise);
 
-            WriteRequest toProcess = null;
+            // The caller reuses the buffer once we return, and writes can become deferred under load, so
+            // the data must be copied.  Copying into a direct buffer, from the allocator configured for the
+            // channel, means that Netty can write it to the socket without copying it again (and releases
+            // it once written).
+            final ByteBuf copy = channel.alloc().directBuffer(buffer.remaining());
+            copy.writeBytes(buffer);
+            final WriteRequest request = new WriteRequest(copy, promise);
+
+            WriteRequest[] toProcess = null;
+            boolean discard = false;
             synchronized(pendingWrites) {
-                if (!writeInProgress && channel.isWritable()) {
+                if (writesDiscarded) {
+                    discard = true;
+                } else if (!writeInProgress && channel.isWritable()) {
                     if (pendingWrites.isEmpty()) {
-                        // Ideally here we should be able to use Unpooled.wrappedBuffer, to save copying. But network
-                        // writes can become deferred under load, hence we must make a copy of the buffer to protect the
-                        // data (as the caller may need to reuse the buffer when we return)
-                        toProcess = new WriteRequest(Unpooled.copiedBuffer(buffer), promise);
+                        toProcess = new WriteRequest[] { request };
                     } else {
-                        pendingWrites.addLast(new WriteRequest(Unpooled.copiedBuffer(buffer), promise));
-                        toProcess = pendingWrites.removeFirst();
+                        pendingWrites.addLast(request);
+                        toProcess = pendingWrites.toArray(new WriteRequest[pendingWrites.size()]);
+                        pendingWrites.clear();
                     }
                     writeInProgress = true;
                 } else {
-                    pendingWrites.addLast(new WriteRequest(Unpooled.copiedBuffer(buffer), promise));
+                    pendingWrites.addLast(request);
                 }
             }
 
-            if (toProcess != null) processWriteRequest(toProcess);
+            if (discard) {
+                copy.release();
+                promise.setFailure(new NetworkException("The connection was closed before the data was written"));
+            } else if (toProcess != null) {
+                processWriteRequests(toProcess);
+            }
 
             logger.exit(this, methodName);
         }
@@ -322,13 +541,16 @@ public class NettyNetworkService implements NetworkService {
         private final Endpoint endpoint;
         private final Promise<NetworkChannel> promise;
         private final NetworkListener listener;
-        protected ConnectListener(Endpoint endpoint, ChannelFuture cFuture, Promise<NetworkChannel> promise, NetworkListener listener) {
+        private final ConnectInitializer initializer;
+        protected ConnectListener(Endpoint endpoint, ChannelFuture cFuture, Promise<NetworkChannel> promise, NetworkListener listener,
+                                  ConnectInitializer initializer) {
             final String methodName = "<init>";
-            logger.entry(this, methodName, endpoint, cFuture, promise, listener);
+            logger.entry(this, methodName, endpoint, cFuture, promise, listener, initializer);
 
             this.endpoint = endpoint;
             this.promise = promise;
             this.listener = listener;
+            this.initializer = initializer;
 
             logger.exit(this, methodName);
         }
@@ -338,7 +560,7 @@ public class NettyNetworkService implements NetworkService {
             logger.entry(this, methodName, cFuture);
 
            if (cFuture.isSuccess()) {
-                NettyInboundHandler handler = (NettyInboundHandler)cFuture.channel().pipeline().last();
+                final NettyInboundHandler handler = initializer.handler;
                 handler.setListener(listener);
                 promise.setSuccess(handler);
             } else {
@@ -352,7 +574,9 @@ public class NettyNetworkService implements NetworkService {
                 }
                 final ClientException cause = new NetworkException("Could not connect to server: " + message, cFuture.cause());
                 promise.setFailure(cause);
-                decrementUseCount();
+                if (initializer.shared != null) {
+                    initializer.shared.release();
+                }
             }
 
             logger.exit(this, methodName);
@@ -360,21 +584,95 @@ public class NettyNetworkService implements NetworkService {
 
     }
     /** Pattern of protocols to disable */
-    final Pattern disabledProtocolPattern = Pattern.compile("(SSLv2|SSLv3).*");
+    static final Pattern disabledProtocolPattern = Pattern.compile("(SSLv2|SSLv3).*");
 
     /** Pattern of cipher suites to disable */
-    final Pattern disabledCipherPattern = Pattern.compile(".*_(NULL|EXPORT|DES|RC4|MD5|PSK|SRP|CAMELLIA)_.*");
+    static final Pattern disabledCipherPattern = Pattern.compile(".*_(NULL|EXPORT|DES|RC4|MD5|PSK|SRP|CAMELLIA)_.*");
 
-    @Override
-    public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
-        final String methodName = "connect";
-        logger.entry(this, methodName, endpoint, listener, promise);
+    /**
+     * An SSL context, together with the protocols and cipher suites to enable for the engines that it creates.
+     * The context (and so its client session cache) is shared by every connection that uses the same certificate
+     * file, which allows reconnects to resume an earlier TLS session rather than doing a full handshake.
+     */
+    static class CachedSslContext {
+        private final SslContext sslCtx;
+        private final long lastModified;
+        private final long length;
+        private volatile String[] enabledProtocols = null;
+        private volatile String[] enabledCipherSuites = null;
+
+        CachedSslContext(SslContext sslCtx, long lastModified, long length) {
+            this.sslCtx = sslCtx;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
 
-        SslContext sslCtx = null;
-        try {
-            if (endpoint.getCertChainFile() != null && endpoint.getCertChainFile().exists()) {
-                try (FileInputStream fileInputStream =
-                        new FileInputStream(endpoint.getCertChainFile())) {
+        /**
+         * @return an engine for a client connection to the specified host and port, with the protocols and
+         *         cipher suites matching the disabled patterns removed.
+         */
+        SSLEngine newEngine(String host, int port) {
+            final String methodName = "newEngine";
+            logger.entry(this, methodName, host, port);
+
+            final SSLEngine sslEngine = sslCtx.newEngine(null, host, port);
+            sslEngine.setUseClientMode(true);
+
+            // The supported protocols and cipher suites are the same for every engine the context creates
+            if (enabledProtocols == null) {
+                final LinkedList<String> protocols = new LinkedList<String>();
+                for (String protocol : sslEngine.getSupportedProtocols()) {
+                    if (!disabledProtocolPattern.matcher(protocol).matches()) {
+                        protocols.add(protocol);
+                    }
+                }
+                final LinkedList<String> cipherSuites = new LinkedList<String>();
+                for (String cipher : sslEngine.getSupportedCipherSuites()) {
+                    if (!disabledCipherPattern.matcher(cipher).matches()) {
+                        cipherSuites.add(cipher);
+                    }
+                }
+                enabledCipherSuites = cipherSuites.toArray(new String[0]);
+                enabledProtocols = protocols.toArray(new String[0]);
+            }
+            sslEngine.setEnabledProtocols(enabledProtocols);
+            sslEngine.setEnabledCipherSuites(enabledCipherSuites);
+
+            logger.exit(this, methodName, sslEngine);
+
+            return sslEngine;
+        }
+    }
+
+    /** SSL contexts, keyed by the certificate file (or null for the default) and whether the host name is verified */
+    private static final ConcurrentHashMap<List<Object>, CachedSslContext> sslContexts = new ConcurrentHashMap<>();
+
+    /**
+     * Obtains the SSL context for a certificate file, creating it if it has not been created before or if the
+     * file has changed since it was.  The certificate file is either a JKS key store or a PEM file.
+     *
+     * @param certChainFile
+     *            the certificate file, or null to use the default trust store
+     * @param verifyName
+     *            whether connections using the context verify the host name of the server.  Contexts are not
+     *            shared between connections that do and do not verify the host name, so that a session established
+     *            without host name verification is never resumed by a connection that requires it.
+     * @return the (possibly shared) SSL context
+     * @throws SSLException if the SSL context cannot be created
+     */
+    static CachedSslContext getSslContext(File certChainFile, boolean verifyName) throws SSLException {
+        final String methodName = "getSslContext";
+        logger.entry(methodName, certChainFile, verifyName);
+
+        final List<Object> key = Arrays.<Object>asList(certChainFile == null ? null : certChainFile.getAbsoluteFile(), verifyName);
+        final long lastModified = certChainFile == null ? 0 : certChainFile.lastModified();
+        final long length = certChainFile == null ? 0 : certChainFile.length();
+
+        CachedSslContext result = sslContexts.get(key);
+        if (result == null || result.lastModified != lastModified || result.length != length) {
+            SslContext sslCtx = null;
+            if (certChainFile != null && certChainFile.exists()) {
+                try (FileInputStream fileInputStream = new FileInputStream(certChainFile)) {
                     KeyStore jks = KeyStore.getInstance("JKS");
                     jks.load(fileInputStream, null);
                     TrustManagerFactory trustManagerFactory = TrustManagerFactory
@@ -386,82 +684,54 @@ public class NettyNetworkService implements NetworkService {
                                 trustManagerFactory.getTrustManagers(), null);
                     }
                 } catch (IOException | NoSuchAlgorithmException | CertificateException | KeyStoreException | KeyManagementException e) {
-                    logger.data(this, methodName, e.toString());
+                    logger.data(methodName, e);
+                    sslCtx = null;
                 }
             }
             // fallback to passing as .PEM file (or null, which loads default cacerts)
             if (sslCtx == null) {
-                sslCtx = SslContext.newClientContext(endpoint.getCertChainFile());
+                sslCtx = SslContext.newClientContext(certChainFile);
             }
 
-            final SSLEngine sslEngine = sslCtx.newEngine(null, endpoint.getHost(), endpoint.getPort());
-            sslEngine.setUseClientMode(true);
+            // If another connection created a context at the same time then both work - the last one is kept
+            result = new CachedSslContext(sslCtx, lastModified, length);
+            sslContexts.put(key, result);
+        }
 
-            final LinkedList<String> enabledProtocols = new LinkedList<String>() {
-              private static final long serialVersionUID = 7838479468739671083L;
-              {
-                for (String protocol : sslEngine.getSupportedProtocols()) {
-                  if (!disabledProtocolPattern.matcher(protocol).matches()) {
-                    add(protocol);
-                  }
-                }
-              }
-            };
-            sslEngine.setEnabledProtocols(enabledProtocols.toArray(new String[0]));
-            logger.data(this, methodName, "enabledProtocols", Arrays.toString(sslEngine.getEnabledProtocols()));
+        logger.exit(methodName, result);
 
-            final LinkedList<String> enabledCipherSuites = new LinkedList<String>() {
-              private static final long serialVersionUID = 7838479468739671083L;
-              {
-                for (String cipher : sslEngine.getSupportedCipherSuites()) {
-                  if (!disabledCipherPattern.matcher(cipher).matches()) {
-                    add(cipher);
-                  }
-                }
-              }
-            };
-            sslEngine.setEnabledCipherSuites(enabledCipherSuites.toArray(new String[0]));
-            logger.data(this, methodName, "enabledCipherSuites", Arrays.toString(sslEngine.getEnabledCipherSuites()));
-            
-            if (endpoint.getVerifyName()) {
-                SSLParameters sslParams = sslEngine.getSSLParameters();
-                sslParams.setEndpointIdentificationAlgorithm("HTTPS");
-                sslEngine.setSSLParameters(sslParams);
-            }
+        return result;
+    }
 
-            // The listener must be added to the ChannelFuture before the bootstrap channel initialisation completes (i.e.
-            // before the NettyInboundHandler is added to the channel pipeline) otherwise the listener may not be able to 
-            // see the NettyInboundHandler, when its operationComplete() method is called (there is a small window where
-            // the socket connection fails just after initChannel has complete but before ConnectListener is added, with
-            // the ConnectListener.operationComplete() being called as though the connection was successful)
-            // Hence we synchronise here and within the ChannelInitializer.initChannel() method.
-            synchronized (bootstrapSync) {
-                final ChannelHandler handler;
-                if (endpoint.useSsl()) {
-                    handler = new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            synchronized (bootstrapSync) {
-                                ch.pipeline().addFirst(new SslHandler(sslEngine));
-                                ch.pipeline().addLast(new NettyInboundHandler(ch));
-                            }
-                        }
-                    };
-                } else {
-                    handler = new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            synchronized (bootstrapSync) {
-                                ch.pipeline().addLast(new NettyInboundHandler(ch));
-                            }
-                       }
-                    };
+    @Override
+    public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
+        final String methodName = "connect";
+        logger.entry(this, methodName, endpoint, listener, promise);
+
+        try {
+            SSLEngine sslEngine = null;
+            if (endpoint.useSsl()) {
+                sslEngine = getSslContext(endpoint.getCertChainFile(), endpoint.getVerifyName())
+                        .newEngine(endpoint.getHost(), endpoint.getPort());
+                logger.data(this, methodName, "enabledProtocols", Arrays.toString(sslEngine.getEnabledProtocols()));
+                logger.data(this, methodName, "enabledCipherSuites", Arrays.toString(sslEngine.getEnabledCipherSuites()));
+
+                if (endpoint.getVerifyName()) {
+                    SSLParameters sslParams = sslEngine.getSSLParameters();
+                    sslParams.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslEngine.setSSLParameters(sslParams);
                 }
-                final Bootstrap bootstrap = getBootstrap(endpoint.useSsl(), sslEngine, handler);
-                final ChannelFuture f = bootstrap.connect(endpoint.getHost(), endpoint.getPort());
-                f.addListener(new ConnectListener(endpoint, f, promise, listener));
             }
 
+            final SharedEventLoopGroup shared =
+                    groupBootstrap == null ? SharedEventLoopGroup.acquire(transport, options.getEventLoopThreads()) : null;
+            final Bootstrap bootstrap = shared == null ? groupBootstrap.clone() : shared.bootstrap.clone();
+            final ConnectInitializer initializer = new ConnectInitializer(sslEngine, shared);
+            bootstrap.handler(initializer);
+            configure(bootstrap);
+            final ChannelFuture f = bootstrap.connect(endpoint.getHost(), endpoint.getPort());
+            f.addListener(new ConnectListener(endpoint, f, promise, listener, initializer));
+
         } catch (SSLException e) {
             if (e.getCause() == null) {
                 promise.setFailure(new SecurityException(e.getMessage(), e));
@@ -473,72 +743,167 @@ public class NettyNetworkService implements NetworkService {
         logger.exit(this, methodName);
     }
 
-    private static int useCount = 0;
-
     /**
-     * Request a {@link Bootstrap} for obtaining a {@link Channel} and track
-     * that the workerGroup is being used.
-     *
-     * @param secure
-     *            a {@code boolean} indicating whether or not a secure channel
-     *            will be required
-     * @param sslEngine
-     *            an {@link SSLEngine} if one should be used to secure the channel
-     * @param handler a {@link ChannelHandler} to use for serving the requests.
-     * @return a netty {@link Bootstrap} object suitable for obtaining a
-     *         {@link Channel} from
+     * Initialises the pipeline of the channel for a connection, and holds onto the handler that it adds,
+     * for the {@link ConnectListener} of the connection.  Both run on the channel's event loop, and the
+     * channel is initialised before the outcome of the connection attempt is known - so, unlike looking
+     * the handler up in the channel's pipeline, this works even if the channel has since been closed.
      */
-    private static synchronized Bootstrap getBootstrap(final boolean secure,
-            final SSLEngine sslEngine, final ChannelHandler handler) {
-        final String methodName = "getBootstrap";
-        logger.entry(methodName, secure, sslEngine);
-
-        ++useCount;
-        if (useCount == 1) {
-            EventLoopGroup workerGroup = new NioEventLoopGroup();
-            bootstrap = new Bootstrap();
-            bootstrap.group(workerGroup);
-            bootstrap.channel(NioSocketChannel.class);
-            bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-            bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000);
-            bootstrap.handler(handler);
-        }
-
-        final Bootstrap result;
-        if (secure) {
-          result = bootstrap.clone();
-          result.handler(handler);
-        } else {
-          result = bootstrap;
+    static class ConnectInitializer extends ChannelInitializer<SocketChannel> {
+        private final SSLEngine sslEngine;
+        private final SharedEventLoopGroup shared;
+        private volatile NettyInboundHandler handler = null;
+
+        ConnectInitializer(SSLEngine sslEngine, SharedEventLoopGroup shared) {
+            this.sslEngine = sslEngine;
+            this.shared = shared;
         }
 
-        logger.exit(methodName, result);
-
-        return result;
+        @Override
+        public void initChannel(SocketChannel ch) throws Exception {
+            if (sslEngine != null) {
+                ch.pipeline().addFirst(new SslHandler(sslEngine));
+            }
+            handler = new NettyInboundHandler(ch, shared);
+            ch.pipeline().addLast(handler);
+        }
     }
 
     /**
-     * Decrement the use count of the workerGroup and request a graceful
-     * shutdown once it is no longer being used by anyone.
+     * The event loop group shared by the network services that were not supplied with a group by the
+     * application.  Each connection (or connection attempt) holds a reference to the group, which is shut
+     * down when the last reference is released - the next connection then starts a new group.
      */
-    private static synchronized void decrementUseCount() {
-        final String methodName = "decrementUseCount";
-        logger.entry(methodName);
+    static class SharedEventLoopGroup {
+
+        private static final Logger logger = LoggerFactory.getLogger(SharedEventLoopGroup.class);
+
+        private static final AtomicReference<SharedEventLoopGroup> current = new AtomicReference<>();
+        // The most recently started group, which awaitTermination() waits for
+        private static volatile EventLoopGroup last = null;
+
+        private final Bootstrap bootstrap = new Bootstrap();
+        private final AtomicInteger useCount = new AtomicInteger(1);
+
+        private SharedEventLoopGroup(Transport transport, int eventLoopThreads) {
+            if (resolveTransport(transport) == Transport.EPOLL) {
+                bootstrap.group(new EpollEventLoopGroup(eventLoopThreads));
+                bootstrap.channel(EpollSocketChannel.class);
+            } else {
+                bootstrap.group(new NioEventLoopGroup(eventLoopThreads));
+                bootstrap.channel(NioSocketChannel.class);
+            }
+        }
+
+        /**
+         * Obtains a reference to the shared event loop group, starting a new group if there is none.
+         *
+         * @param transport
+         *            the transport to use, if a new group is started
+         * @param eventLoopThreads
+         *            the number of threads in the group, if a new group is started,
+         *            or 0 for the Netty default
+         * @return the shared group, which must be released once the connection no longer needs it.
+         */
+        static SharedEventLoopGroup acquire(Transport transport, int eventLoopThreads) {
+            final String methodName = "acquire";
+            logger.entry(methodName, transport, eventLoopThreads);
+
+            SharedEventLoopGroup result = null;
+            while (result == null) {
+                final SharedEventLoopGroup shared = current.get();
+                if (shared != null && shared.retain()) {
+                    result = shared;
+                } else {
+                    final SharedEventLoopGroup created = new SharedEventLoopGroup(transport, eventLoopThreads);
+                    if (current.compareAndSet(shared, created)) {
+                        last = created.bootstrap.group();
+                        result = created;
+                    } else {
+                        // Another connection started a group at the same time - use that one instead
+                        created.bootstrap.group().shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+
+            logger.exit(methodName, result);
+
+            return result;
+        }
 
-        --useCount;
-        if (useCount <= 0) {
-            if (bootstrap != null) {
-              bootstrap.group().shutdownGracefully(0, 500, TimeUnit.MILLISECONDS);
+        // Adds a reference, unless every connection that used the group has already released it
+        private boolean retain() {
+            int count;
+            do {
+                count = useCount.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!useCount.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Releases a reference to the group, and requests a graceful shutdown once it is no longer
+         * being used by anyone.
+         */
+        void release() {
+            final String methodName = "release";
+            logger.entry(this, methodName);
+
+            if (useCount.decrementAndGet() == 0) {
+                current.compareAndSet(this, null);
+                bootstrap.group().shutdownGracefully(0, 500, TimeUnit.MILLISECONDS);
             }
-            bootstrap = null;
-            useCount = 0;
+
+            logger.exit(this, methodName);
         }
 
-        logger.exit(methodName);
+        static EventLoopGroup last() {
+            return last;
+        }
+    }
+
+    /**
+     * Sets the channel options, for a connection, from the network options of this network service.
+     *
+     * @param bootstrap the {@link Bootstrap} that will be used to make the connection.
+     */
+    private void configure(Bootstrap bootstrap) {
+        final String methodName = "configure";
+        logger.entry(this, methodName, bootstrap);
+
+        bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+        bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, options.getConnectTimeoutMillis());
+        bootstrap.option(ChannelOption.TCP_NODELAY, options.getTcpNoDelay());
+        if (options.getSendBufferSize() > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, options.getSendBufferSize());
+        }
+        if (options.getReceiveBufferSize() > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, options.getReceiveBufferSize());
+        }
+        // Netty rejects a high water mark below the current low water mark (and vice versa) so the
+        // options must be applied in an order that keeps them consistent with the channel's defaults
+        final int high = options.getWriteBufferHighWaterMark();
+        final int low = options.getWriteBufferLowWaterMark();
+        if (high >= 64 * 1024) {
+            bootstrap.option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+            bootstrap.option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+        } else {
+            bootstrap.option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+            bootstrap.option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+        }
+        bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(
+                options.getReceiveAllocatorMinimum(), options.getReceiveAllocatorInitial(), options.getReceiveAllocatorMaximum()));
+        bootstrap.option(ChannelOption.ALLOCATOR,
+                options.getPooledAllocator() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT);
+
+        logger.exit(this, methodName);
     }
 
     /**
-     * Waits for the underlying network service to terminate.
+     * Waits for the underlying network service to terminate.  If the network service was created with an
+     * event loop group supplied by the application, this waits for the application to shut the group down.
      *
      * @param timeout Maximum time to wait in seconds.
      * @return {@code true} if the underlying network service has terminated, {@code false} if the underlying network
@@ -550,8 +915,10 @@ public class NettyNetworkService implements NetworkService {
         logger.entry(methodName);
 
         final boolean terminated;
-        if (bootstrap != null) {
-            terminated = bootstrap.group().awaitTermination(timeout, TimeUnit.SECONDS);
+        if (groupBootstrap != null) {
+            terminated = groupBootstrap.group().awaitTermination(timeout, TimeUnit.SECONDS);
+        } else if (SharedEventLoopGroup.last() != null) {
+            terminated = SharedEventLoopGroup.last().awaitTermination(timeout, TimeUnit.SECONDS);
         } else {
             terminated = true;
         }
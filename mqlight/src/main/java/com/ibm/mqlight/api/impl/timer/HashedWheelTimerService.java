@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.timer;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+import com.ibm.mqlight.api.timer.TimerService;
+
+/**
+ * A {@link TimerService} based on a hashed timing wheel, suited to scheduling timers for a large
+ * number of connections.  Scheduling and cancelling a timer are constant time operations, which
+ * only queue the request - a single thread advances the wheel every tick and completes all of the
+ * timers that have expired during that tick.  Timers are accurate to within one tick.
+ * <p>
+ * The thread is started when a timer is scheduled, and ends once there are no timers outstanding.
+ */
+public class HashedWheelTimerService implements TimerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimerService.class);
+
+    private static final long DEFAULT_TICK_MILLIS = 10;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    /** A scheduled timer.  Only the wheel's thread links and unlinks these from the buckets. */
+    static class Timeout {
+        private static final int SCHEDULED = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Promise<Void> promise;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(SCHEDULED);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Promise<Void> promise, long deadline) {
+            this.promise = promise;
+            this.deadline = deadline;
+        }
+    }
+
+    /** A doubly linked list of the timers that expire in a particular slot of the wheel. */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (next != null) next.prev = timeout.prev;
+            if (timeout == head) head = next;
+            if (timeout == tail) tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickMillis;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    // Only used for promises that are not TimerPromiseImpl instances (which hold their own timeout)
+    private final ConcurrentHashMap<Promise<Void>, Timeout> otherPromises = new ConcurrentHashMap<>();
+    // The number of timers that have been scheduled and have not yet expired or been cancelled
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private boolean running = false;   // Guarded by 'this'
+    private long tick;                 // Only accessed by the wheel's thread
+
+    /**
+     * Creates a timer service with a tick of 10 milliseconds and 512 slots in its wheel.
+     */
+    public HashedWheelTimerService() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis the interval, in milliseconds, at which the wheel is advanced.
+     * @param wheelSize the number of slots in the wheel, rounded up to a power of two.
+     */
+    public HashedWheelTimerService(long tickMillis, int wheelSize) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, tickMillis, wheelSize);
+
+        if (tickMillis < 1) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Tick must be at least 1ms, not " + tickMillis);
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        if (wheelSize < 1 || wheelSize > (1 << 30)) {
+            final IllegalArgumentException exception = new IllegalArgumentException("Wheel size must be between 1 and 2^30, not " + wheelSize);
+            logger.throwing(this, methodName, exception);
+            throw exception;
+        }
+        this.tickMillis = tickMillis;
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i) wheel[i] = new Bucket();
+        mask = size - 1;
+
+        logger.exit(this, methodName);
+    }
+
+    private long currentMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    @Override
+    public void schedule(long delay, Promise<Void> promise) {
+        final String methodName = "schedule";
+        logger.entry(this, methodName, delay, promise);
+
+        final Timeout timeout = new Timeout(promise, currentMillis() + Math.max(delay, 0));
+        if (promise instanceof TimerPromiseImpl) {
+            ((TimerPromiseImpl)promise).wheelTimeout = timeout;
+        } else {
+            otherPromises.put(promise, timeout);
+        }
+        outstanding.incrementAndGet();
+        scheduled.offer(timeout);
+
+        synchronized(this) {
+            if (!running) {
+                running = true;
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWheel();
+                    }
+                }, "mqlight-timer-wheel-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    @Override
+    public void cancel(Promise<Void> promise) {
+        final String methodName = "cancel";
+        logger.entry(this, methodName, promise);
+
+        final Timeout timeout = promise instanceof TimerPromiseImpl
+                ? ((TimerPromiseImpl)promise).wheelTimeout : otherPromises.get(promise);
+        if (timeout != null && timeout.state.compareAndSet(Timeout.SCHEDULED, Timeout.CANCELLED)) {
+            if (!(promise instanceof TimerPromiseImpl)) otherPromises.remove(promise);
+            outstanding.decrementAndGet();
+            cancelled.offer(timeout);
+            promise.setFailure(null);
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private void runWheel() {
+        final String methodName = "runWheel";
+        logger.entry(this, methodName);
+
+        // Any timers left on the wheel by a previous thread have been cancelled, so the wheel can
+        // start from the current time rather than catching up on the ticks that were missed.
+        tick = currentMillis() / tickMillis;
+        final ArrayList<Timeout> expired = new ArrayList<>();
+        while (true) {
+            final long tickEnd = (tick + 1) * tickMillis;
+            long now = currentMillis();
+            while (now < tickEnd) {
+                try {
+                    Thread.sleep(tickEnd - now);
+                } catch (InterruptedException e) {
+                    // Ignore - the loop works out how much longer to sleep for
+                }
+                now = currentMillis();
+            }
+
+            removeCancelled();
+            addScheduled();
+            expire(wheel[(int)(tick & mask)], expired);
+            ++tick;
+
+            for (int i = 0; i < expired.size(); ++i) {
+                final Timeout timeout = expired.get(i);
+                if (!(timeout.promise instanceof TimerPromiseImpl)) otherPromises.remove(timeout.promise);
+                try {
+                    timeout.promise.setSuccess(null);
+                } catch (RuntimeException e) {
+                    logger.data(this, methodName, "Exception completing timer promise: {}", e);
+                }
+            }
+            expired.clear();
+
+            if (outstanding.get() == 0) {
+                synchronized(this) {
+                    if (outstanding.get() == 0) {
+                        running = false;
+                        break;
+                    }
+                }
+            }
+        }
+
+        logger.exit(this, methodName);
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void addScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state.get() == Timeout.CANCELLED) continue;
+            final long expiryTick = timeout.deadline / tickMillis;
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            wheel[(int)(Math.max(expiryTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket, ArrayList<Timeout> expired) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds <= 0) {
+                final Timeout next = bucket.remove(timeout);
+                if (timeout.state.compareAndSet(Timeout.SCHEDULED, Timeout.EXPIRED)) {
+                    outstanding.decrementAndGet();
+                    expired.add(timeout);
+                }
+                timeout = next;
+            } else {
+                --timeout.remainingRounds;
+                timeout = timeout.next;
+            }
+        }
+    }
+}
@@ -32,6 +32,8 @@ public class TimerPromiseImpl implements Promise<Void> {
     private final Component component;
     private final Object context;
     private final AtomicBoolean complete = new AtomicBoolean(false);
+    // Set when scheduled with a HashedWheelTimerService, so that it can be cancelled without a lookup
+    volatile HashedWheelTimerService.Timeout wheelTimeout;
 
     public TimerPromiseImpl(Component component, Object context) {
         final String methodName = "<init>";
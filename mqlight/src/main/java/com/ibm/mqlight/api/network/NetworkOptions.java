@@ -0,0 +1,351 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.network;
+
+import com.ibm.mqlight.api.logging.Logger;
+import com.ibm.mqlight.api.logging.LoggerFactory;
+
+/**
+ * A set of options that tune the network connections made by the default {@link NetworkService}
+ * implementation.  The options can be passed to the network service when it is created, or set using
+ * {@link com.ibm.mqlight.api.ClientOptions.ClientOptionsBuilder#setNetworkOptions(NetworkOptions)}.
+ * For example:
+ * <pre>
+ * NetworkOptions networkOpts = NetworkOptions.builder().setTcpNoDelay(true).setSocketBufferSizes(1024 * 1024, 1024 * 1024).build();
+ * ClientOptions opts = ClientOptions.builder().setNetworkOptions(networkOpts).build();
+ * </pre>
+ */
+public class NetworkOptions {
+
+    private static final Logger logger = LoggerFactory.getLogger(NetworkOptions.class);
+
+    private final boolean tcpNoDelay;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int writeBufferHighWaterMark;
+    private final int writeBufferLowWaterMark;
+    private final int receiveAllocatorMinimum;
+    private final int receiveAllocatorInitial;
+    private final int receiveAllocatorMaximum;
+    private final boolean pooledAllocator;
+    private final int eventLoopThreads;
+    private final int connectTimeoutMillis;
+
+    private NetworkOptions(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize,
+                           int writeBufferHighWaterMark, int writeBufferLowWaterMark,
+                           int receiveAllocatorMinimum, int receiveAllocatorInitial, int receiveAllocatorMaximum,
+                           boolean pooledAllocator, int eventLoopThreads, int connectTimeoutMillis) {
+        final String methodName = "<init>";
+        logger.entry(this, methodName, tcpNoDelay, sendBufferSize, receiveBufferSize, writeBufferHighWaterMark, writeBufferLowWaterMark,
+                     receiveAllocatorMinimum, receiveAllocatorInitial, receiveAllocatorMaximum, pooledAllocator, eventLoopThreads,
+                     connectTimeoutMillis);
+
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        this.receiveAllocatorMinimum = receiveAllocatorMinimum;
+        this.receiveAllocatorInitial = receiveAllocatorInitial;
+        this.receiveAllocatorMaximum = receiveAllocatorMaximum;
+        this.pooledAllocator = pooledAllocator;
+        this.eventLoopThreads = eventLoopThreads;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+
+        logger.exit(this, methodName);
+    }
+
+    public boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int getReceiveAllocatorMinimum() {
+        return receiveAllocatorMinimum;
+    }
+
+    public int getReceiveAllocatorInitial() {
+        return receiveAllocatorInitial;
+    }
+
+    public int getReceiveAllocatorMaximum() {
+        return receiveAllocatorMaximum;
+    }
+
+    public boolean getPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(super.toString());
+        sb.append(" [tcpNoDelay=")
+          .append(tcpNoDelay)
+          .append(", sendBufferSize=")
+          .append(sendBufferSize)
+          .append(", receiveBufferSize=")
+          .append(receiveBufferSize)
+          .append(", writeBufferHighWaterMark=")
+          .append(writeBufferHighWaterMark)
+          .append(", writeBufferLowWaterMark=")
+          .append(writeBufferLowWaterMark)
+          .append(", receiveAllocatorMinimum=")
+          .append(receiveAllocatorMinimum)
+          .append(", receiveAllocatorInitial=")
+          .append(receiveAllocatorInitial)
+          .append(", receiveAllocatorMaximum=")
+          .append(receiveAllocatorMaximum)
+          .append(", pooledAllocator=")
+          .append(pooledAllocator)
+          .append(", eventLoopThreads=")
+          .append(eventLoopThreads)
+          .append(", connectTimeoutMillis=")
+          .append(connectTimeoutMillis)
+          .append("]");
+        return sb.toString();
+    }
+
+    /**
+     * @return a new instance of the <code>NetworkOptionsBuilder<code> object.  This can be used to
+     * build (immutable) <code>NetworkOptions</code> objects.
+     */
+    public static NetworkOptionsBuilder builder() {
+        return new NetworkOptionsBuilder();
+    }
+
+    /**
+     * A builder for <code>NetworkOptions</code> objects.
+     */
+    public static class NetworkOptionsBuilder {
+
+        private boolean tcpNoDelay = false;
+        private int sendBufferSize = 0;
+        private int receiveBufferSize = 0;
+        private int writeBufferHighWaterMark = 64 * 1024;
+        private int writeBufferLowWaterMark = 32 * 1024;
+        private int receiveAllocatorMinimum = 64;
+        private int receiveAllocatorInitial = 1024;
+        private int receiveAllocatorMaximum = 64 * 1024;
+        private boolean pooledAllocator = false;
+        private int eventLoopThreads = 0;
+        private int connectTimeoutMillis = 30000;
+
+        private NetworkOptionsBuilder() {}
+
+        /**
+         * Determines whether Nagle's algorithm is disabled for network connections.  Disabling it reduces
+         * the latency of small messages (for example in request/reply flows) at the cost of sending more,
+         * smaller, packets.
+         * @param tcpNoDelay <code>true</code> to disable Nagle's algorithm.  The default is <code>false</code>.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         */
+        public NetworkOptionsBuilder setTcpNoDelay(boolean tcpNoDelay) {
+            final String methodName = "setTcpNoDelay";
+            logger.entry(this, methodName, tcpNoDelay);
+
+            this.tcpNoDelay = tcpNoDelay;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the sizes of the socket send and receive buffers (<code>SO_SNDBUF</code> and <code>SO_RCVBUF</code>)
+         * for network connections.  Larger buffers improve the throughput of connections with a high latency.
+         * @param sendBufferSize the size of the send buffer in bytes, or 0 (the default) to use the operating
+         *                       system's default.
+         * @param receiveBufferSize the size of the receive buffer in bytes, or 0 (the default) to use the operating
+         *                          system's default.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public NetworkOptionsBuilder setSocketBufferSizes(int sendBufferSize, int receiveBufferSize) throws IllegalArgumentException {
+            final String methodName = "setSocketBufferSizes";
+            logger.entry(this, methodName, sendBufferSize, receiveBufferSize);
+
+            if (sendBufferSize < 0 || receiveBufferSize < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Socket buffer sizes (" + sendBufferSize + ", "
+                      + receiveBufferSize + ") are invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.sendBufferSize = sendBufferSize;
+            this.receiveBufferSize = receiveBufferSize;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the amount of data that can be waiting to be written to a network connection before the
+         * connection stops accepting more data, and the amount that it must fall below before it accepts
+         * data again.
+         * @param high the high water mark in bytes.  The default is 65536.
+         * @param low the low water mark in bytes.  The default is 32768.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if <code>high</code> is not positive, <code>low</code> is negative,
+         *                                  or <code>low</code> is greater than <code>high</code>.
+         */
+        public NetworkOptionsBuilder setWriteBufferWaterMarks(int high, int low) throws IllegalArgumentException {
+            final String methodName = "setWriteBufferWaterMarks";
+            logger.entry(this, methodName, high, low);
+
+            if (high <= 0 || low < 0 || low > high) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Write buffer water marks (high " + high + ", low "
+                      + low + ") are invalid, must be 0 <= low <= high and high > 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.writeBufferHighWaterMark = high;
+            this.writeBufferLowWaterMark = low;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the sizes of the buffers that data is read from network connections into.  The size of the
+         * buffer adapts, between the minimum and maximum, to the amount of data that was available to read.
+         * @param minimum the minimum buffer size in bytes.  The default is 64.
+         * @param initial the buffer size to start with, in bytes.  The default is 1024.
+         * @param maximum the maximum buffer size in bytes.  The default is 65536.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if the sizes are not positive, or are not in order.
+         */
+        public NetworkOptionsBuilder setReceiveBufferAllocator(int minimum, int initial, int maximum) throws IllegalArgumentException {
+            final String methodName = "setReceiveBufferAllocator";
+            logger.entry(this, methodName, minimum, initial, maximum);
+
+            if (minimum <= 0 || initial < minimum || maximum < initial) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Receive buffer sizes (minimum " + minimum + ", initial "
+                      + initial + ", maximum " + maximum + ") are invalid, must be 0 < minimum <= initial <= maximum");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.receiveAllocatorMinimum = minimum;
+            this.receiveAllocatorInitial = initial;
+            this.receiveAllocatorMaximum = maximum;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Determines whether the buffers used to read from, and write to, network connections are taken
+         * from a pool.  Pooling reduces the cost of allocating buffers, and of garbage collection, at the
+         * cost of holding onto the memory in the pool.
+         * @param pooledAllocator <code>true</code> to use pooled buffers.  The default is <code>false</code>.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         */
+        public NetworkOptionsBuilder setPooledAllocator(boolean pooledAllocator) {
+            final String methodName = "setPooledAllocator";
+            logger.entry(this, methodName, pooledAllocator);
+
+            this.pooledAllocator = pooledAllocator;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used to service network connections.  The threads are shared by all
+         * the connections, and are started when the first connection is made - so the value that applies
+         * is the one set for that connection.
+         * @param eventLoopThreads the number of threads, or 0 (the default) for twice the number of processors.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a negative value is specified.
+         */
+        public NetworkOptionsBuilder setEventLoopThreads(int eventLoopThreads) throws IllegalArgumentException {
+            final String methodName = "setEventLoopThreads";
+            logger.entry(this, methodName, eventLoopThreads);
+
+            if (eventLoopThreads < 0) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Event loop threads value '" + eventLoopThreads + "' is invalid, must be >= 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.eventLoopThreads = eventLoopThreads;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for a network connection to be established.
+         * @param connectTimeoutMillis the time to wait, in milliseconds.  The default is 30000.
+         * @return the same instance of <code>NetworkOptionsBuilder</code> that this method was invoked on.
+         * @throws IllegalArgumentException if a value less than 1 is specified.
+         */
+        public NetworkOptionsBuilder setConnectTimeout(int connectTimeoutMillis) throws IllegalArgumentException {
+            final String methodName = "setConnectTimeout";
+            logger.entry(this, methodName, connectTimeoutMillis);
+
+            if (connectTimeoutMillis < 1) {
+              final IllegalArgumentException exception = new IllegalArgumentException("Connect timeout value '" + connectTimeoutMillis + "' is invalid, must be > 0");
+              logger.throwing(this, methodName, exception);
+              throw exception;
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+
+            logger.exit(this, methodName, this);
+
+            return this;
+        }
+
+        /**
+         * @return an instance of the <code>NetworkOptions</code> object, built using the various
+         *         settings of this <code>NetworkOptionsBuilder</code> class at the point this method
+         *         is invoked.
+         */
+        public NetworkOptions build() {
+            return new NetworkOptions(tcpNoDelay, sendBufferSize, receiveBufferSize, writeBufferHighWaterMark, writeBufferLowWaterMark,
+                                      receiveAllocatorMinimum, receiveAllocatorInitial, receiveAllocatorMaximum, pooledAllocator,
+                                      eventLoopThreads, connectTimeoutMillis);
+        }
+    }
+}
@@ -18,10 +18,19 @@
  */
 package com.ibm.mqlight.api;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
 import junit.framework.AssertionFailedError;
 
 import org.junit.Test;
 
+import com.ibm.mqlight.api.network.NetworkOptions;
+
 public class TestClientOptions {
 
     @Test
@@ -58,4 +67,128 @@ public class TestClientOptions {
             // Expected.
         }
     }
+
+    @Test
+    public void maxSenderLinks() {
+        assertEquals(0, ClientOptions.builder().build().getMaxSenderLinks());
+        assertEquals(100, ClientOptions.builder().setMaxSenderLinks(100).build().getMaxSenderLinks());
+        try {
+            ClientOptions.builder().setMaxSenderLinks(-1).build();
+            throw new AssertionFailedError("Negative maximum sender links should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void sendBatching() {
+        ClientOptions defaults = ClientOptions.builder().build();
+        assertEquals(1, defaults.getSendBatchMaxMessages());
+        assertEquals(64 * 1024, defaults.getSendBatchMaxBytes());
+        assertEquals(0, defaults.getSendBatchLingerMicros());
+        ClientOptions opts = ClientOptions.builder().setSendBatchMaxMessages(50).setSendBatchMaxBytes(8192).setSendBatchLingerMicros(500).build();
+        assertEquals(50, opts.getSendBatchMaxMessages());
+        assertEquals(8192, opts.getSendBatchMaxBytes());
+        assertEquals(500, opts.getSendBatchLingerMicros());
+        try {
+            ClientOptions.builder().setSendBatchMaxMessages(0).build();
+            throw new AssertionFailedError("Zero batch maximum messages should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setSendBatchMaxBytes(0).build();
+            throw new AssertionFailedError("Zero batch maximum bytes should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setSendBatchLingerMicros(-1).build();
+            throw new AssertionFailedError("Negative linger time should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void sendWatermarks() {
+        ClientOptions defaults = ClientOptions.builder().build();
+        assertEquals(512, defaults.getSendHighWatermarkMessages());
+        assertEquals(4 * 1024 * 1024, defaults.getSendHighWatermarkBytes());
+        assertEquals(256, defaults.getSendLowWatermarkMessages());
+        assertEquals(2 * 1024 * 1024, defaults.getSendLowWatermarkBytes());
+
+        ClientOptions opts = ClientOptions.builder().setSendHighWatermark(100, 10000).build();
+        assertEquals(100, opts.getSendHighWatermarkMessages());
+        assertEquals(10000, opts.getSendHighWatermarkBytes());
+        assertEquals(50, opts.getSendLowWatermarkMessages());
+        assertEquals(5000, opts.getSendLowWatermarkBytes());
+
+        opts = ClientOptions.builder().setSendHighWatermark(100, 10000).setSendLowWatermark(0, 0).build();
+        assertEquals(0, opts.getSendLowWatermarkMessages());
+        assertEquals(0, opts.getSendLowWatermarkBytes());
+
+        try {
+            ClientOptions.builder().setSendHighWatermark(0, 10000).build();
+            throw new AssertionFailedError("Zero high watermark should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setSendLowWatermark(-1, 0).build();
+            throw new AssertionFailedError("Negative low watermark should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setSendHighWatermark(10, 10000).setSendLowWatermark(10, 0).build();
+            throw new AssertionFailedError("Low watermark equal to the high watermark should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void maxQueuedAtMostOnceSends() {
+        ClientOptions defaults = ClientOptions.builder().build();
+        assertEquals(0, defaults.getMaxQueuedAtMostOnceSends());
+        assertEquals(BufferOverflowPolicy.REJECT, defaults.getAtMostOnceOverflowPolicy());
+        ClientOptions opts = ClientOptions.builder().setMaxQueuedAtMostOnceSends(1000, BufferOverflowPolicy.DROP_OLDEST).build();
+        assertEquals(1000, opts.getMaxQueuedAtMostOnceSends());
+        assertEquals(BufferOverflowPolicy.DROP_OLDEST, opts.getAtMostOnceOverflowPolicy());
+        try {
+            ClientOptions.builder().setMaxQueuedAtMostOnceSends(-1, BufferOverflowPolicy.REJECT).build();
+            throw new AssertionFailedError("Negative maximum should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            ClientOptions.builder().setMaxQueuedAtMostOnceSends(10, null).build();
+            throw new AssertionFailedError("Null policy should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void interceptors() {
+        assertTrue(ClientOptions.builder().build().getInterceptors().isEmpty());
+        ClientInterceptor first = new ClientInterceptor() {};
+        ClientInterceptor second = new ClientInterceptor() {};
+        ClientOptions opts = ClientOptions.builder().addInterceptor(first).addInterceptor(second).build();
+        assertEquals(Arrays.asList(first, second), opts.getInterceptors());
+        try {
+            ClientOptions.builder().addInterceptor(null);
+            throw new AssertionFailedError("Null interceptor should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void networkOptions() {
+        assertNull(ClientOptions.builder().build().getNetworkOptions());
+        NetworkOptions networkOptions = NetworkOptions.builder().setTcpNoDelay(true).build();
+        assertSame(networkOptions, ClientOptions.builder().setNetworkOptions(networkOptions).build().getNetworkOptions());
+    }
 }
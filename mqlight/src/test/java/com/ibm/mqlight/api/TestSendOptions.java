@@ -70,4 +70,22 @@ public class TestSendOptions {
             // Expected
         }
     }
+
+    @Test
+    public void conflationValues() {
+        SendOptions opts = SendOptions.builder().build();
+        assertFalse(opts.getConflate());
+        assertNull(opts.getConflationKeyProperty());
+
+        opts = SendOptions.builder().setConflate(true).setConflationKeyProperty("symbol").build();
+        assertTrue(opts.getConflate());
+        assertEquals("symbol", opts.getConflationKeyProperty());
+
+        try {
+            SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).setConflate(true).build();
+            throw new AssertionFailedError("conflation of at least once messages should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
@@ -18,6 +18,10 @@
  */
 package com.ibm.mqlight.api;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.AssertionFailedError;
 
 import org.junit.Test;
@@ -78,4 +82,66 @@ public class TestSubscribeOptions {
             // Expected
         }
     }
+
+    @Test
+    public void orderingValues() {
+        SubscribeOptions defaults = SubscribeOptions.builder().build();
+        assertEquals(SubscribeOptions.OrderingScope.CLIENT, defaults.getOrderingScope());
+        assertNull(defaults.getOrderingKey());
+        SubscribeOptions opts = SubscribeOptions.builder().setOrderingScope(SubscribeOptions.OrderingScope.SUBSCRIPTION).build();
+        assertEquals(SubscribeOptions.OrderingScope.SUBSCRIPTION, opts.getOrderingScope());
+        opts = SubscribeOptions.builder().setOrderingKey("orderId").build();
+        assertEquals(SubscribeOptions.OrderingScope.KEY, opts.getOrderingScope());
+        assertEquals("orderId", opts.getOrderingKey());
+        try {
+            SubscribeOptions.builder().setOrderingScope(null);
+            throw new AssertionFailedError("setOrderingScope of null should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            SubscribeOptions.builder().setOrderingScope(SubscribeOptions.OrderingScope.KEY);
+            throw new AssertionFailedError("setOrderingScope of KEY should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            SubscribeOptions.builder().setOrderingKey("");
+            throw new AssertionFailedError("setOrderingKey of an empty string should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void creditControlValues() {
+        SubscribeOptions defaults = SubscribeOptions.builder().build();
+        assertFalse(defaults.getAdaptiveCredit());
+        assertEquals(0, defaults.getMaxBufferedBytes());
+        SubscribeOptions opts = SubscribeOptions.builder().setAdaptiveCredit(true).setMaxBufferedBytes(1024 * 1024).build();
+        assertTrue(opts.getAdaptiveCredit());
+        assertEquals(1024 * 1024, opts.getMaxBufferedBytes());
+        try {
+            SubscribeOptions.builder().setMaxBufferedBytes(-1);
+            throw new AssertionFailedError("setMaxBufferedBytes -1 should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void conflationValues() {
+        SubscribeOptions defaults = SubscribeOptions.builder().build();
+        assertFalse(defaults.getConflate());
+        assertNull(defaults.getConflationKeyProperty());
+        SubscribeOptions opts = SubscribeOptions.builder().setConflate(true).setConflationKeyProperty("symbol").build();
+        assertTrue(opts.getConflate());
+        assertEquals("symbol", opts.getConflationKeyProperty());
+        try {
+            SubscribeOptions.builder().setQos(QOS.AT_LEAST_ONCE).setConflate(true).build();
+            throw new AssertionFailedError("conflation with 'at least once' should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
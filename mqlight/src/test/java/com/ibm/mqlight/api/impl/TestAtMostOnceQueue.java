@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import org.junit.Test;
+
+public class TestAtMostOnceQueue {
+
+    @Test
+    public void addAndRemoveFirst() {
+        AtMostOnceQueue<String> queue = new AtMostOnceQueue<>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.removeFirst());
+        // Enough entries to wrap around, and grow, the ring buffer
+        for (int i = 0; i < 10; ++i) {
+            queue.addLast("a" + i, 0);
+        }
+        for (int i = 0; i < 5; ++i) {
+            assertEquals("a" + i, queue.removeFirst());
+        }
+        for (int i = 0; i < 20; ++i) {
+            queue.addLast("b" + i, 0);
+        }
+        assertEquals(25, queue.size());
+        for (int i = 5; i < 10; ++i) {
+            assertEquals("a" + i, queue.removeFirst());
+        }
+        for (int i = 0; i < 20; ++i) {
+            assertEquals("b" + i, queue.removeFirst());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void replacedEntriesAreOrderedAsNew() {
+        AtMostOnceQueue<String> queue = new AtMostOnceQueue<>();
+        queue.addLast("one", 0);
+        queue.addLast("two", 0);
+        queue.addLast("three", 0);
+        assertEquals("two", queue.replace(1, "four", 0));
+        assertEquals(3, queue.size());
+
+        LinkedList<String> work = new LinkedList<>();
+        queue.removeAllInto(work);
+        assertEquals(Arrays.asList("one", "three", "four"), work);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void entriesMergedWithOtherWork() {
+        AtMostOnceQueue<String> queue = new AtMostOnceQueue<>();
+        LinkedList<String> work = new LinkedList<>();
+        queue.addLast("q0", work.size());
+        work.add("w0");
+        work.add("w1");
+        queue.addLast("q1", work.size());
+        queue.addLast("q2", work.size());
+        work.add("w2");
+        queue.addLast("q3", work.size());
+        assertEquals("q0", queue.removeFirst());
+        assertEquals("q1", queue.replace(0, "q4", work.size()));
+
+        queue.removeAllInto(work);
+        assertEquals(Arrays.asList("w0", "w1", "q2", "w2", "q3", "q4"), work);
+        assertTrue(queue.isEmpty());
+
+        // The queue can be used again, with positions counted from the new pending work
+        work.clear();
+        work.add("w3");
+        queue.addLast("q5", work.size());
+        queue.removeAllInto(work);
+        assertEquals(Arrays.asList("w3", "q5"), work);
+    }
+}
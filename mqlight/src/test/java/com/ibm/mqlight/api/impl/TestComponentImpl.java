@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestComponentImpl {
+
+    private static class NumberedMessage extends Message {
+        private final int producer;
+        private final int number;
+        private NumberedMessage(int producer, int number) {
+            this.producer = producer;
+            this.number = number;
+        }
+    }
+
+    private static class RecordingComponent extends ComponentImpl {
+        private final ArrayList<NumberedMessage> received = new ArrayList<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicBoolean overlapped = new AtomicBoolean(false);
+        private int idleCount = 0;
+        private int receivedAtIdle = 0;
+        private volatile int count = 0;
+
+        private RecordingComponent() {
+            super();
+        }
+
+        private RecordingComponent(ExecutorService executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void onReceive(Message message) {
+            if (active.incrementAndGet() != 1) overlapped.set(true);
+            received.add((NumberedMessage)message);
+            ++count;
+            active.decrementAndGet();
+        }
+
+        @Override
+        protected void onIdle() {
+            ++idleCount;
+            receivedAtIdle = received.size();
+        }
+    }
+
+    @Test
+    public void deliveredByTellingThread() {
+        RecordingComponent component = new RecordingComponent();
+        component.tell(new NumberedMessage(0, 0), ComponentImpl.NOBODY);
+        assertEquals("Expected message to have been received before tell returned", 1, component.received.size());
+        assertEquals("Expected onIdle to have been called", 1, component.idleCount);
+        assertEquals("Expected onIdle to have been called after the message was received", 1, component.receivedAtIdle);
+    }
+
+    @Test
+    public void messagesSentWhileBusyAreDeliveredInOrder() {
+        final RecordingComponent target = new RecordingComponent();
+        // A component that sends several messages to the target, while the target is processing the first
+        ComponentImpl sender = new ComponentImpl() {
+            @Override
+            protected void onReceive(Message message) {
+                for (int i = 0; i < 5; ++i) target.tell(new NumberedMessage(0, i), this);
+            }
+        };
+        sender.tell(new Message() {}, ComponentImpl.NOBODY);
+        assertEquals("Expected all messages to have been received", 5, target.received.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals("Expected messages to be received in order", i, target.received.get(i).number);
+        }
+    }
+
+    private static class FailingComponent extends RecordingComponent {
+        private FailingComponent() {
+            super();
+        }
+
+        private FailingComponent(ExecutorService executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void onReceive(Message message) {
+            super.onReceive(message);
+            if (((NumberedMessage)message).number < 0) throw new IllegalStateException("failed");
+        }
+    }
+
+    @Test
+    public void exceptionSeenByTellingThread() {
+        RecordingComponent component = new FailingComponent();
+        try {
+            component.tell(new NumberedMessage(0, -1), ComponentImpl.NOBODY);
+            fail("Expected the exception to be thrown to the telling thread");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        component.tell(new NumberedMessage(0, 1), ComponentImpl.NOBODY);
+        assertEquals("Expected messages to be received after the exception", 2, component.received.size());
+    }
+
+    @Test
+    public void exceptionDoesNotStopExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RecordingComponent component = new FailingComponent(executor);
+            component.tell(new NumberedMessage(0, -1), ComponentImpl.NOBODY);
+            component.tell(new NumberedMessage(0, 1), ComponentImpl.NOBODY);
+            for (int i = 0; i < 200 && component.count < 2; ++i) {
+                Thread.sleep(50);
+            }
+            assertEquals("Expected the message after the exception to be received", 2, component.count);
+
+            component.tell(new NumberedMessage(0, 2), ComponentImpl.NOBODY);
+            for (int i = 0; i < 200 && component.count < 3; ++i) {
+                Thread.sleep(50);
+            }
+            assertEquals("Expected the component to still be scheduled on the executor", 3, component.count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void firstExceptionSeenAfterQueueDrained() throws Exception {
+        final int failures = 20000;
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingComponent component = new FailingComponent() {
+            @Override
+            protected void onReceive(Message message) {
+                if (((NumberedMessage)message).number == -1) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.onReceive(message);
+            }
+        };
+
+        // The telling thread processes the first message, and every message queued behind it
+        final AtomicReference<Throwable> seen = new AtomicReference<>();
+        Thread teller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    component.tell(new NumberedMessage(0, -1), ComponentImpl.NOBODY);
+                } catch (Throwable e) {
+                    seen.set(e);
+                }
+            }
+        };
+        teller.start();
+        entered.await();
+
+        Thread[] threads = new Thread[2];
+        for (int p = 0; p < threads.length; ++p) {
+            final int producer = p + 1;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < failures / 2; ++i) {
+                        component.tell(new NumberedMessage(producer, -2 - i), ComponentImpl.NOBODY);
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        for (Thread thread : threads) thread.join();
+        release.countDown();
+        teller.join();
+
+        assertTrue("Expected the first exception to be thrown to the telling thread, not: " + seen.get(),
+                seen.get() instanceof IllegalStateException);
+        assertEquals("Expected every message to have been processed", failures + 1, component.count);
+        assertEquals("Expected the first message to have failed first", -1, component.received.get(0).number);
+
+        component.tell(new NumberedMessage(0, 1), ComponentImpl.NOBODY);
+        assertEquals("Expected the component to process messages after the exceptions", failures + 2, component.count);
+    }
+
+    private static class IdleFailingComponent extends RecordingComponent {
+        private IdleFailingComponent() {
+            super();
+        }
+
+        private IdleFailingComponent(ExecutorService executor) {
+            super(executor);
+        }
+
+        @Override
+        protected void onIdle() {
+            super.onIdle();
+            throw new IllegalStateException("idle failed");
+        }
+    }
+
+    @Test
+    public void onIdleExceptionSeenByTellingThread() {
+        RecordingComponent component = new IdleFailingComponent();
+        for (int i = 0; i < 2; ++i) {
+            try {
+                component.tell(new NumberedMessage(0, i), ComponentImpl.NOBODY);
+                fail("Expected the exception to be thrown to the telling thread");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+        assertEquals("Expected messages to be received after the exception", 2, component.received.size());
+    }
+
+    @Test
+    public void onIdleExceptionDoesNotStopExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RecordingComponent component = new IdleFailingComponent(executor);
+            for (int i = 0; i < 3; ++i) {
+                component.tell(new NumberedMessage(0, i), ComponentImpl.NOBODY);
+                for (int j = 0; j < 200 && component.count < i + 1; ++j) {
+                    Thread.sleep(50);
+                }
+                assertEquals("Expected the component to still be scheduled on the executor", i + 1, component.count);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void deliveredByExecutor() throws Exception {
+        final int producers = 4;
+        final int messages = 10000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RecordingComponent component = new RecordingComponent(executor);
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; ++p) {
+                final int producer = p;
+                threads[p] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < messages; ++i) {
+                            component.tell(new NumberedMessage(producer, i), ComponentImpl.NOBODY);
+                        }
+                    }
+                };
+                threads[p].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) thread.join();
+
+            for (int i = 0; i < 200 && component.count < producers * messages; ++i) {
+                Thread.sleep(50);
+            }
+            // Running a task on the (single threaded) executor ensures that the component's processing is visible to this thread
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {}
+            }).get();
+
+            assertEquals("Expected all messages to have been received", producers * messages, component.received.size());
+            assertFalse("Expected messages to have been processed one at a time", component.overlapped.get());
+            int[] next = new int[producers];
+            for (NumberedMessage message : component.received) {
+                assertEquals("Expected messages from each producer to be received in order", next[message.producer], message.number);
+                ++next[message.producer];
+            }
+            assertTrue("Expected onIdle to have been called", component.idleCount > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.ibm.mqlight.api.impl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -169,4 +170,36 @@ public class TestDeliveryImpl {
             // Expected: duplicate attempt to confirm.
         }
     }
+
+    @Test
+    public void confirmTogetherRejected() {
+        MockClient client = new MockClient(true);
+        MockDelivery confirmed =
+                new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, new DeliveryRequest(null, null, null, null, null));
+        confirmed.confirm();
+        MockDelivery unconfirmed =
+                new MockDelivery(client, QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, new DeliveryRequest(null, null, null, null, null));
+        try {
+            client.confirm(Arrays.asList(unconfirmed, confirmed));
+            fail("Expected StateException to be thrown");
+        } catch(StateException e) {
+            // Expected: one of the deliveries has already been confirmed
+        }
+
+        MockDelivery otherClients =
+                new MockDelivery(new MockClient(true), QOS.AT_LEAST_ONCE, null, "topic", "topic", 0, null, new DeliveryRequest(null, null, null, null, null));
+        try {
+            client.confirm(Arrays.asList(unconfirmed, otherClients));
+            fail("Expected IllegalArgumentException to be thrown");
+        } catch(IllegalArgumentException e) {
+            // Expected: delivery was received by another client
+        }
+
+        try {
+            client.confirm(Arrays.asList(unconfirmed));
+            fail("Expected StateException to be thrown");
+        } catch(StateException e) {
+            // Expected: the client is not waiting for the delivery to be confirmed (as the network was lost)
+        }
+    }
 }
@@ -20,14 +20,19 @@ package com.ibm.mqlight.api.impl;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import io.netty.buffer.ByteBuf;
 
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.AssertionFailedError;
@@ -36,6 +41,7 @@ import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
 import org.junit.Test;
@@ -47,6 +53,7 @@ import com.google.gson.JsonElement;
 import com.ibm.mqlight.api.BytesDelivery;
 import com.ibm.mqlight.api.ClientOptions;
 import com.ibm.mqlight.api.Delivery;
+import com.ibm.mqlight.api.DestinationAdapter;
 import com.ibm.mqlight.api.DestinationListener;
 import com.ibm.mqlight.api.JsonDelivery;
 import com.ibm.mqlight.api.MalformedDelivery;
@@ -54,6 +61,7 @@ import com.ibm.mqlight.api.NonBlockingClient;
 import com.ibm.mqlight.api.Promise;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.StringDelivery;
+import com.ibm.mqlight.api.SubscribeOptions;
 import com.ibm.mqlight.api.callback.CallbackService;
 import com.ibm.mqlight.api.endpoint.Endpoint;
 import com.ibm.mqlight.api.endpoint.EndpointPromise;
@@ -130,7 +138,9 @@ public class TestDestinationListenerWrapper {
     }
 
     private class MockCallbackService implements CallbackService {
+        private final ArrayList<Object> orderingCtxs = new ArrayList<>();
         @Override public void run(Runnable runnable, Object orderingCtx, Promise<Void> promise) {
+            orderingCtxs.add(orderingCtx);
             runnable.run();
             promise.setSuccess(null);
         }
@@ -223,6 +233,39 @@ public class TestDestinationListenerWrapper {
         assertArrayEquals("Expected delivery data to match", expectedData, actualData);
     }
 
+    @Test
+    public void onDeliveryBytesFromPooledBuffer() {
+        StubClient expectedClient = new StubClient();
+        MockListener listener = new MockListener(MockListener.Method.ON_MESSAGE);
+        Object expectedContext = new Object();
+        MockCallbackService callbackService = new MockCallbackService();
+
+        byte[] expectedData = new byte[] {2, 7, 1, 8, 2, 8};
+        QOS expectedQos = QOS.AT_LEAST_ONCE;
+        byte[] serialized = createSerializedProtonMessage(new AmqpValue(new Binary(expectedData)), "/topic1", 0, null, null, null);
+        ByteBuf msgData = io.netty.buffer.PooledByteBufAllocator.DEFAULT.heapBuffer(serialized.length + 16);
+        msgData.writeZero(16);
+        msgData.writeBytes(serialized);
+        msgData.readerIndex(16);
+
+        DeliveryRequest request = new DeliveryRequest(msgData, expectedQos, "private:/#", null, null);
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(expectedClient, new GsonBuilder(), listener, expectedContext);
+        wrapper.onDelivery(callbackService, request, expectedQos, false);
+
+        assertEquals("Expected buffer to have been released", 0, msgData.refCnt());
+        assertEquals("Expected delivery to be of type bytes", Delivery.Type.BYTES, listener.actualDelivery.getType());
+
+        // Re-use the released memory - the delivery's data must not be affected
+        ByteBuf reused = io.netty.buffer.PooledByteBufAllocator.DEFAULT.heapBuffer(serialized.length + 16);
+        reused.writeZero(reused.capacity());
+        reused.release();
+
+        ByteBuffer actual = ((BytesDelivery)listener.actualDelivery).getData();
+        byte[] actualData = new byte[actual.remaining()];
+        actual.get(actualData);
+        assertArrayEquals("Expected delivery data to match", expectedData, actualData);
+    }
+
     @Test
     public void onDeliveryString() {
         StubClient expectedClient = new StubClient();
@@ -397,4 +440,139 @@ public class TestDestinationListenerWrapper {
             assertEquals("Expected array element #"+i+" to match", expectedArray[i], actual);
         }
     }
+
+    private DeliveryRequest createDeliveryRequest(String topicPattern, Map<String, String> properties) {
+        ByteBuf msgData = io.netty.buffer.Unpooled.wrappedBuffer(createSerializedProtonMessage(new AmqpValue("data"), "/topic1", 0, properties, null, null));
+        return new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, topicPattern, null, null);
+    }
+
+    @Test
+    public void bufferReleasedWhenDecodeFails() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null);
+
+        // A message with a body that is a data section, rather than an AMQP value
+        org.apache.qpid.proton.message.Message protonMsg = Proton.message();
+        protonMsg.setBody(new Data(new Binary(new byte[] { 1, 2, 3 })));
+        protonMsg.setAddress("amqp:///topic1");
+        byte[] serialized = new byte[1024];
+        int length = protonMsg.encode(serialized, 0, serialized.length);
+        ByteBuf msgData = io.netty.buffer.PooledByteBufAllocator.DEFAULT.heapBuffer(length);
+        msgData.writeBytes(serialized, 0, length);
+
+        try {
+            wrapper.onDelivery(callbackService, new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "private:/topic1", null, null), QOS.AT_MOST_ONCE, false);
+        } catch (RuntimeException e) {
+            // Expected: the body cannot be decoded
+        }
+        assertEquals("Expected the buffer to have been released", 0, msgData.refCnt());
+    }
+
+    @Test
+    public void orderingScopeClient() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null);
+        wrapper.onDelivery(callbackService, createDeliveryRequest("private:/a", null), QOS.AT_MOST_ONCE, false);
+        assertSame("Expected callback to be ordered by client", client, callbackService.orderingCtxs.get(0));
+    }
+
+    @Test
+    public void orderingScopeSubscription() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        DestinationListenerWrapper<Object> wrapper1 = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new DestinationAdapter<Object>() {}, null,
+                SubscribeOptions.OrderingScope.SUBSCRIPTION, null, null);
+        DestinationListenerWrapper<Object> wrapper2 = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new DestinationAdapter<Object>() {}, null,
+                SubscribeOptions.OrderingScope.SUBSCRIPTION, null, null);
+        wrapper1.onDelivery(callbackService, createDeliveryRequest("private:/a", null), QOS.AT_MOST_ONCE, false);
+        wrapper2.onDelivery(callbackService, createDeliveryRequest("private:/b", null), QOS.AT_MOST_ONCE, false);
+        wrapper1.onDelivery(callbackService, createDeliveryRequest("private:/a", null), QOS.AT_MOST_ONCE, false);
+        wrapper1.onUnsubscribed(callbackService, "/a", null, null);
+
+        List<Object> ctxs = callbackService.orderingCtxs;
+        assertNotSame("Expected callbacks not to be ordered by client", client, ctxs.get(0));
+        assertNotEquals("Expected subscriptions to be ordered independently", ctxs.get(0), ctxs.get(1));
+        assertEquals("Expected callbacks for the same subscription to be ordered", ctxs.get(0), ctxs.get(2));
+        assertEquals("Expected unsubscribe to be ordered after deliveries", ctxs.get(0), ctxs.get(3));
+    }
+
+    @Test
+    public void orderingScopeShare() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        DestinationListenerWrapper<Object> wrapper1 = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null,
+                SubscribeOptions.OrderingScope.SHARE, null, "share1");
+        DestinationListenerWrapper<Object> wrapper2 = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null,
+                SubscribeOptions.OrderingScope.SHARE, null, "share1");
+        DestinationListenerWrapper<Object> wrapper3 = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new MockListener(MockListener.Method.ON_MESSAGE), null,
+                SubscribeOptions.OrderingScope.SHARE, null, "share2");
+        wrapper1.onDelivery(callbackService, createDeliveryRequest("share:share1:/a", null), QOS.AT_MOST_ONCE, false);
+        wrapper2.onDelivery(callbackService, createDeliveryRequest("share:share1:/b", null), QOS.AT_MOST_ONCE, false);
+        wrapper3.onDelivery(callbackService, createDeliveryRequest("share:share2:/a", null), QOS.AT_MOST_ONCE, false);
+
+        List<Object> ctxs = callbackService.orderingCtxs;
+        assertEquals("Expected callbacks for the same share to be ordered", ctxs.get(0), ctxs.get(1));
+        assertNotEquals("Expected shares to be ordered independently", ctxs.get(0), ctxs.get(2));
+    }
+
+    @Test
+    public void orderingScopeKey() {
+        StubClient client = new StubClient();
+        MockCallbackService callbackService = new MockCallbackService();
+        MockListener listener = new MockListener(MockListener.Method.ON_MESSAGE);
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), listener, null,
+                SubscribeOptions.OrderingScope.KEY, "key", null);
+        Map<String, String> keyA = new HashMap<>();
+        keyA.put("key", "a");
+        Map<String, String> keyB = new HashMap<>();
+        keyB.put("key", "b");
+        wrapper.onDelivery(callbackService, createDeliveryRequest("private:/a", keyA), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createDeliveryRequest("private:/a", keyB), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createDeliveryRequest("private:/a", keyA), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createDeliveryRequest("private:/a", null), QOS.AT_MOST_ONCE, false);
+
+        List<Object> ctxs = callbackService.orderingCtxs;
+        assertEquals("Expected callbacks with the same key to be ordered", ctxs.get(0), ctxs.get(2));
+        assertNotEquals("Expected callbacks with different keys to be ordered independently", ctxs.get(0), ctxs.get(1));
+        assertSame("Expected a message without a key to be ordered by subscription", wrapper, ctxs.get(3));
+        assertEquals("Expected the message to have been delivered", "data", ((StringDelivery)listener.actualDelivery).getData());
+    }
+
+    @Test
+    public void conflation() {
+        StubClient client = new StubClient();
+        final ArrayList<Runnable> queued = new ArrayList<>();
+        CallbackService callbackService = new CallbackService() {
+            @Override public void run(Runnable runnable, Object orderingCtx, Promise<Void> promise) {
+                queued.add(runnable);
+            }
+        };
+        final ArrayList<String> delivered = new ArrayList<>();
+        DestinationListenerWrapper<Object> wrapper = new DestinationListenerWrapper<Object>(client, new GsonBuilder(), new DestinationAdapter<Object>() {
+            @Override public void onMessage(NonBlockingClient client, Object context, Delivery delivery) {
+                delivered.add(((StringDelivery)delivery).getData());
+            }
+        }, null, SubscribeOptions.OrderingScope.CLIENT, null, null, true, "key");
+        Map<String, String> keyA = new HashMap<>();
+        keyA.put("key", "a");
+        Map<String, String> keyB = new HashMap<>();
+        keyB.put("key", "b");
+        wrapper.onDelivery(callbackService, createStringDeliveryRequest("a1", keyA), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createStringDeliveryRequest("b1", keyB), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createStringDeliveryRequest("a2", keyA), QOS.AT_MOST_ONCE, false);
+        wrapper.onDelivery(callbackService, createStringDeliveryRequest("a3", keyA), QOS.AT_MOST_ONCE, false);
+        assertEquals("Expected one callback to be queued per key", 2, queued.size());
+
+        queued.remove(0).run();
+        wrapper.onDelivery(callbackService, createStringDeliveryRequest("a4", keyA), QOS.AT_MOST_ONCE, false);
+        for (Runnable runnable : queued) runnable.run();
+        assertEquals("Expected only the latest message for each key to be delivered", Arrays.asList("a3", "b1", "a4"), delivered);
+    }
+
+    private DeliveryRequest createStringDeliveryRequest(String data, Map<String, String> properties) {
+        ByteBuf msgData = io.netty.buffer.Unpooled.wrappedBuffer(createSerializedProtonMessage(new AmqpValue(data), "/topic1", 0, properties, null, null));
+        return new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "private:/topic1", null, null);
+    }
 }
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestInflightTable {
+
+    @Test
+    public void putAndRemove() {
+        InflightTable<String> table = new InflightTable<>();
+        assertTrue(table.isEmpty());
+        table.put(1, "one");
+        table.put(2, "two");
+        assertEquals(2, table.size());
+        assertEquals("two", table.remove(2));
+        assertNull("entry should only be removed once", table.remove(2));
+        assertNull("entry was never added", table.remove(3));
+        assertEquals("one", table.remove(1));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void collisionsAndGrowth() {
+        InflightTable<Long> table = new InflightTable<>(4);
+        // Keys that map to the same slot, and wrap around the end of the table
+        final long[] keys = new long[] {15, 31, 47, 14, 30, 0, 16, 1000000, 63};
+        for (long key : keys) {
+            table.put(key, key);
+        }
+        assertEquals(keys.length, table.size());
+        // Remove from the middle of the probe sequences, then check everything else is still found
+        assertEquals(Long.valueOf(31), table.remove(31));
+        assertEquals(Long.valueOf(14), table.remove(14));
+        for (long key : keys) {
+            if (key != 31 && key != 14) {
+                assertEquals(Long.valueOf(key), table.remove(key));
+            }
+        }
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void removeAllInSequenceOrder() {
+        InflightTable<Long> table = new InflightTable<>();
+        for (long key = 99; key >= 0; --key) {
+            table.put(key, key);
+        }
+        List<Long> all = table.removeAll();
+        assertEquals(100, all.size());
+        for (int i = 0; i < all.size(); ++i) {
+            assertEquals(Long.valueOf(i), all.get(i));
+        }
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void slidingWindow() {
+        // Model a window of unsettled sends, that complete in a random order
+        InflightTable<Long> table = new InflightTable<>();
+        Random random = new Random(12345);
+        long next = 0;
+        long[] window = new long[1000];
+        for (int i = 0; i < window.length; ++i) {
+            window[i] = next;
+            table.put(next, next);
+            ++next;
+        }
+        for (int i = 0; i < 100000; ++i) {
+            int index = random.nextInt(window.length);
+            assertEquals(Long.valueOf(window[index]), table.remove(window[index]));
+            window[index] = next;
+            table.put(next, next);
+            ++next;
+        }
+        assertEquals(window.length, table.size());
+        for (long key : window) {
+            assertEquals(Long.valueOf(key), table.remove(key));
+        }
+        assertTrue(table.isEmpty());
+    }
+}
@@ -46,7 +46,9 @@ import org.apache.qpid.proton.amqp.messaging.AmqpValue;
 import org.junit.Test;
 
 import com.google.gson.GsonBuilder;
+import com.ibm.mqlight.api.BufferOverflowPolicy;
 import com.ibm.mqlight.api.ClientException;
+import com.ibm.mqlight.api.ClientInterceptor;
 import com.ibm.mqlight.api.ClientOptions;
 import com.ibm.mqlight.api.ClientState;
 import com.ibm.mqlight.api.CompletionListener;
@@ -72,6 +74,7 @@ import com.ibm.mqlight.api.impl.engine.CloseRequest;
 import com.ibm.mqlight.api.impl.engine.CloseResponse;
 import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
 import com.ibm.mqlight.api.impl.engine.DisconnectNotification;
+import com.ibm.mqlight.api.impl.engine.DrainNotification;
 import com.ibm.mqlight.api.impl.engine.EngineConnection;
 import com.ibm.mqlight.api.impl.engine.OpenRequest;
 import com.ibm.mqlight.api.impl.engine.OpenResponse;
@@ -487,7 +490,7 @@ public class TestNonBlockingClientImpl {
         assertEquals("Expected a single message to have been sent to the mock engine component", 1, client.getMessages().size());
         InternalSend<?> send = (InternalSend<?>)client.getMessages().get(0);
         byte[] data = new byte[send.length];
-        System.arraycopy(send.buf.array(), 0, data, 0, send.length);
+        System.arraycopy(send.buf.array(), send.buf.arrayOffset(), data, 0, send.length);
         ByteBuf msgData = io.netty.buffer.Unpooled.wrappedBuffer(data);
 
         DeliveryRequest dr = new DeliveryRequest(msgData, QOS.AT_MOST_ONCE, "/kittens", null, null);
@@ -913,6 +916,147 @@ public class TestNonBlockingClientImpl {
        assertEquals("Exception passed to completion listener should match", exception, compListener.onErrorException);
     }
 
+    @Test
+    public void testSendWatermarks() {
+        class TestClientListener extends MockNonBlockingClientListener {
+            int drainCount = 0;
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+            @Override public void onDrain(NonBlockingClient client, Void context) {
+                ++drainCount;
+            }
+        }
+        MockComponent engine = new MockComponent();
+        TestClientListener listener = new TestClientListener();
+        ClientOptions options = ClientOptions.builder().setSendHighWatermark(4, 1024 * 1024).setSendLowWatermark(1, 1024 * 1024 - 1).build();
+        NonBlockingClientImpl client =
+                new NonBlockingClientImpl(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, options, listener, null);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        SendOptions qos1 = SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).build();
+        for (int i = 0; i < 3; ++i) {
+            assertTrue("send " + i + " should be below the high watermark", client.send("/kittens", "data", null, qos1, new MockCompletionListener(), null));
+        }
+        assertFalse("send should reach the high watermark", client.send("/kittens", "data", null, qos1, new MockCompletionListener(), null));
+        assertFalse("send should be above the high watermark", client.send("/kittens", "data", null, qos1, new MockCompletionListener(), null));
+
+        // The engine draining its buffers does not complete 'at least once' sends
+        client.tell(new DrainNotification(), engine);
+        assertEquals(0, listener.drainCount);
+
+        for (int i = 0; i < 4; ++i) {
+            client.tell(new SendResponse((SendRequest)engine.getMessages().get(i + 1), null), engine);
+            assertEquals("onDrain should only be called at the low watermark", i == 3 ? 1 : 0, listener.drainCount);
+        }
+        client.tell(new SendResponse((SendRequest)engine.getMessages().get(5), null), engine);
+        assertEquals("onDrain should only be called once", 1, listener.drainCount);
+
+        assertTrue("send should be below the high watermark", client.send("/kittens", "data", null, qos1, new MockCompletionListener(), null));
+    }
+
+    private NonBlockingClientImpl queueingClient(MockComponent engine, BufferOverflowPolicy policy) {
+        class TestClientListener extends MockNonBlockingClientListener {
+            public TestClientListener() { super(true); }
+            @Override public void onStarted(NonBlockingClient client, Void context) {}
+        }
+        ClientOptions options = ClientOptions.builder().setMaxQueuedAtMostOnceSends(2, policy).build();
+        NonBlockingClientImpl client =
+                new NonBlockingClientImpl(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, options, new TestClientListener(), null);
+        assertEquals(ClientState.STARTING, client.getState());
+        return client;
+    }
+
+    private int sendRequestCount(MockComponent engine) {
+        int count = 0;
+        for (Message message : engine.getMessages()) {
+            if (message instanceof SendRequest) ++count;
+        }
+        return count;
+    }
+
+    @Test
+    public void testQueuedAtMostOnceSendsRejected() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = queueingClient(engine, BufferOverflowPolicy.REJECT);
+        MockCompletionListener[] listeners = new MockCompletionListener[4];
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i] = new MockCompletionListener();
+            client.send("/kittens" + i, "data", null, listeners[i], null);
+        }
+        // 'At least once' sends are never limited
+        MockCompletionListener qos1Listener = new MockCompletionListener();
+        client.send("/puppies", "data", null, SendOptions.builder().setQos(QOS.AT_LEAST_ONCE).build(), qos1Listener, null);
+
+        assertEquals(2, client.getDroppedSendCount());
+        assertFalse(listeners[0].onErrorCalled);
+        assertFalse(listeners[1].onErrorCalled);
+        assertTrue("third send should have been rejected", listeners[2].onErrorCalled);
+        assertTrue("fourth send should have been rejected", listeners[3].onErrorCalled);
+        assertFalse(qos1Listener.onErrorCalled);
+
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+        assertEquals("queued sends should have been sent", 3, sendRequestCount(engine));
+    }
+
+    @Test
+    public void testQueuedAtMostOnceSendsDropOldest() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = queueingClient(engine, BufferOverflowPolicy.DROP_OLDEST);
+        MockCompletionListener[] listeners = new MockCompletionListener[4];
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i] = new MockCompletionListener();
+            client.send("/kittens", "data", null, listeners[i], null);
+        }
+        assertEquals(2, client.getDroppedSendCount());
+        assertTrue("discarded send should be completed", listeners[0].onSuccessCalled);
+        assertTrue("discarded send should be completed", listeners[1].onSuccessCalled);
+        assertFalse(listeners[2].onSuccessCalled || listeners[2].onErrorCalled);
+        assertFalse(listeners[3].onSuccessCalled || listeners[3].onErrorCalled);
+
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(2, sendRequestCount(engine));
+        for (int i = 1; i <= 2; ++i) {
+            client.tell(new SendResponse((SendRequest)engine.getMessages().get(i), null), engine);
+        }
+        assertTrue(listeners[2].onSuccessCalled);
+        assertTrue(listeners[3].onSuccessCalled);
+    }
+
+    @Test
+    public void testQueuedAtMostOnceSendsDropNewest() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = queueingClient(engine, BufferOverflowPolicy.DROP_NEWEST);
+        MockCompletionListener[] listeners = new MockCompletionListener[4];
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i] = new MockCompletionListener();
+            client.send("/kittens", "data", null, listeners[i], null);
+        }
+        assertEquals(2, client.getDroppedSendCount());
+        assertFalse(listeners[0].onSuccessCalled || listeners[0].onErrorCalled);
+        assertFalse(listeners[1].onSuccessCalled || listeners[1].onErrorCalled);
+        assertTrue("discarded send should be completed", listeners[2].onSuccessCalled);
+        assertTrue("discarded send should be completed", listeners[3].onSuccessCalled);
+    }
+
+    @Test
+    public void testQueuedAtMostOnceSendsSample() {
+        MockComponent engine = new MockComponent();
+        NonBlockingClientImpl client = queueingClient(engine, BufferOverflowPolicy.SAMPLE);
+        for (int i = 0; i < 100; ++i) {
+            client.send("/kittens", "data", null, new MockCompletionListener(), null);
+        }
+        assertEquals(98, client.getDroppedSendCount());
+
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(2, sendRequestCount(engine));
+    }
+
     @Test
     public void testThrowingExceptionInCallbackStopsClient() {
         final RuntimeException exception = new RuntimeException("");
@@ -1009,7 +1153,7 @@ public class TestNonBlockingClientImpl {
 
     private org.apache.qpid.proton.message.Message decodeProtonMessage(InternalSend<?> send) {
         org.apache.qpid.proton.message.Message result = Proton.message();
-        result.decode(send.buf.array(), 0, send.length);
+        result.decode(send.buf.array(), send.buf.arrayOffset(), send.length);
         return result;
     }
 
@@ -1085,5 +1229,101 @@ public class TestNonBlockingClientImpl {
         assertEquals("Message 5: topic doesn't match", "amqp:///" + expectedTopic, msg.getAddress());
         assertEquals("Message 5: content type set incorrectly", "application/json", msg.getContentType());
         assertEquals("Message 5: body doesn't match", expectedRawJson, ((AmqpValue)msg.getBody()).getValue());
+
+        ByteBuffer sliced = ByteBuffer.wrap(new byte[] {9, 9, 1, 2, 3, 9});
+        sliced.position(1);
+        sliced = sliced.slice();
+        sliced.position(1);
+        sliced.limit(4);
+        client.send(expectedTopic, sliced, (Map<String, Object>)null, null, null, null);
+        msg = decodeProtonMessage(client.sends.get(5));
+        Binary binary = (Binary)((AmqpValue)msg.getBody()).getValue();
+        assertArrayEquals("Message 6: body doesn't match", expectedBytes, Arrays.copyOfRange(binary.getArray(), binary.getArrayOffset(), binary.getArrayOffset() + binary.getLength()));
+        assertEquals("Message 6: buffer position should not have been changed", 1, sliced.position());
+
+        byte[] largeBytes = new byte[64 * 1024];
+        Arrays.fill(largeBytes, (byte)7);
+        client.send(expectedTopic, ByteBuffer.wrap(largeBytes), (Map<String, Object>)null, null, null, null);
+        msg = decodeProtonMessage(client.sends.get(6));
+        assertArrayEquals("Message 7: body doesn't match", largeBytes, ((Binary)((AmqpValue)msg.getBody()).getValue()).getArray());
+    }
+
+    @Test
+    public void testInterceptors() {
+
+        class MockClient extends NonBlockingClientImpl {
+
+            private final LinkedList<InternalSend<?>> sends = new LinkedList<>();
+
+            protected <T> MockClient(EndpointService endpointService,
+                    CallbackService callbackService, ComponentImpl engine,
+                    TimerService timerService, GsonBuilder gsonBuilder,
+                    ClientOptions options,
+                    NonBlockingClientListener<T> listener, T context) {
+                super(endpointService, callbackService, engine, timerService, gsonBuilder,
+                        options, listener, context);
+            }
+
+            @Override
+            public void tell(Message message, Component self) {
+                if (message instanceof InternalSend<?>) {
+                    sends.addLast((InternalSend<?>)message);
+                }
+                super.tell(message, self);
+            }
+        }
+        final LinkedList<String> events = new LinkedList<>();
+        final long[] transferNanos = new long[1];
+        ClientInterceptor interceptor = new ClientInterceptor() {
+            @Override public void onSend(Stage stage, String topic, long id, long nanoTime) {
+                events.addLast(stage + " " + topic + " " + id);
+                if (stage == Stage.HANDED_TO_TRANSPORT) transferNanos[0] = nanoTime;
+            }
+            @Override public Object preEncode(String topic, Object data, Map<String, Object> properties) {
+                properties.put("traced", true);
+                return ((String)data).toUpperCase();
+            }
+        };
+        ClientOptions options = ClientOptions.builder().addInterceptor(interceptor).addInterceptor(new ClientInterceptor() {
+            @Override public void onSend(Stage stage, String topic, long id, long nanoTime) {
+                throw new RuntimeException("Exceptions from interceptors should be ignored");
+            }
+            @Override public Object preEncode(String topic, Object data, Map<String, Object> properties) {
+                return data + "!";
+            }
+        }).build();
+        MockComponent engine = new MockComponent();
+        MockClient client =
+                new MockClient(new MockEndpointService(), new SameThreadCallbackService(), engine, new MockTimerService(), null, options, null, null);
+        OpenRequest openRequest = (OpenRequest)engine.getMessages().get(0);
+        client.tell(new OpenResponse(openRequest, new EngineConnection()), engine);
+        assertEquals(ClientState.STARTED, client.getState());
+
+        client.send("/kittens", "data", (Map<String, Object>)null, null, null, null);
+        assertEquals(Arrays.asList("PRE_ENCODE /kittens 1", "POST_ENCODE /kittens 1"), events);
+        org.apache.qpid.proton.message.Message msg = decodeProtonMessage(client.sends.get(0));
+        assertEquals("Expected interceptors to transform the data in order", "DATA!", ((AmqpValue)msg.getBody()).getValue());
+        assertEquals("Expected interceptor to add a property", true, msg.getApplicationProperties().getValue().get("traced"));
+
+        SendRequest sendRequest = (SendRequest)engine.getMessages().get(1);
+        sendRequest.transferNanos = 1234;
+        client.tell(new SendResponse(sendRequest, null), engine);
+        assertEquals(Arrays.asList("PRE_ENCODE /kittens 1", "POST_ENCODE /kittens 1", "HANDED_TO_TRANSPORT /kittens 1", "SETTLED /kittens 1"), events);
+        assertEquals(1234, transferNanos[0]);
+
+        // Sends completed by the client itself, rather than by the engine, are also reported as settled
+        events.clear();
+        client.send("/puppies", "data", (Map<String, Object>)null, null, null, null);
+        client.tell(new DisconnectNotification(new EngineConnection(), new ClientException("you got disconnected!")), engine);
+        assertEquals(ClientState.RETRYING, client.getState());
+        assertEquals(Arrays.asList("PRE_ENCODE /puppies 2", "POST_ENCODE /puppies 2", "SETTLED /puppies 2"), events);
+
+        events.clear();
+        client.send("/queued", "data", (Map<String, Object>)null, null, null, null);
+        client.stop(null, null);
+        openRequest = (OpenRequest)engine.getMessages().get(engine.getMessages().size() - 1);
+        client.tell(new OpenResponse(openRequest, new ClientException("")), engine);
+        assertEquals(ClientState.STOPPED, client.getState());
+        assertEquals(Arrays.asList("PRE_ENCODE /queued 3", "POST_ENCODE /queued 3", "SETTLED /queued 3"), events);
     }
 }
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ibm.mqlight.api.QOS;
+import com.ibm.mqlight.api.impl.engine.DeliveryRequest;
+
+public class TestUnconfirmedDeliveries {
+
+    private DeliveryRequest request(long sequence) {
+        return new DeliveryRequest(null, QOS.AT_LEAST_ONCE, "private:/kittens", null, null, sequence);
+    }
+
+    @Test
+    public void addAndRemove() {
+        UnconfirmedDeliveries unconfirmed = new UnconfirmedDeliveries(4);
+        assertTrue("should start empty", unconfirmed.isEmpty());
+
+        DeliveryRequest[] requests = new DeliveryRequest[4];
+        for (int i = 0; i < requests.length; ++i) {
+            requests[i] = request(i);
+            unconfirmed.add(requests[i]);
+        }
+        assertFalse("should not be empty", unconfirmed.isEmpty());
+
+        // Confirm out of order
+        assertTrue(unconfirmed.remove(requests[2]));
+        assertTrue(unconfirmed.remove(requests[0]));
+        assertTrue(unconfirmed.remove(requests[3]));
+        assertFalse("should not be empty", unconfirmed.isEmpty());
+        assertTrue(unconfirmed.remove(requests[1]));
+        assertTrue("should be empty", unconfirmed.isEmpty());
+
+        assertFalse("delivery cannot be removed twice", unconfirmed.remove(requests[1]));
+    }
+
+    @Test
+    public void slotCollision() {
+        UnconfirmedDeliveries unconfirmed = new UnconfirmedDeliveries(2);
+        DeliveryRequest first = request(0);
+        DeliveryRequest second = request(2);    // Maps to the same slot as 'first'
+        unconfirmed.add(first);
+        unconfirmed.add(second);
+
+        assertTrue(unconfirmed.remove(second));
+        assertFalse("should not be empty", unconfirmed.isEmpty());
+        assertFalse("delivery cannot be removed twice", unconfirmed.remove(second));
+        assertTrue(unconfirmed.remove(first));
+        assertTrue("should be empty", unconfirmed.isEmpty());
+    }
+
+    @Test
+    public void differentDeliverySameSlot() {
+        UnconfirmedDeliveries unconfirmed = new UnconfirmedDeliveries(2);
+        DeliveryRequest added = request(1);
+        unconfirmed.add(added);
+
+        assertFalse("a delivery that was never added cannot be removed", unconfirmed.remove(request(1)));
+        assertFalse("a delivery that was never added cannot be removed", unconfirmed.remove(request(3)));
+        assertTrue(unconfirmed.remove(added));
+    }
+
+    @Test
+    public void clear() {
+        UnconfirmedDeliveries unconfirmed = new UnconfirmedDeliveries(1);
+        DeliveryRequest stale1 = request(0);
+        DeliveryRequest stale2 = request(1);
+        unconfirmed.add(stale1);
+        unconfirmed.add(stale2);
+        unconfirmed.clear();
+        assertTrue("should be empty", unconfirmed.isEmpty());
+
+        // Sequence numbers restart on a new connection - the stale deliveries must not match the new ones
+        DeliveryRequest current = request(0);
+        unconfirmed.add(current);
+        assertFalse("stale delivery should not be removed", unconfirmed.remove(stale1));
+        assertFalse("stale delivery should not be removed", unconfirmed.remove(stale2));
+        assertTrue(unconfirmed.remove(current));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+
+import org.junit.Test;
+
+public class TestCreditController {
+
+    @Test
+    public void fixedCredit() {
+        CreditController credit = new CreditController(10, false, 0);
+        assertEquals("Expected the full credit to be flowed initially", 10, credit.initialCredit());
+        for (int i = 0; i < 10; ++i) credit.delivered(100, 0);
+
+        // Settled deliveries are batched until the available credit falls to 1.25 times the number settled
+        assertEquals(1, credit.settled(100, 0));    // 1 available, 1 settled
+        assertEquals(0, credit.settled(100, 0));    // 2 available, 1 settled
+        assertEquals(0, credit.settled(100, 0));    // 3 available, 2 settled
+        assertEquals(0, credit.settled(100, 0));    // 4 available, 3 settled
+        assertEquals(4, credit.settled(100, 0));    // 5 available, 4 settled
+
+        // Once there are no unsettled deliveries, any settled deliveries are always returned
+        credit = new CreditController(10, false, 0);
+        credit.initialCredit();
+        for (int i = 0; i < 6; ++i) credit.delivered(100, 0);
+        assertEquals(0, credit.settled(100, 0));    // 5 available, 1 settled
+        assertEquals(0, credit.settled(100, 0));    // 6 available, 2 settled
+        assertEquals(0, credit.settled(100, 0));    // 7 available, 3 settled
+        assertEquals(0, credit.settled(100, 0));    // 8 available, 4 settled
+        assertEquals(0, credit.settled(100, 0));    // 9 available, 5 settled
+        assertEquals("Expected credit to be flowed once all deliveries are settled", 6, credit.settled(100, 0));
+        assertEquals(0, credit.getUnsettled());
+        assertEquals(0, credit.getBufferedBytes());
+    }
+
+    @Test
+    public void creditWithheldWhileBufferFull() {
+        CreditController credit = new CreditController(10, false, 500);
+        credit.initialCredit();
+        for (int i = 0; i < 10; ++i) credit.delivered(100, 0);
+
+        // 1000 bytes are buffered - no credit is flowed until this falls below 500
+        for (int i = 0; i < 5; ++i) assertEquals(0, credit.settled(100, 0));
+        assertEquals(500, credit.getBufferedBytes());
+        assertEquals("Expected credit for all of the settled deliveries", 6, credit.settled(100, 0));
+    }
+
+    // Simulates a server that always has messages available, with the given round trip time, delivering to
+    // an application that takes the given time to process each message.  Returns the resulting window size.
+    private int simulate(CreditController credit, long roundTripNanos, long processNanos, int messages) {
+        final LinkedList<Long> arrivals = new LinkedList<>();
+        for (int i = credit.initialCredit(); i > 0; --i) arrivals.add(roundTripNanos);
+        final LinkedList<Long> received = new LinkedList<>();
+        long now = 0;
+        long busyUntil = -1;
+        for (int processed = 0; processed < messages;) {
+            final long nextArrival = arrivals.isEmpty() ? Long.MAX_VALUE : arrivals.getFirst();
+            if (busyUntil >= 0 && busyUntil <= nextArrival) {
+                now = busyUntil;
+                busyUntil = -1;
+                ++processed;
+                final int amount = credit.settled(100, now);
+                for (int i = 0; i < amount; ++i) arrivals.add(now + roundTripNanos);
+            } else {
+                now = arrivals.removeFirst();
+                credit.delivered(100, now);
+                received.add(now);
+            }
+            if (busyUntil < 0 && !received.isEmpty()) {
+                received.removeFirst();
+                busyUntil = now + processNanos;
+            }
+        }
+        return credit.getWindow();
+    }
+
+    @Test
+    public void adaptiveCreditGrowsForFastApplication() {
+        // 10ms round trip, 0.1ms to process each message - 100 messages are processed per round trip
+        final int window = simulate(new CreditController(1024, true, 0), 10000000L, 100000L, 5000);
+        assertTrue("Expected the window to grow to cover the round trip, but was " + window, window >= 100 && window <= 400);
+    }
+
+    @Test
+    public void adaptiveCreditShrinksForSlowApplication() {
+        // 1ms round trip, 10ms to process each message - there is no need to buffer more than a few messages
+        final int window = simulate(new CreditController(1024, true, 0), 1000000L, 10000000L, 200);
+        assertTrue("Expected the window to shrink, but was " + window, window <= 8);
+    }
+
+    @Test
+    public void adaptiveCreditLimitedByCredit() {
+        final int window = simulate(new CreditController(50, true, 0), 10000000L, 100000L, 2000);
+        assertEquals(50, window);
+    }
+}
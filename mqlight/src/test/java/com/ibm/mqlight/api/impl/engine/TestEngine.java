@@ -19,8 +19,11 @@
 package com.ibm.mqlight.api.impl.engine;
 
 import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -28,6 +31,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedList;
 
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.transport.ErrorCondition;
@@ -44,6 +49,7 @@ import com.ibm.mqlight.api.Promise;
 import com.ibm.mqlight.api.QOS;
 import com.ibm.mqlight.api.endpoint.Endpoint;
 import com.ibm.mqlight.api.impl.ComponentImpl;
+import com.ibm.mqlight.api.impl.Message;
 import com.ibm.mqlight.api.impl.MockComponent;
 import com.ibm.mqlight.api.impl.SubscriptionTopic;
 import com.ibm.mqlight.api.impl.network.ConnectionError;
@@ -56,6 +62,8 @@ public class TestEngine {
 
     private class MockHandler extends BaseHandler {
         private Delivery delivery = null;
+        private final LinkedList<Delivery> deliveries = new LinkedList<>();
+        private int deliveriesToSend = 1;
         private boolean closeConnection = false;
 
         @Override
@@ -88,9 +96,12 @@ public class TestEngine {
             e.getLink().open();
             if (e.getLink() instanceof Sender) {
                 Sender sender = (Sender)e.getLink();
-                delivery = sender.delivery(new byte[]{1});
-                sender.send(new byte[]{1, 2, 3}, 0, 3);
-                sender.advance();
+                for (int i = 0; i < deliveriesToSend; ++i) {
+                    delivery = sender.delivery(new byte[]{(byte)(i + 1)});
+                    sender.send(new byte[]{1, 2, 3}, 0, 3);
+                    sender.advance();
+                    deliveries.add(delivery);
+                }
             } else {
                 Receiver receiver = (Receiver)e.getLink();
                 receiver.flow(1024);
@@ -143,10 +154,11 @@ public class TestEngine {
 
     private class MockTimerService implements TimerService {
 
+        private final LinkedList<Promise<Void>> scheduled = new LinkedList<>();
+
         @Override
         public void schedule(long delay, Promise<Void> promise) {
-            // TODO Auto-generated method stub
-
+            scheduled.addLast(promise);
         }
 
         @Override
@@ -232,6 +244,116 @@ public class TestEngine {
         assertTrue("Expected message 3 to be of type SendResponse", component.getMessages().get(2) instanceof SendResponse);
     }
 
+    @Test
+    public void sendConflatesMessages() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection connection = openResponse.connection;
+
+        // Open the sending link, so that the server grants credit to send on it
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        int messages = component.getMessages().size();
+
+        // Pretend that earlier data is still being written to the network, so that messages are held
+        connection.drained = false;
+        SendRequest[] conflated = new SendRequest[3];
+        for (int i = 0; i < conflated.length; ++i) {
+            conflated[i] = new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{(byte)i}), 1, QOS.AT_MOST_ONCE, i, "topic1");
+            engine.tell(conflated[i], component);
+        }
+        assertEquals("Expected only the latest message to be held", 1, connection.conflatedSends.size());
+        assertSame(conflated[2], connection.conflatedSends.get("topic1"));
+        assertEquals("Expected the replaced messages to have completed", messages + 2, component.getMessages().size());
+        for (int i = 0; i < 2; ++i) {
+            SendResponse response = (SendResponse)component.getMessages().get(messages + i);
+            assertSame(conflated[i], response.request);
+            assertNull(response.cause);
+            assertEquals("Expected the replaced message's buffer to be released", 0, conflated[i].buf.refCnt());
+        }
+
+        // A message with a different conflation key is held separately
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{4}), 1, QOS.AT_MOST_ONCE, 3, "topic1\u0000other"), component);
+        assertEquals(2, connection.conflatedSends.size());
+
+        // The held messages are written once the network catches up
+        long bytesWritten = connection.bytesWritten;
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertTrue("Expected the held messages to have been written", connection.conflatedSends.isEmpty());
+        assertTrue("Expected data to have been written", connection.bytesWritten > bytesWritten);
+        assertEquals("Expected the held message's buffer to be released", 0, conflated[2].buf.refCnt());
+    }
+
+    @Test
+    public void sendWritesConflatedMessagesFirst() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection connection = openResponse.connection;
+
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        engine.tell(new SendRequest(connection, "topic2", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        int messages = component.getMessages().size();
+
+        // Pretend that earlier data is still being written to the network, so that messages are held
+        connection.drained = false;
+        SendRequest held1 = new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1}), 1, QOS.AT_MOST_ONCE, 0, "topic1");
+        engine.tell(held1, component);
+        engine.tell(new SendRequest(connection, "topic2", wrappedBuffer(new byte[]{2}), 1, QOS.AT_MOST_ONCE, 1, "topic2"), component);
+        assertEquals(2, connection.conflatedSends.size());
+        assertEquals("Expected no messages to have completed", messages, component.getMessages().size());
+
+        // A message that cannot be conflated is sent after the message held for its topic
+        SendRequest unconflated = new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{3}), 1, QOS.AT_MOST_ONCE, 2, null);
+        engine.tell(unconflated, component);
+        assertNull("Expected the message held for topic1 to have been written", connection.conflatedSends.get("topic1"));
+        assertEquals(0, held1.buf.refCnt());
+        int held1Index = -1;
+        int unconflatedIndex = -1;
+        for (int i = messages; i < component.getMessages().size(); ++i) {
+            if (component.getMessages().get(i) instanceof SendResponse) {
+                SendResponse response = (SendResponse)component.getMessages().get(i);
+                if (response.request == held1) held1Index = i;
+                if (response.request == unconflated) unconflatedIndex = i;
+            }
+        }
+        assertTrue("Expected the held message to have completed", held1Index >= 0);
+        assertTrue("Expected the message to have completed", unconflatedIndex >= 0);
+        assertTrue("Expected the held message to complete first", held1Index < unconflatedIndex);
+    }
+
+    @Test
+    public void sendKeepsLinksWithConflatedMessages() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 1), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection connection = openResponse.connection;
+
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        Sender topic1Sender = connection.senders.get("topic1");
+        connection.drained = false;
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1}), 1, QOS.AT_MOST_ONCE, 0, "topic1"), component);
+
+        engine.tell(new SendRequest(connection, "topic2", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertSame("Expected the link with a held message to be kept open", topic1Sender, connection.senders.get("topic1"));
+        assertNotNull("Expected a sending link for topic2", connection.senders.get("topic2"));
+    }
+
     @Test
     public void receiveQos0() {
         NetworkService network = new MockNetworkService(new MockHandler());
@@ -325,4 +447,219 @@ public class TestEngine {
         engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_MOST_ONCE, 10, 0), component);
         System.out.println(component.getMessages());
     }
+
+    @Test
+    public void sendReusesLink() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        Sender sender = openResponse.connection.senders.get("topic1");
+        assertNotNull("Expected a sending link to have been opened for topic1", sender);
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertEquals("Expected only one sending link", 1, openResponse.connection.senders.size());
+        assertSame("Expected the sending link to have been reused", sender, openResponse.connection.senders.get("topic1"));
+    }
+
+    @Test
+    public void sendClosesIdleLinks() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 2), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        Sender topic1Sender = openResponse.connection.senders.get("topic1");
+        engine.tell(new SendRequest(openResponse.connection, "topic2", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        engine.tell(new SendRequest(openResponse.connection, "topic3", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+
+        assertEquals("Expected the number of sending links to be limited", 2, openResponse.connection.senders.size());
+        assertSame("Expected the recently used link to be kept open", topic1Sender, openResponse.connection.senders.get("topic1"));
+        assertNotNull("Expected a sending link for topic3", openResponse.connection.senders.get("topic3"));
+        assertNull("Expected the least recently used link to have been closed", openResponse.connection.senders.get("topic2"));
+    }
+
+    @Test
+    public void sendReopensLinkWithNewName() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 1), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        Sender topic1Sender = openResponse.connection.senders.get("topic1");
+        engine.tell(new SendRequest(openResponse.connection, "topic2", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertNull("Expected the idle link to have been closed", openResponse.connection.senders.get("topic1"));
+
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        Sender reopenedSender = openResponse.connection.senders.get("topic1");
+        assertNotNull("Expected a sending link for topic1", reopenedSender);
+        assertNotSame(topic1Sender, reopenedSender);
+        assertFalse("Expected the reopened link to have a different name", topic1Sender.getName().equals(reopenedSender.getName()));
+        assertEquals("topic1", reopenedSender.getTarget().getAddress());
+    }
+
+    @Test
+    public void sendBatchesMessages() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        MockTimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 0, 3, 64 * 1024, 1000), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection connection = openResponse.connection;
+
+        // The first message is held until the linger timer pops
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertEquals("Expected the message to be batched", 1, connection.batchedMessages);
+        assertEquals("Expected a linger timer to have been scheduled", 1, timer.scheduled.size());
+        timer.scheduled.removeFirst().setSuccess(null);
+        assertEquals("Expected the batch to have been written", 0, connection.batchedMessages);
+
+        // The batch is written as soon as it holds 3 messages
+        long bytesWritten = connection.bytesWritten;
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertEquals("Expected the messages to be batched", 2, connection.batchedMessages);
+        assertEquals("Expected no data to have been written", bytesWritten, connection.bytesWritten);
+        engine.tell(new SendRequest(connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertEquals("Expected the batch to have been written", 0, connection.batchedMessages);
+        assertTrue("Expected data to have been written", connection.bytesWritten > bytesWritten);
+    }
+
+    @Test
+    public void sendBatchWrittenWhenIdle() {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        MockTimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id", 0, 100, 64 * 1024, 0), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        // With no linger time, the batch is written once the engine has no more requests to process
+        engine.tell(new SendRequest(openResponse.connection, "topic1", wrappedBuffer(new byte[]{1, 2, 3}), 3, QOS.AT_MOST_ONCE), component);
+        assertEquals("Expected the batch to have been written", 0, openResponse.connection.batchedMessages);
+        assertTrue("Expected no linger timer to have been scheduled", timer.scheduled.isEmpty());
+        assertEquals("Expected two more messages to have been sent to component", 3, component.getMessages().size());
+        assertTrue("Expected message 2 to be of type DrainNotification", component.getMessages().get(1) instanceof DrainNotification);
+        assertTrue("Expected message 3 to be of type SendResponse", component.getMessages().get(2) instanceof SendResponse);
+    }
+
+    @Test
+    public void idleTimeoutExpires() throws InterruptedException {
+        NetworkService network = new MockNetworkService(new MockHandler());
+        MockTimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint() {
+            @Override public int getIdleTimeout() { return 20; }
+        };
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        assertEquals("Expected an idle timer to have been scheduled", 1, timer.scheduled.size());
+
+        // Nothing is received from the server, so the connection is closed once the idle timeout has passed
+        Thread.sleep(50);
+        timer.scheduled.removeFirst().setSuccess(null);
+        assertTrue("Expected the connection to have been closed", openResponse.connection.closed);
+        assertEquals("Expected one more message to have been sent to component", 2, component.getMessages().size());
+        assertTrue("Expected message 2 to be of type DisconnectNotification", component.getMessages().get(1) instanceof DisconnectNotification);
+        DisconnectNotification notification = (DisconnectNotification)component.getMessages().get(1);
+        assertTrue("Expected a NetworkException, but got: " + notification.error, notification.error instanceof NetworkException);
+        assertTrue("Expected no further timer to have been scheduled", timer.scheduled.isEmpty());
+    }
+
+    @Test
+    public void receiveQos1ConfirmedTogether() {
+        MockHandler handler = new MockHandler();
+        handler.deliveriesToSend = 3;
+        MockNetworkService network = new MockNetworkService(handler);
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+
+        engine.tell(new SubscribeRequest(openResponse.connection, new SubscriptionTopic("topic1"), QOS.AT_LEAST_ONCE, 10, 0), component);
+        assertEquals("Expected four more messages to have been sent to component", 5, component.getMessages().size());
+        LinkedList<DeliveryRequest> requests = new LinkedList<>();
+        for (int i = 2; i < 5; ++i) {
+            assertTrue("Expected message " + (i + 1) + " to be of type DeliveryRequest", component.getMessages().get(i) instanceof DeliveryRequest);
+            requests.add((DeliveryRequest)component.getMessages().get(i));
+        }
+
+        engine.tell(new DeliveryResponse(requests), component);
+        for (Delivery delivery : handler.deliveries) {
+            assertTrue("Delivery should have been marked as settled", delivery.remotelySettled());
+        }
+    }
+
+    @Test
+    public void confirmAfterUnsubscribeReportedForEachSubscription() {
+        MockHandler handler = new MockHandler();
+        handler.deliveriesToSend = 2;
+        MockNetworkService network = new MockNetworkService(handler);
+        TimerService timer = new MockTimerService();
+        Endpoint endpoint = new StubEndpoint();
+        MockComponent component = new MockComponent();
+
+        Engine engine = new Engine(network, timer);
+        engine.tell(new OpenRequest(endpoint, "client-id"), component);
+        OpenResponse openResponse = (OpenResponse)component.getMessages().get(0);
+        EngineConnection connection = openResponse.connection;
+
+        engine.tell(new SubscribeRequest(connection, new SubscriptionTopic("topic1"), QOS.AT_LEAST_ONCE, 10, 0), component);
+        engine.tell(new SubscribeRequest(connection, new SubscriptionTopic("topic2"), QOS.AT_LEAST_ONCE, 10, 0), component);
+        LinkedList<DeliveryRequest> requests = new LinkedList<>();
+        for (Message message : component.getMessages()) {
+            if (message instanceof DeliveryRequest) requests.add((DeliveryRequest)message);
+        }
+        assertEquals("Expected two deliveries for each subscription", 4, requests.size());
+
+        // Pretend the client unsubscribed from both destinations before confirming the deliveries
+        connection.subscriptionData.clear();
+        int messages = component.getMessages().size();
+        engine.tell(new DeliveryResponse(requests), component);
+
+        HashSet<String> reported = new HashSet<>();
+        for (Message message : component.getMessages().subList(messages, component.getMessages().size())) {
+            if (message instanceof ConfirmFailureNotification) {
+                assertSame(connection, ((ConfirmFailureNotification)message).connection);
+                assertTrue("Expected each subscription to be reported once", reported.add(((ConfirmFailureNotification)message).exception.getMessage()));
+            }
+        }
+        assertEquals("Expected a notification for each unsubscribed destination", 2, reported.size());
+    }
+
+    @Test
+    public void deliveryTags() {
+        assertArrayEquals(new byte[] {0}, Engine.deliveryTag(0));
+        assertArrayEquals(new byte[] {(byte)0xff}, Engine.deliveryTag(255));
+        assertArrayEquals(new byte[] {1, 0}, Engine.deliveryTag(256));
+        assertArrayEquals(new byte[] {0x12, 0x34, 0x56}, Engine.deliveryTag(0x123456));
+        assertArrayEquals(new byte[] {(byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff},
+                          Engine.deliveryTag(-1));
+    }
 }
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.impl.MockComponent;
+import com.ibm.mqlight.api.network.NetworkChannel;
+import com.ibm.mqlight.api.network.NetworkListener;
+import com.ibm.mqlight.api.network.NetworkService;
+import com.ibm.mqlight.api.timer.TimerService;
+
+public class TestEnginePool {
+
+    private class MockNetworkService implements NetworkService {
+        private volatile Thread connectThread;
+        @Override
+        public void connect(Endpoint endpoint, NetworkListener listener, Promise<NetworkChannel> promise) {
+            connectThread = Thread.currentThread();
+            promise.setFailure(new IOException("Couldn't connect!"));
+        }
+    }
+
+    private class MockTimerService implements TimerService {
+        @Override public void schedule(long delay, Promise<Void> promise) {}
+        @Override public void cancel(Promise<Void> promise) {}
+    }
+
+    @Test
+    public void enginesAssignedRoundRobin() {
+        EnginePool pool = new EnginePool(new MockNetworkService(), new MockTimerService(), 3);
+        assertEquals(3, pool.size());
+
+        Engine first = pool.getEngine();
+        Engine second = pool.getEngine();
+        Engine third = pool.getEngine();
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertNotSame(first, third);
+        assertSame("Expected engines to be reused once each has been assigned", first, pool.getEngine());
+        assertSame(second, pool.getEngine());
+    }
+
+    @Test
+    public void invalidArguments() {
+        try {
+            new EnginePool(new MockNetworkService(), new MockTimerService(), 0);
+            fail("Expected an exception for a pool size of 0");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new EnginePool(new MockNetworkService(), new MockTimerService(), new Executor[0]);
+            fail("Expected an exception for no executors");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new EnginePool(new MockNetworkService(), new MockTimerService(), new Executor[] {null});
+            fail("Expected an exception for a null executor");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void enginesRunOnSuppliedExecutors() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Thread executorThread = executor.submit(new java.util.concurrent.Callable<Thread>() {
+                @Override public Thread call() { return Thread.currentThread(); }
+            }).get();
+            MockNetworkService network = new MockNetworkService();
+            EnginePool pool = new EnginePool(network, new MockTimerService(), new Executor[] {executor});
+            MockComponent component = new MockComponent();
+
+            pool.getEngine().tell(new OpenRequest(new TestEngine().new StubEndpoint(), "client-id"), component);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+            assertSame("Expected the engine to process its request on the executor", executorThread, network.connectThread);
+            assertEquals(1, component.getMessages().size());
+            assertTrue(component.getMessages().get(0) instanceof OpenResponse);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
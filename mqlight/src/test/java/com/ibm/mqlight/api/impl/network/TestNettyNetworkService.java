@@ -19,10 +19,13 @@
 package com.ibm.mqlight.api.impl.network;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.nio.NioEventLoopGroup;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,11 +41,17 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLServerSocketFactory;
 
 import junit.framework.AssertionFailedError;
@@ -53,6 +62,7 @@ import org.junit.rules.TemporaryFolder;
 
 import com.ibm.mqlight.api.Promise;
 import com.ibm.mqlight.api.endpoint.Endpoint;
+import com.ibm.mqlight.api.network.NetworkOptions;
 
 public class TestNettyNetworkService {
 
@@ -299,6 +309,68 @@ public class TestNettyNetworkService {
         assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
     }
 
+    @Test
+    public void connectWithSuppliedEventLoopGroup() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        NettyNetworkService nn = new NettyNetworkService(group, null);
+        for (int i = 0; i < 2; ++i) {
+            BaseListener testListener = new BaseListener(34567);
+
+            LatchedLinkedList<Event> channelEvents = new LatchedLinkedList<Event>(1);
+            LatchedLinkedList<Event> connectEvents = new LatchedLinkedList<Event>(1);
+            nn.connect(new StubEndpoint("localhost", 34567), new MockNetworkListener(channelEvents), new MockNetworkConnectPromise(connectEvents));
+
+            connectEvents.await(EVENT_WAIT_TIMEOUT_SECONDS);
+            channelEvents.await(EVENT_WAIT_TIMEOUT_SECONDS);
+
+            assertTrue("Expected listener to end!", testListener.join(LISTENER_WAIT_TIMEOUT_SECONDS));
+            assertEquals("Expected connect " + i + " to succeed", Event.Type.CONNECT_SUCCESS, connectEvents.get(0).type);
+            assertEquals("Expected connection " + i + " to be closed", Event.Type.CHANNEL_CLOSE, channelEvents.get(0).type);
+            assertFalse("Expected the supplied event loop group to keep running", group.isShuttingDown());
+        }
+
+        group.shutdownGracefully(0, 500, TimeUnit.MILLISECONDS);
+        assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void concurrentConnectFailures() throws Exception {
+        final NettyNetworkService nn = new NettyNetworkService();
+        final int connects = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<LatchedLinkedList<Event>> connectEvents = new ArrayList<LatchedLinkedList<Event>>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < connects; ++i) {
+            final LatchedLinkedList<Event> events = new LatchedLinkedList<Event>(1);
+            connectEvents.add(events);
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        nn.connect(new StubEndpoint("localhost", 34568), new MockNetworkListener(new LinkedList<Event>()), new MockNetworkConnectPromise(events));
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (int i = 0; i < connects; ++i) {
+            threads.get(i).join(LISTENER_WAIT_TIMEOUT_SECONDS);
+            connectEvents.get(i).await(EVENT_WAIT_TIMEOUT_SECONDS);
+            assertEquals("Wrong number of connect events seen for connect " + i, 1, connectEvents.get(i).size());
+            assertEquals("Expected connect " + i + " to fail", Event.Type.CONNECT_FAILURE, connectEvents.get(i).get(0).type);
+        }
+
+        // Once every attempt has released the shared event loop group, it should shut down
+        assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
+    }
+
     @Test
     public void connectRemoteCloseSsl() throws Exception {
         NettyNetworkService nn = new NettyNetworkService();
@@ -420,8 +492,52 @@ public class TestNettyNetworkService {
         assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
     }
 
+    @Test
+    public void sslContextCache() throws Exception {
+        final File jksFile = folder.newFile();
+        final KeyStore jks = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(new File(
+                System.getProperty("java.home") + "/lib/security/cacerts"));
+                FileOutputStream fos = new FileOutputStream(jksFile)) {
+            jks.load(fis, null);
+            jks.store(fos, new char[0]);
+        }
+
+        final NettyNetworkService.CachedSslContext ctx = NettyNetworkService.getSslContext(jksFile, true);
+        assertTrue("Expected the context to be reused", ctx == NettyNetworkService.getSslContext(jksFile, true));
+        assertFalse("Expected a different context when the host name is not verified", ctx == NettyNetworkService.getSslContext(jksFile, false));
+
+        assertTrue(jksFile.setLastModified(jksFile.lastModified() - 10000));
+        final NettyNetworkService.CachedSslContext changed = NettyNetworkService.getSslContext(jksFile, true);
+        assertFalse("Expected a new context once the file has changed", ctx == changed);
+        assertTrue("Expected the new context to be reused", changed == NettyNetworkService.getSslContext(jksFile, true));
+
+        final SSLEngine engine = changed.newEngine("localhost", 34567);
+        assertTrue("Expected the engine to be in client mode", engine.getUseClientMode());
+        for (String protocol : engine.getEnabledProtocols()) {
+            assertFalse("Expected protocol " + protocol + " to be disabled", protocol.startsWith("SSLv3"));
+        }
+        for (String cipher : engine.getEnabledCipherSuites()) {
+            assertFalse("Expected cipher suite " + cipher + " to be disabled", cipher.contains("_NULL_"));
+        }
+        assertTrue(Arrays.equals(engine.getEnabledCipherSuites(), changed.newEngine("localhost", 34567).getEnabledCipherSuites()));
+    }
+
     @Test
     public void writeData() throws Exception {
+        writeData(new NettyNetworkService());
+    }
+
+    @Test
+    public void writeDataWithNetworkOptions() throws Exception {
+        NetworkOptions options = NetworkOptions.builder().setTcpNoDelay(true).setSocketBufferSizes(256 * 1024, 256 * 1024)
+                .setWriteBufferWaterMarks(16 * 1024, 8 * 1024).setReceiveBufferAllocator(128, 2048, 128 * 1024)
+                .setPooledAllocator(true).setEventLoopThreads(1).setConnectTimeout(5000).build();
+        writeData(new NettyNetworkService(options));
+    }
+
+    @Test
+    public void closeFlushesPendingWrites() throws Exception {
         NettyNetworkService nn = new NettyNetworkService();
         ReceiveListener testListener = new ReceiveListener(34567);
 
@@ -430,6 +546,113 @@ public class TestNettyNetworkService {
         MockNetworkConnectPromise promise = new MockNetworkConnectPromise(events);
         nn.connect(new StubEndpoint("localhost", 34567), listener, promise);
 
+        for (int i = 0 ; i < 20; ++i) {
+            if (promise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        assertNotNull("Expected connect promise to contain a channel, events are: "+promise.getEvents(), promise.getChannel());
+
+        // Close straight after a large write, followed by a burst of small writes that are still waiting
+        // for the large one to complete
+        final int writes = 1000;
+        final AtomicInteger failed = new AtomicInteger();
+        byte[] large = new byte[1 << 23];
+        promise.getChannel().write(ByteBuffer.wrap(large), new MockNetworkWritePromise());
+        byte[] data = new byte[64];
+        for (int i = 0; i < writes; ++i) {
+            promise.getChannel().write(ByteBuffer.wrap(data), new MockNetworkWritePromise() {
+                @Override
+                public void setFailure(Exception exception) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+        MockNetworkClosePromise closePromise = new MockNetworkClosePromise();
+        promise.getChannel().close(closePromise);
+
+        assertTrue("Expected listener to end!", testListener.join(LISTENER_WAIT_TIMEOUT_SECONDS));
+        assertEquals("Expected no writes to have been discarded", 0, failed.get());
+        assertEquals("Expected the writes made before the close to have been sent", large.length + writes * data.length, testListener.getBytesRead());
+
+        assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void remoteCloseWithPendingWrites() throws Exception {
+        NetworkOptions options = NetworkOptions.builder().setSocketBufferSizes(32 * 1024, 32 * 1024)
+                .setWriteBufferWaterMarks(16 * 1024, 8 * 1024).build();
+        NettyNetworkService nn = new NettyNetworkService(options);
+        // A server that does not read any data, so that the writes back up, and then drops the connection
+        final CountDownLatch serverRelease = new CountDownLatch(1);
+        BaseListener testListener = new BaseListener(34567) {
+            @Override
+            protected void processSocket(Socket socket) throws IOException {
+                try {
+                    serverRelease.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        LinkedList<Event> events = new LinkedList<>();
+        MockNetworkListener listener = new MockNetworkListener(events);
+        MockNetworkConnectPromise promise = new MockNetworkConnectPromise(events);
+        nn.connect(new StubEndpoint("localhost", 34567), listener, promise);
+
+        for (int i = 0 ; i < 20; ++i) {
+            if (promise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        assertNotNull("Expected connect promise to contain a channel, events are: "+promise.getEvents(), promise.getChannel());
+
+        final int writes = 50;
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        byte[] data = new byte[1024 * 1024];
+        for (int i = 0; i < writes; ++i) {
+            promise.getChannel().write(ByteBuffer.wrap(data), new MockNetworkWritePromise() {
+                @Override
+                public void setSuccess(Boolean drained) {
+                    super.setSuccess(drained);
+                    succeeded.incrementAndGet();
+                }
+                @Override
+                public void setFailure(Exception exception) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+
+        serverRelease.countDown();
+        assertTrue("Expected listener to end!", testListener.join(LISTENER_WAIT_TIMEOUT_SECONDS));
+        for (int j = 0; j < 100; ++j) {
+            if (succeeded.get() + failed.get() == writes) break;
+            Thread.sleep(50);
+        }
+        assertEquals("Expected every write promise to have been completed", writes, succeeded.get() + failed.get());
+        assertTrue("Expected the writes still waiting to be written to have failed", failed.get() > 0);
+
+        // Writes made after the channel has closed fail straight away
+        final AtomicBoolean lateFailure = new AtomicBoolean(false);
+        promise.getChannel().write(ByteBuffer.wrap(data), new MockNetworkWritePromise() {
+            @Override
+            public void setFailure(Exception exception) {
+                lateFailure.set(true);
+            }
+        });
+        assertTrue("Expected a write after close to fail", lateFailure.get());
+
+        assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
+    }
+
+    private void writeData(NettyNetworkService nn) throws Exception {
+        ReceiveListener testListener = new ReceiveListener(34567);
+
+        LinkedList<Event> events = new LinkedList<>();
+        MockNetworkListener listener = new MockNetworkListener(events);
+        MockNetworkConnectPromise promise = new MockNetworkConnectPromise(events);
+        nn.connect(new StubEndpoint("localhost", 34567), listener, promise);
+
         for (int i = 0 ; i < 20; ++i) {
             if (promise.isComplete()) break;
             Thread.sleep(50);
@@ -486,6 +709,62 @@ public class TestNettyNetworkService {
         assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
     }
 
+    @Test
+    public void writeDataCompletesInOrder() throws Exception {
+        NettyNetworkService nn = new NettyNetworkService();
+        ReceiveListener testListener = new ReceiveListener(34567);
+
+        LinkedList<Event> events = new LinkedList<>();
+        MockNetworkListener listener = new MockNetworkListener(events);
+        MockNetworkConnectPromise promise = new MockNetworkConnectPromise(events);
+        nn.connect(new StubEndpoint("localhost", 34567), listener, promise);
+
+        for (int i = 0 ; i < 20; ++i) {
+            if (promise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        assertNotNull("Expected connect promise to contain a channel, events are: "+promise.getEvents(), promise.getChannel());
+
+        // Queue a burst of small writes - these are written in batches, but the promises must still
+        // be completed in the order that the writes were made.
+        final int writes = 1000;
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicBoolean lastDrained = new AtomicBoolean(false);
+        byte[] data = new byte[64];
+        for (int i = 0; i < writes; ++i) {
+            final int index = i;
+            promise.getChannel().write(ByteBuffer.wrap(data), new MockNetworkWritePromise() {
+                @Override
+                public void setSuccess(Boolean drained) {
+                    super.setSuccess(drained);
+                    completed.add(index);
+                    if (index == writes - 1) lastDrained.set(drained);
+                }
+            });
+        }
+
+        for (int j = 0; j < 100; ++j) {
+            if (completed.size() == writes) break;
+            Thread.sleep(50);
+        }
+        assertEquals("Expected all write promises to have been completed", writes, completed.size());
+        for (int i = 0; i < writes; ++i) {
+            assertEquals("Expected write promises to be completed in order", Integer.valueOf(i), completed.get(i));
+        }
+        assertTrue("Expected the last write to report that the channel was drained", lastDrained.get());
+
+        MockNetworkClosePromise closePromise = new MockNetworkClosePromise();
+        promise.getChannel().close(closePromise);
+        for (int i = 0 ; i < 20; ++i) {
+            if (closePromise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        assertTrue("Expected listener to end!", testListener.join(LISTENER_WAIT_TIMEOUT_SECONDS));
+        assertEquals("Expected to have received same amount of data as was sent", writes * data.length, testListener.getBytesRead());
+
+        assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
+    }
+
     @Test
     public void readData() throws IOException, InterruptedException {
         NettyNetworkService nn = new NettyNetworkService();
@@ -590,4 +869,19 @@ public class TestNettyNetworkService {
 
         assertTrue("Expected network service to end!", nn.awaitTermination(NETWORK_WAIT_TIMEOUT_SECONDS));
     }
+
+    @Test
+    public void transports() {
+        assertEquals(NettyNetworkService.Transport.NIO, NettyNetworkService.resolveTransport(NettyNetworkService.Transport.NIO));
+        final NettyNetworkService.Transport expected =
+                Epoll.isAvailable() ? NettyNetworkService.Transport.EPOLL : NettyNetworkService.Transport.NIO;
+        assertEquals(expected, NettyNetworkService.resolveTransport(NettyNetworkService.Transport.AUTO));
+        assertEquals(expected, NettyNetworkService.resolveTransport(NettyNetworkService.Transport.EPOLL));
+        try {
+            new NettyNetworkService((NettyNetworkService.Transport)null);
+            throw new AssertionFailedError("A null transport should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.impl.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.AssertionFailedError;
+
+import org.junit.Test;
+
+import com.ibm.mqlight.api.Promise;
+import com.ibm.mqlight.api.impl.MockComponent;
+import com.ibm.mqlight.api.timer.TimerService;
+
+public class TestHashedWheelTimerService {
+
+    private class MockPromise implements Promise<Void> {
+        private AtomicBoolean complete = new AtomicBoolean(false);
+        private AtomicBoolean setFailureCalled = new AtomicBoolean(false);
+        private AtomicBoolean setSuccessCalled = new AtomicBoolean(false);
+        private volatile long completedAt;
+
+        @Override
+        public void setFailure(Exception exception) throws IllegalStateException {
+            if (complete.getAndSet(true)) throw new IllegalStateException();
+            setFailureCalled.set(true);
+        }
+
+        @Override
+        public void setSuccess(Void result) throws IllegalStateException {
+            completedAt = System.currentTimeMillis();
+            if (complete.getAndSet(true)) throw new IllegalStateException();
+            setSuccessCalled.set(true);
+        }
+
+        @Override
+        public boolean isComplete() {
+            return complete.get();
+        }
+    }
+
+    @Test
+    public void goldenPath() throws InterruptedException {
+        TimerService timer = new HashedWheelTimerService();
+        MockPromise promise = new MockPromise();
+        timer.schedule(250, promise);
+
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < 10; ++i) {
+            if (promise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        long t2 = System.currentTimeMillis();
+
+        assertTrue("Promise should have completed by now!", promise.isComplete());
+        long elapsed = t2 - t1;
+        if (elapsed < 150) throw new AssertionFailedError("Promise completed too quickly in " + elapsed +"ms (expected 250ms)");
+        assertFalse("Promise should not have been marked as failed", promise.setFailureCalled.get());
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        TimerService timer = new HashedWheelTimerService();
+        MockPromise promise = new MockPromise();
+        timer.schedule(250, promise);
+        timer.cancel(promise);
+
+        assertTrue("Promise should have completed by now!", promise.isComplete());
+        assertTrue("Promise should have been marked as failed", promise.setFailureCalled.get());
+        Thread.sleep(350);
+        assertFalse("Promise should not have been marked as successful", promise.setSuccessCalled.get());
+    }
+
+    @Test
+    public void cancelCompleted() throws InterruptedException {
+        TimerService timer = new HashedWheelTimerService();
+        MockPromise promise = new MockPromise();
+        timer.schedule(50, promise);
+
+        for (int i = 0; i < 5; ++i) {
+            if (promise.isComplete()) break;
+            Thread.sleep(50);
+        }
+        assertTrue("Promise should have completed by now!", promise.isComplete());
+
+        timer.cancel(promise);   // Should have no ill effects...
+    }
+
+    @Test
+    public void cancelTimerPromise() throws InterruptedException {
+        TimerService timer = new HashedWheelTimerService();
+        MockComponent component = new MockComponent();
+        TimerPromiseImpl promise = new TimerPromiseImpl(component, null);
+        timer.schedule(100, promise);
+        timer.cancel(promise);
+
+        Thread.sleep(200);
+        assertEquals("Expected one message to have been sent to component", 1, component.getMessages().size());
+        assertTrue("Expected message to be of type CancelResponse", component.getMessages().get(0) instanceof CancelResponse);
+    }
+
+    @Test
+    public void timersSpanningWheel() throws InterruptedException {
+        // A wheel of 4 x 5ms slots only covers 20ms, so most of these timers go round the wheel more than once
+        TimerService timer = new HashedWheelTimerService(5, 4);
+        MockPromise[] promises = new MockPromise[10];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < promises.length; ++i) {
+            promises[i] = new MockPromise();
+            timer.schedule(i * 15, promises[i]);
+        }
+
+        for (int i = 0; i < 40; ++i) {
+            if (promises[promises.length - 1].isComplete()) break;
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < promises.length; ++i) {
+            assertTrue("Promise " + i + " should have completed by now!", promises[i].setSuccessCalled.get());
+            long elapsed = promises[i].completedAt - start;
+            if (elapsed < i * 15 - 5) fail("Promise " + i + " completed too quickly in " + elapsed + "ms (expected " + (i * 15) + "ms)");
+        }
+    }
+
+    @Test
+    public void invalidArguments() {
+        try {
+            new HashedWheelTimerService(0, 512);
+            fail("Expected an exception for a tick of 0");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new HashedWheelTimerService(10, 0);
+            fail("Expected an exception for a wheel size of 0");
+        } catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ibm.mqlight.api.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.AssertionFailedError;
+
+import org.junit.Test;
+
+public class TestNetworkOptions {
+
+    @Test
+    public void defaults() {
+        NetworkOptions opts = NetworkOptions.builder().build();
+        assertFalse(opts.getTcpNoDelay());
+        assertEquals(0, opts.getSendBufferSize());
+        assertEquals(0, opts.getReceiveBufferSize());
+        assertEquals(64 * 1024, opts.getWriteBufferHighWaterMark());
+        assertEquals(32 * 1024, opts.getWriteBufferLowWaterMark());
+        assertEquals(64, opts.getReceiveAllocatorMinimum());
+        assertEquals(1024, opts.getReceiveAllocatorInitial());
+        assertEquals(64 * 1024, opts.getReceiveAllocatorMaximum());
+        assertFalse(opts.getPooledAllocator());
+        assertEquals(0, opts.getEventLoopThreads());
+        assertEquals(30000, opts.getConnectTimeoutMillis());
+    }
+
+    @Test
+    public void values() {
+        NetworkOptions opts = NetworkOptions.builder().setTcpNoDelay(true).setSocketBufferSizes(1000, 2000)
+                .setWriteBufferWaterMarks(4000, 3000).setReceiveBufferAllocator(10, 20, 30)
+                .setPooledAllocator(true).setEventLoopThreads(2).setConnectTimeout(5000).build();
+        assertTrue(opts.getTcpNoDelay());
+        assertEquals(1000, opts.getSendBufferSize());
+        assertEquals(2000, opts.getReceiveBufferSize());
+        assertEquals(4000, opts.getWriteBufferHighWaterMark());
+        assertEquals(3000, opts.getWriteBufferLowWaterMark());
+        assertEquals(10, opts.getReceiveAllocatorMinimum());
+        assertEquals(20, opts.getReceiveAllocatorInitial());
+        assertEquals(30, opts.getReceiveAllocatorMaximum());
+        assertTrue(opts.getPooledAllocator());
+        assertEquals(2, opts.getEventLoopThreads());
+        assertEquals(5000, opts.getConnectTimeoutMillis());
+    }
+
+    @Test
+    public void invalidValues() {
+        try {
+            NetworkOptions.builder().setSocketBufferSizes(-1, 0);
+            throw new AssertionFailedError("Negative send buffer size should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            NetworkOptions.builder().setWriteBufferWaterMarks(1000, 2000);
+            throw new AssertionFailedError("Low water mark above high water mark should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            NetworkOptions.builder().setReceiveBufferAllocator(100, 50, 200);
+            throw new AssertionFailedError("Initial receive buffer below minimum should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            NetworkOptions.builder().setEventLoopThreads(-1);
+            throw new AssertionFailedError("Negative thread count should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            NetworkOptions.builder().setConnectTimeout(0);
+            throw new AssertionFailedError("Zero connect timeout should have been rejected");
+        } catch(IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}